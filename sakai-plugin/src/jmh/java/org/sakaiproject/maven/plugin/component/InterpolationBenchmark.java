@@ -0,0 +1,115 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.InterpolationFilterReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the interpolation of filtered resources by the {@link Interpolator}
+ * with the chain of <code>InterpolationFilterReader</code>s it replaced.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class InterpolationBenchmark
+{
+    /**
+     * The size of the text, in kilobytes.
+     */
+    @Param( { "4", "256" } )
+    public int size;
+
+    /**
+     * The share of lines with a token, in percent.
+     */
+    @Param( { "1", "20" } )
+    public int tokens;
+
+    private String text;
+
+    private Map properties;
+
+    @Setup
+    public void setUp()
+    {
+        properties = new HashMap();
+        for ( int i = 0; i < 100; i++ )
+        {
+            properties.put( "sakai.property." + i, "value of property " + i );
+        }
+
+        Random random = new Random( 1 );
+        StringBuilder builder = new StringBuilder();
+        while ( builder.length() < size * 1024 )
+        {
+            builder.append( "    var element = document.getElementById(\"portlet-" );
+            builder.append( random.nextInt( 1000 ) ).append( "\"); // contact: admin@example.org\n" );
+            if ( random.nextInt( 100 ) < tokens )
+            {
+                if ( random.nextBoolean() )
+                {
+                    builder.append( "    var url = \"${sakai.property." + random.nextInt( 120 ) + "}\";\n" );
+                }
+                else
+                {
+                    builder.append( "    var label = '@sakai.property." + random.nextInt( 120 ) + "@';\n" );
+                }
+            }
+        }
+        text = builder.toString();
+    }
+
+    @Benchmark
+    public String readerChain()
+        throws Exception
+    {
+        Reader reader = new InterpolationFilterReader( new StringReader( text ), properties, "${", "}" );
+        reader = new InterpolationFilterReader( reader, properties, "@", "@" );
+        return IOUtil.toString( reader );
+    }
+
+    @Benchmark
+    public String interpolator()
+    {
+        return Interpolator.interpolate( text, properties );
+    }
+}
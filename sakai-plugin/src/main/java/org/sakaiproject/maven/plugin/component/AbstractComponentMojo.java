@@ -19,28 +19,40 @@ package org.sakaiproject.maven.plugin.component;
  * under the License.
  */
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.archiver.MavenArchiver;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
@@ -54,7 +66,7 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.UnArchiver;
-import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.archiver.jar.ManifestException;
 import org.codehaus.plexus.archiver.manager.ArchiverManager;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
 import org.codehaus.plexus.util.*;
@@ -82,13 +94,6 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	@Parameter(property = "archiveClasses", defaultValue = "false")
 	private boolean archiveClasses;
 
-	/**
-	 * The Jar archiver needed for archiving classes directory into jar file
-	 * under WEB-INF/lib.
-	 */
-	@Component(role = org.codehaus.plexus.archiver.Archiver.class, hint = "jar")
-	private JarArchiver jarArchiver;
-
 	/**
 	 * The directory where the webapp is built.
 	 */
@@ -131,6 +136,139 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	 */
 	@Parameter(defaultValue="${project.build.directory}/war/work", required = true)
 	private File workDirectory;
+
+	/**
+	 * File recording the outputs of the last webapp assembly. When set, a
+	 * rebuild only copies inputs that changed since then and removes outputs
+	 * whose source has gone, such as deleted classes or dropped dependencies.
+	 */
+	@Parameter(property = "sakai.assemblyManifest", defaultValue = "${project.build.directory}/sakai-assembly.manifest")
+	private File assemblyManifest;
+
+	/**
+	 * Number of threads used to copy files into the webapp. With a single
+	 * thread everything is copied on the build thread.
+	 */
+	@Parameter(property = "sakai.assemblyThreads", defaultValue = "4")
+	private int assemblyThreads = 4;
+
+	/**
+	 * How dependency jars are placed into <tt>WEB-INF/lib</tt>: <tt>copy</tt>,
+	 * <tt>hardlink</tt>, <tt>reflink</tt> or <tt>symlink</tt>. Links and
+	 * clones avoid duplicating the local repository in every webapp; if they
+	 * cannot be created the jars are copied. Only use <tt>symlink</tt> for webapps which
+	 * are not moved to another machine without packaging.
+	 */
+	@Parameter(property = "sakai.libPlacement", defaultValue = "copy")
+	private String libPlacement = LibPlacement.COPY;
+
+	/**
+	 * Whether files whose modification time changed are compared by content
+	 * before they are copied or unpacked again. This avoids recopying after a
+	 * checkout or a restore of a build cache touched files without changing
+	 * them. Digests are kept in <tt>digestCache</tt>, so a file is only read
+	 * again when its size or modification time changes.
+	 */
+	@Parameter(property = "sakai.contentHash", defaultValue = "false")
+	private boolean contentHash;
+
+	/**
+	 * File caching the content digests used when <tt>contentHash</tt> is set.
+	 */
+	@Parameter(property = "sakai.digestCache", defaultValue = "${project.build.directory}/sakai-digest.cache")
+	private File digestCache;
+
+	/**
+	 * How dependent wars are overlaid onto the webapp. With <tt>unpack</tt>
+	 * each war is unpacked into <tt>workDirectory</tt> and copied from there.
+	 * With <tt>stream</tt> the files are written straight from the war, so
+	 * only the files which end up in the webapp are written at all.
+	 */
+	@Parameter(property = "sakai.overlayMode", defaultValue = OVERLAY_UNPACK)
+	private String overlayMode = OVERLAY_UNPACK;
+
+	/**
+	 * Directory in which dependent wars are unpacked, shared by all modules
+	 * using it, instead of unpacking them into each module's
+	 * <tt>workDirectory</tt>. Wars are stored by content digest, so the
+	 * directory can be shared by the modules of a reactor, for instance
+	 * <tt>${session.executionRootDirectory}/target/overlays</tt>, and by
+	 * concurrent builds on one machine. Only used with the <tt>unpack</tt>
+	 * overlay mode.
+	 */
+	@Parameter(property = "sakai.overlayCacheDirectory")
+	private File overlayCacheDirectory;
+
+	/**
+	 * Number of threads compressing the entries of the classes jar and of the
+	 * component war, 0 for one per processor. Entries are written in the same
+	 * order whatever the number of threads.
+	 */
+	@Parameter(property = "sakai.archiveThreads", defaultValue = "0")
+	private int archiveThreads;
+
+	/**
+	 * Deflate level of the classes jar and of the component war: a number
+	 * from 0 to 9, <tt>default</tt>, <tt>fast</tt>, <tt>best</tt>, or
+	 * <tt>auto</tt> for <tt>fast</tt> with snapshot versions and
+	 * <tt>best</tt> with releases.
+	 */
+	@Parameter(property = "sakai.compressionLevel", defaultValue = CompressionPolicy.DEFAULT)
+	private String compressionLevel = CompressionPolicy.DEFAULT;
+
+	/**
+	 * Comma separated extensions of the files which are stored rather than
+	 * deflated in the classes jar and the component war, because they are
+	 * compressed already, or <tt>none</tt>. By default jars, wars, zips and
+	 * other archives, images, web fonts and media files are stored.
+	 */
+	@Parameter(property = "sakai.storedExtensions")
+	private String storedExtensions;
+
+	/**
+	 * The manifest of the webapp currently being assembled, if any.
+	 */
+	private AssemblyManifest manifest;
+
+	/**
+	 * The engine copying files into the webapp currently being assembled, if
+	 * any.
+	 */
+	private CopyEngine copyEngine;
+
+	/**
+	 * The placement of dependency jars in the webapp currently being
+	 * assembled, if any.
+	 */
+	private LibPlacement placement;
+
+	/**
+	 * The loaded digest cache, if <tt>contentHash</tt> is set.
+	 */
+	private DigestCache digests;
+
+	/**
+	 * The filter cache of the webapp currently being assembled, if any.
+	 */
+	private FilterCache filterCache;
+
+	/**
+	 * The layout of the webapp currently being assembled, if any.
+	 */
+	private WebappLayout layout;
+
+	/**
+	 * Dependent wars read by the webapp currently being assembled, which are
+	 * closed once it has been written.
+	 */
+	private final List archives = new ArrayList();
+
+	/**
+	 * Scanners used by the current build, keyed by their patterns. Their scans
+	 * are kept until the next webapp assembly starts, so that the assembly
+	 * steps looking at the same source tree walk it only once.
+	 */
+	private final Map scanners = new HashMap();
 	
 	@Component
     protected ArtifactFactory artifactFactory;
@@ -184,13 +322,30 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	private String dependentWarExcludes;
 
 	/**
-	 * The maven archive configuration to use.
+	 * The maven archive configuration to use. The manifest, manifest entries
+	 * and sections, <tt>manifestFile</tt>, <tt>addMavenDescriptor</tt>,
+	 * <tt>pomPropertiesFile</tt>, <tt>compress</tt> and
+	 * <tt>recompressAddedZips</tt> are honoured; <tt>index</tt> is not
+	 * supported and only logs a warning. Archives are always written
+	 * incrementally, only when their contents changed, so <tt>forced</tt> has
+	 * no effect.
 	 */
 	@Parameter
 	protected MavenArchiveConfiguration archive = new MavenArchiveConfiguration();
 
 	private static final String[] EMPTY_STRING_ARRAY = {};
 
+	/**
+	 * Dependent wars are unpacked into <tt>workDirectory</tt> before they are
+	 * overlaid.
+	 */
+	static final String OVERLAY_UNPACK = "unpack";
+
+	/**
+	 * Dependent wars are overlaid straight from the archive.
+	 */
+	static final String OVERLAY_STREAM = "stream";
+
 	public MavenProject getProject() {
 		return project;
 	}
@@ -343,9 +498,16 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 		}
 	}
 
+	/**
+	 * Returns the properties used to filter webResources: the project's
+	 * expressions, then the filter files, project properties and system
+	 * properties. The result is a snapshot which does not change and can be
+	 * read by several copy threads without locking.
+	 */
 	private Map getBuildFilterProperties() throws MojoExecutionException {
 
-		Map filterProperties = new Properties();
+		// a plain map, as Properties locks on every lookup
+		Map filterProperties = new HashMap();
 
 		// System properties
 		filterProperties.putAll(System.getProperties());
@@ -357,10 +519,9 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 			String filtersfile = (String) i.next();
 
 			try {
-				Properties properties = PropertyUtils.loadPropertyFile(
-						new File(filtersfile), true, true);
-
-				filterProperties.putAll(properties);
+				// parsed once per build, as the modules share filter files
+				filterProperties.putAll(FilterFileCache.load(new File(
+						filtersfile)));
 			} catch (IOException e) {
 				throw new MojoExecutionException(
 						"Error loading property file '" + filtersfile + "'", e);
@@ -392,26 +553,55 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 					"Copy webapp webResources to "
 							+ webappDirectory.getAbsolutePath());
 			if (webappDirectory.exists()) {
-				String[] fileNames = getWarFiles(resource);
+				List files = getWarFiles(resource).files;
 				String targetPath = (resource.getTargetPath() == null) ? ""
 						: resource.getTargetPath();
 				File destination = new File(webappDirectory, targetPath);
-				for (int i = 0; i < fileNames.length; i++) {
+				for (Iterator it = files.iterator(); it.hasNext();) {
+					FileScanner.ScannedFile file = (FileScanner.ScannedFile) it
+							.next();
+					final String path = getWebappPath(targetPath, file.name);
+					final File source = file.file;
+					final File target = new File(destination, file.name);
 					if (resource.isFiltering()) {
-						copyFilteredFile(new File(resource.getDirectory(),
-								fileNames[i]), new File(destination,
-								fileNames[i]), null, getFilterWrappers(),
-								filterProperties);
+						final BasicFileAttributes attributes = file.attributes;
+						addToWebapp(resource.getDirectory(), path,
+								WebappLayout.GENERATED, -1, () -> {
+									filterResource(source, attributes, target,
+											path, filterProperties);
+									if (manifest != null) {
+										manifest.recordGenerated(path);
+									}
+								});
 					} else {
-						FileUtils.copyFileIfModified(new File(resource.getDirectory(),
-								fileNames[i]), new File(destination,
-								fileNames[i]));
+						copyToWebapp(resource.getDirectory(), file, target,
+								path);
 					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * Filters a single resource into the webapp. The output is left alone if
+	 * the filter cache shows it would be rendered the same, or if the newly
+	 * rendered content is the same as what is already there, so that its
+	 * modification time only changes when its content does.
+	 */
+	private void filterResource(File source, BasicFileAttributes attributes,
+			File target, String path, Map filterProperties) throws IOException {
+		if (filterCache != null
+				&& filterCache.isUpToDate(path, source, attributes, target,
+						filterProperties)) {
+			return;
+		}
+		FilterCache.Lookups lookups = new FilterCache.Lookups(filterProperties);
+		copyFilteredFile(source, target, null, lookups);
+		if (filterCache != null) {
+			filterCache.record(path, source, attributes, lookups, target);
+		}
+	}
+
 	/**
 	 * Copies webapp webResources from the specified directory. <p/> Note that
 	 * the <tt>webXml</tt> parameter could be null and may specify a file
@@ -430,17 +620,24 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 					"Copy webapp webResources to "
 							+ webappDirectory.getAbsolutePath());
 			if (warSourceDirectory.exists()) {
-				String[] fileNames = getWarFiles(sourceDirectory);
-				for (int i = 0; i < fileNames.length; i++) {
-					FileUtils.copyFileIfModified(new File(sourceDirectory, fileNames[i]),
-							new File(webappDirectory, fileNames[i]));
+				List files = getWarFiles(sourceDirectory).files;
+				for (Iterator it = files.iterator(); it.hasNext();) {
+					FileScanner.ScannedFile file = (FileScanner.ScannedFile) it
+							.next();
+					copyToWebapp(sourceDirectory.getPath(), file, new File(
+							webappDirectory, file.name), getWebappPath(null,
+							file.name));
 				}
 			}
 		}
 	}
 
 	/**
-	 * Generates the JAR.
+	 * Generates the JAR of the classes. The jar is only written when its
+	 * contents changed, and entries which did not change are copied from the
+	 * previous jar rather than compressed again. Entries are written in a
+	 * fixed order with the timestamp of
+	 * <tt>project.build.outputTimestamp</tt>, so the jar is reproducible.
 	 * 
 	 * @todo Add license files in META-INF directory.
 	 */
@@ -450,23 +647,379 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 
 		File jarFile = new File(libDirectory, archiveName);
 
-		MavenArchiver archiver = new MavenArchiver();
+		try {
+			ArchiveWriter jar = newArchiveWriter(jarFile,
+					getOutputTimestamp(ArchiveWriter.DEFAULT_TIMESTAMP));
+
+			FileScanner.Result classes = scan(classesDirectory, getIncludes(),
+					getExcludes(), true);
+			addScannedFiles(jar, classes);
+
+			File fingerprint = new File(workDirectory.getParentFile(),
+					archiveName + ".fingerprint");
+			if (jar.write(fingerprint)) {
+				getLog().info(
+						"Building classes jar " + jarFile + ", reusing "
+								+ jar.getReused() + " unchanged file(s)");
+			} else {
+				getLog().debug("Classes jar " + jarFile + " is up to date");
+			}
+		} catch (Exception e) {
+			// TODO: improve error handling
+			throw new MojoExecutionException("Error assembling JAR", e);
+		}
+
+		if (manifest != null) {
+			manifest.recordGenerated(WEB_INF + "/lib/" + archiveName);
+		}
+	}
+
+	/**
+	 * Creates the writer of an archive of this project, with the manifest and,
+	 * if enabled, the Maven descriptor already added.
+	 *
+	 * @param archiveFile the archive to write
+	 * @param timestamp   the timestamp of the entries, or
+	 *                    {@link ArchiveWriter#FILE_TIMES}
+	 */
+	ArchiveWriter newArchiveWriter(File archiveFile, long timestamp)
+			throws IOException, ManifestException,
+			DependencyResolutionRequiredException, MojoExecutionException {
+		if (archive.isIndex()) {
+			getLog().warn(
+					"The archive index is not supported, " + archiveFile
+							+ " is written without META-INF/INDEX.LIST");
+		}
+		if (archive.isForced()) {
+			getLog().debug(
+					"Ignoring <forced>, " + archiveFile
+							+ " is only rewritten where its contents changed");
+		}
+		ArchiveWriter writer = new ArchiveWriter(archiveFile, timestamp,
+				archive.isCompress());
+		writer.setThreads(getArchiveThreads(archiveThreads));
+		try {
+			CompressionPolicy policy = CompressionPolicy.create(
+					compressionLevel, storedExtensions, project.getVersion());
+			if (!archive.isRecompressAddedZips()) {
+				policy = policy.storing(CompressionPolicy.ZIP_EXTENSIONS);
+			}
+			writer.setPolicy(policy);
+		} catch (IllegalArgumentException e) {
+			throw new MojoExecutionException(e.getMessage(), e);
+		}
+		writer.setManifest(getJarManifest());
+
+		if (archive.isAddMavenDescriptor() && project.getFile() != null
+				&& project.getFile().isFile()) {
+			String descriptorDirectory = "META-INF/maven/"
+					+ project.getGroupId() + "/" + project.getArtifactId();
+			writer.addDirectory(descriptorDirectory);
+			writer.addFile(descriptorDirectory + "/pom.xml", FileUtils
+					.fileRead(project.getFile(), "ISO-8859-1").getBytes(
+							"ISO-8859-1"));
+			writer.addFile(descriptorDirectory + "/pom.properties",
+					getPomProperties());
+		}
+		return writer;
+	}
+
+	/**
+	 * Returns the <tt>pom.properties</tt> of the Maven descriptor: the
+	 * properties of the configured <tt>pomPropertiesFile</tt>, if any, with
+	 * the coordinates of the project, sorted and without the date comment
+	 * so that the archive stays reproducible.
+	 */
+	private byte[] getPomProperties() throws IOException {
+		Properties properties = new Properties();
+		if (archive.getPomPropertiesFile() != null) {
+			InputStream in = new FileInputStream(archive.getPomPropertiesFile());
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		properties.setProperty("groupId", project.getGroupId());
+		properties.setProperty("artifactId", project.getArtifactId());
+		properties.setProperty("version", project.getVersion());
+
+		StringWriter written = new StringWriter();
+		properties.store(written, null);
+		List lines = new ArrayList();
+		String[] all = StringUtils.split(written.toString(), "\r\n");
+		for (int i = 0; i < all.length; i++) {
+			if (!all[i].startsWith("#")) {
+				lines.add(all[i]);
+			}
+		}
+		Collections.sort(lines);
+		StringBuilder content = new StringBuilder();
+		for (Iterator it = lines.iterator(); it.hasNext();) {
+			content.append(it.next()).append('\n');
+		}
+		return content.toString().getBytes("ISO-8859-1");
+	}
 
-		archiver.setArchiver(jarArchiver);
+	/**
+	 * Returns the number of threads compressing archive entries for the
+	 * configured value, where 0 stands for one thread per processor.
+	 */
+	static int getArchiveThreads(int configured) {
+		return configured > 0 ? configured : Runtime.getRuntime()
+				.availableProcessors();
+	}
 
-		archiver.setOutputFile(jarFile);
+	/**
+	 * Adds the files and directories found by a scan to an archive.
+	 */
+	static void addScannedFiles(ArchiveWriter writer, FileScanner.Result result) {
+		for (Iterator it = result.directories.iterator(); it.hasNext();) {
+			String name = (String) it.next();
+			if (name.length() > 0) {
+				writer.addDirectory(name.replace(File.separatorChar, '/'));
+			}
+		}
+		for (Iterator it = result.files.iterator(); it.hasNext();) {
+			FileScanner.ScannedFile file = (FileScanner.ScannedFile) it.next();
+			writer.addFile(file.name.replace(File.separatorChar, '/'),
+					file.file, file.attributes);
+		}
+	}
+
+	/**
+	 * Returns the manifest of the classes jar, as the Maven archiver would
+	 * create it, with the entries of the configured manifest file on top.
+	 */
+	private byte[] getJarManifest() throws IOException, ManifestException,
+			DependencyResolutionRequiredException {
+		java.util.jar.Manifest jarManifest = new MavenArchiver().getManifest(
+				null, project, archive);
+		if (archive.getManifestFile() != null) {
+			InputStream in = new FileInputStream(archive.getManifestFile());
+			try {
+				java.util.jar.Manifest configured = new java.util.jar.Manifest(
+						in);
+				jarManifest.getMainAttributes().putAll(
+						configured.getMainAttributes());
+				for (Iterator it = configured.getEntries().entrySet()
+						.iterator(); it.hasNext();) {
+					Map.Entry section = (Map.Entry) it.next();
+					Attributes attributes = jarManifest.getEntries().get(
+							section.getKey());
+					if (attributes == null) {
+						jarManifest.getEntries().put((String) section.getKey(),
+								(Attributes) section.getValue());
+					} else {
+						attributes.putAll((Attributes) section.getValue());
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+		if (jarManifest.getMainAttributes().getValue(
+				Attributes.Name.MANIFEST_VERSION) == null) {
+			jarManifest.getMainAttributes().put(
+					Attributes.Name.MANIFEST_VERSION, "1.0");
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		jarManifest.write(out);
+		return out.toByteArray();
+	}
 
+	/**
+	 * Returns the timestamp of the entries of archives, from the
+	 * <tt>project.build.outputTimestamp</tt> property, given either in
+	 * seconds since the epoch or as an ISO-8601 date and time.
+	 *
+	 * @param defaultValue the timestamp when the property is not set
+	 */
+	long getOutputTimestamp(long defaultValue) throws MojoExecutionException {
+		String value = project.getProperties() == null ? null : project
+				.getProperties().getProperty("project.build.outputTimestamp");
+		if (value == null || value.trim().length() <= 1) {
+			return defaultValue;
+		}
+		value = value.trim();
 		try {
-			archiver.getArchiver().addDirectory(classesDirectory,
-					getIncludes(), getExcludes());
+			if (StringUtils.isNumeric(value)) {
+				return Long.parseLong(value) * 1000L;
+			}
+			return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+		} catch (RuntimeException e) {
+			throw new MojoExecutionException(
+					"Invalid project.build.outputTimestamp: " + value, e);
+		}
+	}
 
-			archiver.createArchive(null, project, archive);
-		} catch (Exception e) {
-			// TODO: improve error handling
-			throw new MojoExecutionException("Error assembling JAR", e);
+	/**
+	 * Adds a file to the layout of the webapp being assembled, or writes it
+	 * straight away if no webapp is being assembled.
+	 *
+	 * @param layer        the layer providing the file
+	 * @param path         the path of the file relative to the webapp
+	 * @param lastModified the modification time of the source, or
+	 *                     {@link WebappLayout#GENERATED}
+	 * @param size         the size of the source, or -1
+	 * @param write        writes the file
+	 * @throws IOException if the file was written straight away and failed
+	 */
+	private void addToWebapp(String layer, String path, long lastModified,
+			long size, CopyEngine.Task write) throws IOException {
+		if (layout != null) {
+			layout.add(layer, path, lastModified, size, write);
+		} else {
+			submitCopy(write);
+		}
+	}
+
+	/**
+	 * Adds a single file to the webapp being assembled.
+	 *
+	 * @param layer       the layer providing the file
+	 * @param source      the file to copy, as found by a scan
+	 * @param destination the destination file in the webapp
+	 * @param path        the path of the destination relative to the webapp
+	 * @throws IOException if the file could not be copied
+	 */
+	private void copyToWebapp(String layer, FileScanner.ScannedFile source,
+			File destination, String path) throws IOException {
+		addToWebapp(layer, path, source.attributes.lastModifiedTime()
+				.toMillis(), source.attributes.size(), copyTask(source.file,
+				destination, path));
+	}
+
+	/**
+	 * Adds a single file to the webapp being assembled.
+	 *
+	 * @param layer       the layer providing the file
+	 * @param source      the file to copy
+	 * @param destination the destination file in the webapp
+	 * @param path        the path of the destination relative to the webapp
+	 * @throws IOException if the file could not be copied
+	 */
+	private void copyToWebapp(String layer, File source, File destination,
+			String path) throws IOException {
+		BasicFileAttributes attributes = FileTransfer.readAttributes(source
+				.toPath());
+		addToWebapp(layer, path, attributes == null ? 0 : attributes
+				.lastModifiedTime().toMillis(), attributes == null ? -1
+				: attributes.size(), copyTask(source, destination, path));
+	}
+
+	/**
+	 * Returns the copy of a single file into the webapp. When an assembly
+	 * manifest is in use, files it shows to be unchanged since the last build
+	 * are skipped without looking at the destination.
+	 */
+	private CopyEngine.Task copyTask(final File source, final File destination,
+			final String path) {
+		return () -> {
+			if (manifest == null) {
+				FileTransfer.copyIfModified(source, destination,
+						getDigestCache());
+			} else if (!manifest.isUpToDate(path, source)) {
+				FileTransfer.copyIfModified(source, destination,
+						getDigestCache());
+				manifest.record(path, source);
+			}
+		};
+	}
+
+	/**
+	 * Places a dependency jar into the webapp according to
+	 * <tt>libPlacement</tt>.
+	 *
+	 * @param source      the jar in the local repository
+	 * @param destination the destination file in the webapp
+	 * @param path        the path of the destination relative to the webapp
+	 * @throws IOException if the jar could not be placed
+	 */
+	private void placeLibrary(final File source, final File destination,
+			final String path) throws IOException {
+		if (placement == null) {
+			copyToWebapp("dependencies", source, destination, path);
+			return;
+		}
+		BasicFileAttributes attributes = FileTransfer.readAttributes(source
+				.toPath());
+		addToWebapp("dependencies", path, attributes == null ? 0
+				: attributes.lastModifiedTime().toMillis(),
+				attributes == null ? -1 : attributes.size(), () -> {
+					if (manifest == null) {
+						placement.place(source, destination);
+					} else if (!manifest.isUpToDate(path, source)
+							|| !placement.isPlaced(source, destination)) {
+						placement.place(source, destination,
+								() -> manifest.record(path, source));
+					}
+				});
+	}
+
+	/**
+	 * Returns the digest cache to compare files by content with, loading it
+	 * on first use.
+	 *
+	 * @return the cache, or <code>null</code> if <tt>contentHash</tt> is not
+	 *         set
+	 */
+	synchronized DigestCache getDigestCache() {
+		if (!contentHash || digestCache == null) {
+			return null;
+		}
+		if (digests == null) {
+			digests = DigestCache.load(digestCache);
+		}
+		return digests;
+	}
+
+	/**
+	 * Writes back the digest cache, if it was used.
+	 */
+	synchronized void saveDigestCache() throws IOException {
+		if (digests != null) {
+			digests.save();
 		}
 	}
 
+	/**
+	 * Runs a copy on the assembly copy engine, or straight away if there is
+	 * none.
+	 */
+	private void submitCopy(CopyEngine.Task task) throws IOException {
+		if (copyEngine == null) {
+			task.run();
+		} else {
+			copyEngine.submit(task);
+		}
+	}
+
+	/**
+	 * Waits for all submitted copies to complete. Steps whose outputs may
+	 * overlap with a later step must flush before that step starts.
+	 *
+	 * @throws IOException the first copy failure
+	 */
+	private void flushCopies() throws IOException {
+		if (copyEngine != null) {
+			copyEngine.flush();
+		}
+	}
+
+	/**
+	 * Returns the '/' separated path of a file within the webapp.
+	 */
+	private static String getWebappPath(String targetPath, String fileName) {
+		String path = StringUtils.isEmpty(targetPath) ? fileName : targetPath
+				+ "/" + fileName;
+		path = path.replace('\\', '/');
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		return StringUtils.replace(path, "//", "/");
+	}
+
 	protected void checkComponentWebXmlExists(File webXml) {
 		try {
 			if (!webXml.exists()) {
@@ -495,11 +1048,89 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 				"Assembling webapp " + project.getArtifactId() + " in "
 						+ webappDirectory);
 
+		try {
+			placement = LibPlacement.forMode(libPlacement, getDigestCache(),
+					getLog());
+		} catch (IllegalArgumentException e) {
+			throw new MojoFailureException(e.getMessage());
+		}
+		if (!OVERLAY_UNPACK.equals(overlayMode)
+				&& !OVERLAY_STREAM.equals(overlayMode)) {
+			throw new MojoFailureException("Unknown overlayMode '"
+					+ overlayMode + "', expected " + OVERLAY_UNPACK + " or "
+					+ OVERLAY_STREAM);
+		}
+		synchronized (scanners) {
+			scanners.clear();
+		}
+		if (assemblyManifest != null) {
+			manifest = AssemblyManifest.load(assemblyManifest, webappDirectory);
+			filterCache = FilterCache.load(new File(assemblyManifest.getPath()
+					+ ".filters"), webappDirectory);
+		}
+		copyEngine = new CopyEngine(assemblyThreads);
+		layout = new WebappLayout();
+		try {
+			assembleWebapp(project, webappDirectory);
+
+			reportLayout(layout);
+			layout.materialize(webappDirectory, copyEngine);
+			flushCopies();
+			placement.flush();
+
+			if (manifest != null) {
+				List removed = manifest.removeStaleOutputs();
+				if (!removed.isEmpty()) {
+					getLog().info(
+							"Removed " + removed.size()
+									+ " stale file(s) from " + webappDirectory);
+				}
+				manifest.save();
+			}
+			if (filterCache != null) {
+				filterCache.save();
+			}
+			saveDigestCache();
+		} finally {
+			copyEngine.shutdown();
+			copyEngine = null;
+			layout = null;
+			manifest = null;
+			filterCache = null;
+			placement = null;
+			for (Iterator it = archives.iterator(); it.hasNext();) {
+				((ZipFile) it.next()).close();
+			}
+			archives.clear();
+		}
+	}
+
+	/**
+	 * Logs the size of a resolved layout and the paths provided by more than
+	 * one layer.
+	 */
+	private void reportLayout(WebappLayout layout) {
+		getLog().info(
+				"Webapp has " + layout.size() + " file(s), "
+						+ (layout.getTotalBytes() + 1023) / 1024 + " KB");
+		List conflicts = layout.getConflicts();
+		if (!conflicts.isEmpty()) {
+			getLog().info(
+					conflicts.size() + " file(s) provided by more than one"
+							+ " layer, run with -X to list them");
+			for (Iterator it = conflicts.iterator(); it.hasNext();) {
+				getLog().debug("Conflict: " + it.next());
+			}
+		}
+	}
+
+	private void assembleWebapp(MavenProject project, File webappDirectory)
+			throws MojoExecutionException, IOException, MojoFailureException {
 		File webinfDir = new File(webappDirectory, WEB_INF);
-		webinfDir.mkdirs();
+		layout.addDirectory(WEB_INF);
 
 		File metainfDir = new File(webappDirectory, META_INF);
-		metainfDir.mkdirs();
+		layout.addDirectory(META_INF);
 
 		List webResources = this.webResources != null ? Arrays
 				.asList(this.webResources) : null;
@@ -520,16 +1151,27 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 			}
 
 			// rename to web.xml
-			FileUtils.copyFileIfModified(webXml, new File(webinfDir, "/web.xml"));
+			copyToWebapp(webXml.getPath(), webXml, new File(webinfDir,
+					"/web.xml"), WEB_INF + "/web.xml");
 		}
-		checkComponentWebXmlExists(new File(webinfDir, "/web.xml"));
-
 		if (containerConfigXML != null
 				&& StringUtils.isNotEmpty(containerConfigXML.getName())) {
 			metainfDir = new File(webappDirectory, META_INF);
 			String xmlFileName = containerConfigXML.getName();
-			FileUtils.copyFileIfModified(containerConfigXML, new File(metainfDir,
-					xmlFileName));
+			copyToWebapp(containerConfigXML.getPath(), containerConfigXML,
+					new File(metainfDir, xmlFileName), META_INF + "/"
+							+ xmlFileName);
+		}
+		if (!layout.contains(WEB_INF + "/web.xml")) {
+			// an empty descriptor, which no later layer replaces
+			final File stub = new File(webinfDir, "/web.xml");
+			layout.add("web.xml stub", WEB_INF + "/web.xml",
+					WebappLayout.GENERATED, -1, () -> {
+						checkComponentWebXmlExists(stub);
+						if (manifest != null) {
+							manifest.recordGenerated(WEB_INF + "/web.xml");
+						}
+					});
 		}
 
 		File libDirectory = new File(webinfDir, "lib");
@@ -542,10 +1184,25 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 		if (classesDirectory.exists()
 				&& !classesDirectory.equals(webappClassesDirectory)) {
 			if (archiveClasses) {
-				createJarArchive(libDirectory);
+				final File lib = libDirectory;
+				layout.add("classes archive", WEB_INF + "/lib/"
+						+ project.getBuild().getFinalName() + ".jar",
+						WebappLayout.GENERATED, -1, () -> {
+							try {
+								createJarArchive(lib);
+							} catch (MojoExecutionException e) {
+								throw new IOException(e.getMessage(), e);
+							}
+						});
 			} else {
-				FileUtils.copyDirectoryStructureIfModified(classesDirectory,
-						webappClassesDirectory);
+				List classes = scan(classesDirectory, null, null, false).files;
+				for (Iterator it = classes.iterator(); it.hasNext();) {
+					FileScanner.ScannedFile file = (FileScanner.ScannedFile) it
+							.next();
+					copyToWebapp(classesDirectory.getPath(), file, new File(
+							webappClassesDirectory, file.name), getWebappPath(
+							WEB_INF + "/classes", file.name));
+				}
 			}
 		}
 
@@ -573,13 +1230,14 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 			if (!artifact.isOptional() && filter.include(artifact)) {
 				String type = artifact.getType();
 				if ("tld".equals(type)) {
-					FileUtils.copyFileIfModified(artifact.getFile(), new File(
-							tldDirectory, targetFileName));
+					copyToWebapp("dependencies", artifact.getFile(), new File(
+							tldDirectory, targetFileName), WEB_INF + "/tld/"
+							+ targetFileName);
 				} else {
 					if ("jar".equals(type) || "ejb".equals(type)
 							|| "ejb-client".equals(type)) {
-						FileUtils.copyFileIfModified(artifact.getFile(), new File(
-								libDirectory, targetFileName));
+						placeLibrary(artifact.getFile(), new File(libDirectory,
+								targetFileName), WEB_INF + "/lib/" + targetFileName);
 					} else {
 						if ("par".equals(type)) {
 							targetFileName = targetFileName.substring(0,
@@ -593,12 +1251,15 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 											+ new File(libDirectory,
 													targetFileName));
 
-							FileUtils.copyFileIfModified(artifact.getFile(), new File(
-									libDirectory, targetFileName));
+							placeLibrary(artifact.getFile(), new File(
+									libDirectory, targetFileName), WEB_INF
+									+ "/lib/" + targetFileName);
 						} else {
 							if ("war".equals(type)) {
 								dependentWarDirectories
-										.add(unpackWarToTempDirectory(artifact));
+										.add(OVERLAY_STREAM.equals(overlayMode) ? artifact
+												.getFile()
+												: unpackWarToTempDirectory(artifact));
 							} else {
 								getLog().debug(
 										"Skipping artifact of type " + type
@@ -619,7 +1280,12 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 			// overlay dependent wars
 			for (Iterator iter = dependentWarDirectories.iterator(); iter
 					.hasNext();) {
-				copyDependentWarContents((File) iter.next(), webappDirectory);
+				File overlay = (File) iter.next();
+				if (overlay.isFile()) {
+					streamDependentWarContents(overlay, webappDirectory);
+				} else {
+					copyDependentWarContents(overlay, webappDirectory);
+				}
 			}
 		}
 	}
@@ -659,13 +1325,40 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	private File unpackWarToTempDirectory(Artifact artifact)
 			throws MojoExecutionException {
 		String name = artifact.getFile().getName();
+		if (overlayCacheDirectory != null) {
+			File cached = unpackWarToOverlayCache(artifact.getFile(), name
+					.substring(0, name.length() - 4));
+			if (cached != null) {
+				return cached;
+			}
+		}
 		File tempLocation = new File(workDirectory, name.substring(0, name
 				.length() - 4));
 
+		// with contentHash, the digest of the unpacked war is kept next to
+		// the directory
+		File digestFile = new File(tempLocation.getPath() + ".digest");
+		String digest = null;
+		DigestCache digestCache = getDigestCache();
+		if (digestCache != null) {
+			try {
+				digest = Long.toHexString(digestCache.digest(
+						artifact.getFile(),
+						FileTransfer.readAttributes(artifact.getFile()
+								.toPath())));
+			} catch (IOException e) {
+				throw new MojoExecutionException("Unable to read "
+						+ artifact.getFile(), e);
+			}
+		}
+
 		boolean process = false;
 		if (!tempLocation.exists()) {
 			tempLocation.mkdirs();
 			process = true;
+		} else if (digest != null) {
+			process = !digestFile.isFile()
+					|| !digest.equals(readDigest(digestFile));
 		} else if (artifact.getFile().lastModified() > tempLocation
 				.lastModified()) {
 			process = true;
@@ -681,10 +1374,61 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 								+ file.getPath());
 			}
 		}
+		try {
+			if (digest != null) {
+				if (process || !digestFile.isFile()) {
+					FileUtils.fileWrite(digestFile.getPath(), digest);
+				}
+			} else if (digestFile.isFile()) {
+				// unpacked by mtime, so the recorded digest may be stale
+				digestFile.delete();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to write " + digestFile, e);
+		}
 
 		return tempLocation;
 	}
 
+	/**
+	 * Returns the unpacked contents of a war from the overlay cache,
+	 * unpacking it there if no module has done so before.
+	 * 
+	 * @return the unpacked war, or <code>null</code> if there is no
+	 *         unarchiver for it, in which case nothing is cached
+	 */
+	private File unpackWarToOverlayCache(final File war, String name)
+			throws MojoExecutionException {
+		try {
+			File location = new OverlayCache(overlayCacheDirectory,
+					getDigestCache()).get(war, name, directory -> {
+				getLog().debug("Unpacking " + war + " into the overlay cache");
+				try {
+					unpack(war, directory, false);
+				} catch (NoSuchArchiverException | MojoExecutionException e) {
+					// fails the population, so no entry is left behind
+					throw new IOException(e.getMessage(), e);
+				}
+			});
+			getLog().debug("Using " + location + " for " + war);
+			return location;
+		} catch (IOException e) {
+			if (e.getCause() instanceof NoSuchArchiverException) {
+				return null;
+			}
+			throw new MojoExecutionException("Unable to unpack " + war
+					+ " into " + overlayCacheDirectory, e);
+		}
+	}
+
+	private static String readDigest(File digestFile) {
+		try {
+			return FileUtils.fileRead(digestFile).trim();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * Unpacks the archive file.
 	 * 
@@ -725,7 +1469,8 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 
 	/**
 	 * Recursively copies contents of <tt>srcDir</tt> into <tt>targetDir</tt>.
-	 * This will not overwrite any existing files.
+	 * Files of the war source directory take precedence, and files of
+	 * earlier layers are only replaced by newer ones.
 	 * 
 	 * @param srcDir
 	 *            Directory containing unpacked dependent war contents
@@ -734,57 +1479,126 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	 */
 	private void copyDependentWarContents(File srcDir, File targetDir)
 			throws MojoExecutionException {
-		DirectoryScanner scanner = new DirectoryScanner();
-		scanner.setBasedir(srcDir);
-		scanner.setExcludes(getDependentWarExcludes());
-		scanner.addDefaultExcludes();
-
-		scanner.setIncludes(getDependentWarIncludes());
+		try {
+			FileScanner.Result overlay = scan(srcDir,
+					getDependentWarIncludes(), getDependentWarExcludes(), true);
 
-		scanner.scan();
+			for (Iterator it = overlay.directories.iterator(); it.hasNext();) {
+				String name = (String) it.next();
+				if (layout != null) {
+					layout.addDirectory(getWebappPath(null, name));
+				} else {
+					new File(targetDir, name).mkdirs();
+				}
+			}
 
-		String[] dirs = scanner.getIncludedDirectories();
-		for (int j = 0; j < dirs.length; j++) {
-			new File(targetDir, dirs[j]).mkdirs();
+			FileScanner.Result sources = scan(warSourceDirectory, null, null,
+					false);
+			String layer = "overlay " + srcDir.getName();
+			for (Iterator it = overlay.files.iterator(); it.hasNext();) {
+				FileScanner.ScannedFile file = (FileScanner.ScannedFile) it
+						.next();
+				// Don't copy if it is in the source directory
+				if (!sources.containsFile(file.name)) {
+					copyToWebapp(layer, file, new File(targetDir, file.name),
+							getWebappPath(null, file.name));
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error overlaying '" + srcDir
+					+ "' onto '" + targetDir + "'", e);
 		}
+	}
 
-		String[] files = scanner.getIncludedFiles();
-
-		for (int j = 0; j < files.length; j++) {
-			File targetFile = new File(targetDir, files[j]);
-
-			try {
-				// Don't copy if it is in the source directory
-				if (!new File(warSourceDirectory, files[j]).exists()) {
-					targetFile.getParentFile().mkdirs();
-					FileUtils.copyFileIfModified(new File(srcDir, files[j]), targetFile);
+	/**
+	 * Overlays the contents of a dependent war onto <tt>targetDir</tt> straight
+	 * from the archive, with the same includes, excludes and precedence as
+	 * {@link #copyDependentWarContents(File, File)}. The archive stays open
+	 * until the webapp has been written.
+	 * 
+	 * @param war
+	 *            the dependent war
+	 * @param targetDir
+	 *            Directory to overlay the war into
+	 */
+	private void streamDependentWarContents(File war, File targetDir)
+			throws MojoExecutionException {
+		try {
+			final ZipFile zip = new ZipFile(war);
+			archives.add(zip);
+			FileScanner overlay = getScanner(getDependentWarIncludes(),
+					getDependentWarExcludes(), true);
+			FileScanner.Result sources = scan(warSourceDirectory, null, null,
+					false);
+			String layer = "overlay " + war.getName();
+			for (Enumeration entries = zip.entries(); entries
+					.hasMoreElements();) {
+				ZipEntry entry = (ZipEntry) entries.nextElement();
+				String name = StringUtils.stripEnd(entry.getName().replace(
+						'\\', '/'), "/");
+				if (name.length() == 0 || !overlay.isIncluded(name)) {
+					continue;
+				}
+				String fileName = name.replace('/', File.separatorChar);
+				Path relative = Paths.get(fileName).normalize();
+				if (relative.isAbsolute() || relative.startsWith("..")) {
+					throw new IOException("Entry " + entry.getName()
+							+ " is outside of the webapp");
+				}
+				if (entry.isDirectory()) {
+					layout.addDirectory(name);
+				} else if (!sources.containsFile(fileName)) {
+					// Don't copy if it is in the source directory
+					addToWebapp(layer, name, entry.getTime(), entry.getSize(),
+							overlayEntry(zip, entry, war, new File(targetDir,
+									fileName), name));
 				}
-			} catch (IOException e) {
-				throw new MojoExecutionException("Error copying file '"
-						+ files[j] + "' to '" + targetFile + "'", e);
 			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error overlaying '" + war
+					+ "' onto '" + targetDir + "'", e);
 		}
 	}
 
+	/**
+	 * Returns the write of a single entry of a dependent war into the
+	 * webapp, unless the file there is newer. When an assembly manifest is in
+	 * use, entries of a war unchanged since the last build are skipped
+	 * without looking at the destination.
+	 */
+	private CopyEngine.Task overlayEntry(final ZipFile zip,
+			final ZipEntry entry, final File war, final File target,
+			final String path) {
+		return () -> {
+			if (manifest != null && manifest.isUpToDate(path, war)) {
+				return;
+			}
+			FileTime time = entry.getLastModifiedTime();
+			if (FileTransfer.isModified(time, entry.getSize(), FileTransfer
+					.readAttributes(target.toPath()))) {
+				InputStream in = zip.getInputStream(entry);
+				try {
+					FileTransfer.write(in, target, time);
+				} finally {
+					in.close();
+				}
+			}
+			if (manifest != null) {
+				manifest.record(path, war);
+			}
+		};
+	}
+
 	/**
 	 * Returns a list of filenames that should be copied over to the destination
 	 * directory.
 	 * 
 	 * @param sourceDir
 	 *            the directory to be scanned
-	 * @return the array of filenames, relative to the sourceDir
+	 * @return the scan of the files, relative to the sourceDir
 	 */
-	private String[] getWarFiles(File sourceDir) {
-		DirectoryScanner scanner = new DirectoryScanner();
-		scanner.setBasedir(sourceDir);
-		scanner.setExcludes(getExcludes());
-		scanner.addDefaultExcludes();
-
-		scanner.setIncludes(getIncludes());
-
-		scanner.scan();
-
-		return scanner.getIncludedFiles();
+	private FileScanner.Result getWarFiles(File sourceDir) throws IOException {
+		return scan(sourceDir, getIncludes(), getExcludes(), true);
 	}
 
 	/**
@@ -793,100 +1607,114 @@ public abstract class AbstractComponentMojo extends AbstractMojo {
 	 * 
 	 * @param resource
 	 *            the resource to be scanned
-	 * @return the array of filenames, relative to the sourceDir
+	 * @return the scan of the files, relative to the sourceDir
 	 */
-	private String[] getWarFiles(Resource resource) {
-		DirectoryScanner scanner = new DirectoryScanner();
-		scanner.setBasedir(resource.getDirectory());
+	private FileScanner.Result getWarFiles(Resource resource)
+			throws IOException {
+		String[] includes = DEFAULT_INCLUDES;
+		String[] excludes = null;
 		if (resource.getIncludes() != null && !resource.getIncludes().isEmpty()) {
-			scanner.setIncludes((String[]) resource.getIncludes().toArray(
-					EMPTY_STRING_ARRAY));
-		} else {
-			scanner.setIncludes(DEFAULT_INCLUDES);
+			includes = (String[]) resource.getIncludes().toArray(
+					EMPTY_STRING_ARRAY);
 		}
 		if (resource.getExcludes() != null && !resource.getExcludes().isEmpty()) {
-			scanner.setExcludes((String[]) resource.getExcludes().toArray(
-					EMPTY_STRING_ARRAY));
+			excludes = (String[]) resource.getExcludes().toArray(
+					EMPTY_STRING_ARRAY);
 		}
 
-		scanner.addDefaultExcludes();
-
-		scanner.scan();
+		return scan(new File(resource.getDirectory()), includes, excludes, true);
+	}
 
-		return scanner.getIncludedFiles();
+	/**
+	 * Scans a directory, reusing the result if the same directory has already
+	 * been scanned with the same patterns since the webapp assembly started.
+	 *
+	 * @param basedir         the directory to scan
+	 * @param includes        the include patterns, <code>null</code> for all
+	 * @param excludes        the exclude patterns, <code>null</code> for none
+	 * @param defaultExcludes whether to apply the default SCM excludes
+	 * @return the scan result
+	 * @throws IOException if the directory could not be read
+	 */
+	FileScanner.Result scan(File basedir, String[] includes,
+			String[] excludes, boolean defaultExcludes) throws IOException {
+		return getScanner(includes, excludes, defaultExcludes).scan(basedir);
 	}
 
-	private FilterWrapper[] getFilterWrappers() {
-		return new FilterWrapper[] {
-		// support ${token}
-				new FilterWrapper() {
-					public Reader getReader(Reader fileReader,
-							Map filterProperties) {
-						return new InterpolationFilterReader(fileReader,
-								filterProperties, "${", "}");
-					}
-				},
-				// support @token@
-				new FilterWrapper() {
-					public Reader getReader(Reader fileReader,
-							Map filterProperties) {
-						return new InterpolationFilterReader(fileReader,
-								filterProperties, "@", "@");
-					}
-				} };
+	/**
+	 * Returns the scanner for a set of patterns, shared by all scans with the
+	 * same patterns since the webapp assembly started.
+	 */
+	private FileScanner getScanner(String[] includes, String[] excludes,
+			boolean defaultExcludes) {
+		String key = (includes == null ? "" : StringUtils.join(includes, ","))
+				+ "|" + (excludes == null ? "" : StringUtils.join(excludes, ","))
+				+ "|" + defaultExcludes;
+		synchronized (scanners) {
+			FileScanner scanner = (FileScanner) scanners.get(key);
+			if (scanner == null) {
+				scanner = new FileScanner(includes, excludes, defaultExcludes);
+				scanners.put(key, scanner);
+			}
+			return scanner;
+		}
 	}
 
 	/**
+	 * Filters <tt>from</tt> into <tt>to</tt>, replacing <tt>${token}</tt>
+	 * and <tt>@token@</tt>. The file is rendered in memory and only written if
+	 * its content differs from the existing file. Binary files, which
+	 * filtering would corrupt, and files without any token are copied as they
+	 * are.
+	 * 
 	 * @param from
 	 * @param to
 	 * @param encoding
-	 * @param wrappers
+	 *            the encoding of both files, or <code>null</code> for the
+	 *            platform encoding
 	 * @param filterProperties
+	 * @return whether <tt>to</tt> was written
 	 * @throws IOException
-	 *             TO DO: Remove this method when Maven moves to plexus-utils
-	 *             version 1.4
-	 */
-	private static void copyFilteredFile(File from, File to, String encoding,
-			FilterWrapper[] wrappers, Map filterProperties) throws IOException {
-		// buffer so it isn't reading a byte at a time!
-		Reader fileReader = null;
-		Writer fileWriter = null;
-		try {
-			// fix for MWAR-36, ensures that the parent dir are created first
-			to.getParentFile().mkdirs();
-
-			if (encoding == null || encoding.length() < 1) {
-				fileReader = new BufferedReader(new FileReader(from));
-				fileWriter = new FileWriter(to);
-			} else {
-				FileInputStream instream = new FileInputStream(from);
-
-				FileOutputStream outstream = new FileOutputStream(to);
-
-				fileReader = new BufferedReader(new InputStreamReader(instream,
-						encoding));
-
-				fileWriter = new OutputStreamWriter(outstream, encoding);
+	 */
+	private static boolean copyFilteredFile(File from, File to,
+			String encoding, Map filterProperties) throws IOException {
+		Charset charset = encoding == null || encoding.length() < 1 ? Charset
+				.defaultCharset() : Charset.forName(encoding);
+		byte[] source = Files.readAllBytes(from.toPath());
+		if (Interpolator.isAsciiCompatible(charset)
+				&& (Interpolator.isBinary(source) || !Interpolator
+						.mayContainTokens(source))) {
+			if (hasContent(to, source)) {
+				return false;
 			}
+			FileTransfer.copy(from, to);
+			return true;
+		}
 
-			Reader reader = fileReader;
-			for (int i = 0; i < wrappers.length; i++) {
-				FilterWrapper wrapper = wrappers[i];
-				reader = wrapper.getReader(reader, filterProperties);
-			}
+		CharBuffer text = charset.decode(ByteBuffer.wrap(source));
+		StringBuilder rendered = new StringBuilder(text.remaining() + 256);
+		Interpolator.interpolate(text.array(), text.remaining(),
+				filterProperties, rendered);
 
-			IOUtil.copy(reader, fileWriter);
-		} finally {
-			IOUtil.close(fileReader);
-			IOUtil.close(fileWriter);
+		ByteBuffer encoded = charset.encode(CharBuffer.wrap(rendered));
+		byte[] content = new byte[encoded.remaining()];
+		encoded.get(content);
+		if (hasContent(to, content)) {
+			return false;
 		}
+		// fix for MWAR-36, ensures that the parent dir are created first
+		to.getParentFile().mkdirs();
+		Files.write(to.toPath(), content);
+		return true;
 	}
 
 	/**
-	 * TO DO: Remove this interface when Maven moves to plexus-utils version 1.4
+	 * Returns whether <tt>file</tt> exists with the given content.
 	 */
-	private interface FilterWrapper {
-		Reader getReader(Reader fileReader, Map filterProperties);
+	private static boolean hasContent(File file, byte[] content)
+			throws IOException {
+		return file.isFile() && file.length() == content.length
+				&& Arrays.equals(Files.readAllBytes(file.toPath()), content);
 	}
 
 	/**
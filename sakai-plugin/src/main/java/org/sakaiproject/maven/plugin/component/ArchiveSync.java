@@ -0,0 +1,429 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+/**
+ * Brings a directory in line with an archive, as deleting the directory and
+ * unpacking the archive into it would, but only writes the entries which
+ * changed and only deletes the files which are gone.
+ * <p/>
+ * The size and CRC of each entry come from the central directory of the
+ * archive, which is read without inflating anything. An index kept next to
+ * the directory records the size, CRC and modification time of each file
+ * when it was unpacked, so a file whose entry has the same size and CRC and
+ * which was not touched since is up to date without being read. Files which
+ * are not in the index, or were touched, are compared by CRC before they are
+ * written again.
+ */
+final class ArchiveSync
+{
+    private static final int MAGIC = 0x53414b55;
+
+    private static final int VERSION = 1;
+
+    private final File archive;
+
+    private final File directory;
+
+    private final File indexFile;
+
+    private File indexedDirectory;
+
+    private int written;
+
+    private int unchanged;
+
+    private int deleted;
+
+    /**
+     * @param archive   the archive to unpack
+     * @param directory the directory to bring in line with it
+     * @param indexFile the index of the files of the directory
+     */
+    public ArchiveSync( File archive, File directory, File indexFile )
+    {
+        this.archive = archive;
+        this.directory = directory;
+        this.indexFile = indexFile;
+        this.indexedDirectory = directory;
+    }
+
+    /**
+     * Sets the directory the index describes, when the directory brought in
+     * line with the archive is a staged copy of it.
+     */
+    public void setIndexedDirectory( File indexedDirectory )
+    {
+        this.indexedDirectory = indexedDirectory;
+    }
+
+    /**
+     * Returns the file where the index of a directory is kept by default,
+     * next to the directory so that containers scanning the parent for
+     * directories or archives ignore it.
+     */
+    public static File getIndexFile( File directory )
+    {
+        return new File( directory.getParentFile(), "." + directory.getName() + ".sakai-index" );
+    }
+
+    /**
+     * Unpacks the archive.
+     *
+     * @throws IOException if the archive cannot be read, has an entry outside
+     *                     of the directory, or the directory cannot be written
+     */
+    public void sync()
+        throws IOException
+    {
+        written = 0;
+        unchanged = 0;
+        deleted = 0;
+        Map previous = readIndex();
+        // the index is only valid again once the directory is complete
+        indexFile.delete();
+
+        ZipFile zip = new ZipFile( archive );
+        try
+        {
+            Map files = new LinkedHashMap();
+            Set directories = new HashSet();
+            directories.add( "" );
+            for ( Enumeration entries = zip.getEntries(); entries.hasMoreElements(); )
+            {
+                ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                String name = getPath( entry );
+                if ( name.length() == 0 )
+                {
+                    continue;
+                }
+                if ( entry.isDirectory() )
+                {
+                    directories.add( name );
+                }
+                else
+                {
+                    files.put( name, entry );
+                }
+                for ( int slash = name.lastIndexOf( '/' ); slash > 0; slash = name.lastIndexOf( '/', slash - 1 ) )
+                {
+                    directories.add( name.substring( 0, slash ) );
+                }
+            }
+
+            // removing first also clears files standing where directories go, and the other way round
+            removeOthers( files.keySet(), directories );
+            for ( Iterator i = directories.iterator(); i.hasNext(); )
+            {
+                Files.createDirectories( new File( directory, (String) i.next() ).toPath() );
+            }
+
+            Map index = new HashMap( files.size() * 2 );
+            for ( Iterator i = files.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                String name = (String) e.getKey();
+                ZipArchiveEntry entry = (ZipArchiveEntry) e.getValue();
+                index.put( name, update( zip, name, entry, (Indexed) previous.get( name ) ) );
+            }
+            writeIndex( index );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Returns the number of files written by the last {@link #sync()}.
+     */
+    public int getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * Returns the number of files found up to date by the last
+     * {@link #sync()}.
+     */
+    public int getUnchanged()
+    {
+        return unchanged;
+    }
+
+    /**
+     * Returns the number of files and directories deleted by the last
+     * {@link #sync()}.
+     */
+    public int getDeleted()
+    {
+        return deleted;
+    }
+
+    private String getPath( ZipArchiveEntry entry )
+        throws IOException
+    {
+        return getPath( entry, archive, directory );
+    }
+
+    /**
+     * Returns the path of an entry relative to the directory it is unpacked
+     * into, with forward slashes and without a trailing slash.
+     *
+     * @throws IOException if the entry is outside of the directory
+     */
+    static String getPath( ZipArchiveEntry entry, File archive, File directory )
+        throws IOException
+    {
+        String name = entry.getName().replace( '\\', '/' );
+        while ( name.endsWith( "/" ) )
+        {
+            name = name.substring( 0, name.length() - 1 );
+        }
+        Path relative = Paths.get( name.replace( '/', File.separatorChar ) ).normalize();
+        if ( relative.isAbsolute() || relative.startsWith( ".." ) )
+        {
+            throw new IOException( "Entry " + entry.getName() + " of " + archive + " is outside of " + directory );
+        }
+        return relative.toString().replace( File.separatorChar, '/' );
+    }
+
+    /**
+     * Deletes the files and directories which are not in the archive.
+     */
+    private void removeOthers( final Set files, final Set directories )
+        throws IOException
+    {
+        final Path root = directory.toPath();
+        if ( !Files.isDirectory( root ) )
+        {
+            if ( Files.exists( root ) )
+            {
+                Files.delete( root );
+            }
+            return;
+        }
+        Files.walkFileTree( root, new SimpleFileVisitor<Path>()
+        {
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attributes )
+                throws IOException
+            {
+                if ( !files.contains( getName( file ) ) )
+                {
+                    Files.delete( file );
+                    deleted++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult postVisitDirectory( Path dir, IOException e )
+                throws IOException
+            {
+                if ( e != null )
+                {
+                    throw e;
+                }
+                if ( !directories.contains( getName( dir ) ) )
+                {
+                    Files.delete( dir );
+                    deleted++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private String getName( Path path )
+            {
+                return root.relativize( path ).toString().replace( File.separatorChar, '/' );
+            }
+        } );
+    }
+
+    /**
+     * Writes a file unless it already has the content of its entry.
+     *
+     * @return the index entry of the file
+     */
+    private Indexed update( ZipFile zip, String name, ZipArchiveEntry entry, Indexed indexed )
+        throws IOException
+    {
+        File file = new File( directory, name );
+        BasicFileAttributes attributes = FileTransfer.readAttributes( file.toPath() );
+        if ( attributes != null && attributes.isRegularFile() && attributes.size() == entry.getSize() )
+        {
+            if ( indexed != null && indexed.size == entry.getSize() && indexed.crc == entry.getCrc()
+                && indexed.lastModified == attributes.lastModifiedTime().toMillis() )
+            {
+                unchanged++;
+                return indexed;
+            }
+            if ( crc( file ) == entry.getCrc() )
+            {
+                unchanged++;
+                return new Indexed( entry.getSize(), entry.getCrc(), attributes.lastModifiedTime().toMillis() );
+            }
+        }
+        InputStream in = zip.getInputStream( entry );
+        try
+        {
+            FileTransfer.write( in, file, FileTime.fromMillis( entry.getTime() ) );
+        }
+        finally
+        {
+            in.close();
+        }
+        written++;
+        return new Indexed( entry.getSize(), entry.getCrc(),
+                            Files.getLastModifiedTime( file.toPath() ).toMillis() );
+    }
+
+    static long crc( File file )
+        throws IOException
+    {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            byte[] buffer = new byte[65536];
+            for ( int n; ( n = in.read( buffer ) ) > 0; )
+            {
+                crc.update( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Reads the index of the directory. A missing, unreadable or foreign
+     * index yields an empty one.
+     */
+    private Map readIndex()
+    {
+        if ( !indexFile.isFile() )
+        {
+            return Collections.EMPTY_MAP;
+        }
+        try
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) );
+            try
+            {
+                if ( in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals( indexedDirectory.getAbsolutePath() ) )
+                {
+                    return Collections.EMPTY_MAP;
+                }
+                int count = in.readInt();
+                Map index = new HashMap( count * 2 );
+                for ( int i = 0; i < count; i++ )
+                {
+                    index.put( in.readUTF(), new Indexed( in.readLong(), in.readLong(), in.readLong() ) );
+                }
+                return index;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return Collections.EMPTY_MAP;
+        }
+    }
+
+    private void writeIndex( Map index )
+        throws IOException
+    {
+        indexFile.getParentFile().mkdirs();
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( indexFile ) ) );
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeUTF( indexedDirectory.getAbsolutePath() );
+            out.writeInt( index.size() );
+            for ( Iterator i = index.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                Indexed indexed = (Indexed) e.getValue();
+                out.writeUTF( (String) e.getKey() );
+                out.writeLong( indexed.size );
+                out.writeLong( indexed.crc );
+                out.writeLong( indexed.lastModified );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * A file as it was unpacked.
+     */
+    private static final class Indexed
+    {
+        final long size;
+
+        final long crc;
+
+        final long lastModified;
+
+        Indexed( long size, long crc, long lastModified )
+        {
+            this.size = size;
+            this.crc = crc;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,706 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Writes the archives of the plugin: the classes jar when
+ * <tt>archiveClasses</tt> is set, component wars and configuration archives.
+ * <p/>
+ * Entries are compressed by a pool of threads, each into a buffer of its own,
+ * and the buffers are written to the archive in order as they complete, so
+ * the archive is the same whatever the number of threads. Files larger than
+ * {@link #STREAMED_SIZE} are never held in memory: they are read once for
+ * their CRC and once more to deflate them into a temporary file. The
+ * manifest comes first and all other entries follow in name order. Which
+ * entries are deflated, and at which level, is decided by a
+ * {@link CompressionPolicy}; entries which deflating would not shrink are
+ * stored.
+ * <p/>
+ * An archive written with a fingerprint file is incremental, see
+ * {@link IncrementalArchive}.
+ */
+final class ArchiveWriter
+{
+    /**
+     * The timestamp of the entries when the project does not set one,
+     * 1980-02-01T00:00:00Z, as used by the Maven archivers.
+     */
+    public static final long DEFAULT_TIMESTAMP = 318211200000L;
+
+    /**
+     * The timestamp giving each entry the modification time of its file, and
+     * generated entries the time the archive is written.
+     */
+    public static final long FILE_TIMES = -1;
+
+    static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    /**
+     * The number of entries compressed ahead of the one being written, per
+     * thread, which bounds the memory held by compressed buffers.
+     */
+    private static final int QUEUE_PER_THREAD = 4;
+
+    /**
+     * The size above which a file is compressed through a temporary file
+     * rather than in memory.
+     */
+    static final long STREAMED_SIZE = 1024 * 1024;
+
+    private final File archiveFile;
+
+    private final long timestamp;
+
+    private final boolean compress;
+
+    /**
+     * The directory holding the temporary files of large entries, created in
+     * the system temporary directory when the first one is needed, so that
+     * nothing is left next to the archive, which may be inside the webapp.
+     */
+    private File scratchDirectory;
+
+    private int threads = 1;
+
+    private CompressionPolicy policy = new CompressionPolicy( Deflater.DEFAULT_COMPRESSION, new String[0] );
+
+    private byte[] manifest;
+
+    /**
+     * The entries after the manifest, by name: a <code>Source</code> for
+     * files, a <code>byte[]</code> for generated files and <code>null</code>
+     * for directories.
+     */
+    private final Map entries = new TreeMap();
+
+    private int reused;
+
+    /**
+     * @param archiveFile the archive to write
+     * @param timestamp   the timestamp of all entries, in milliseconds, or
+     *                    {@link #FILE_TIMES}
+     * @param compress    whether entries are deflated rather than stored
+     */
+    public ArchiveWriter( File archiveFile, long timestamp, boolean compress )
+    {
+        this.archiveFile = archiveFile;
+        this.timestamp = timestamp;
+        this.compress = compress;
+    }
+
+    /**
+     * Sets the number of threads compressing entries. With a single thread
+     * everything is compressed on the calling thread.
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = Math.max( threads, 1 );
+    }
+
+    /**
+     * Sets the policy deciding which entries are deflated, and at which level,
+     * when the archive is compressed.
+     */
+    public void setPolicy( CompressionPolicy policy )
+    {
+        this.policy = policy;
+    }
+
+    /**
+     * Sets the contents of the manifest, which is written first.
+     */
+    public void setManifest( byte[] manifest )
+    {
+        this.manifest = manifest;
+        addDirectory( "META-INF" );
+    }
+
+    /**
+     * Adds a file, unless it is a manifest.
+     *
+     * @param name the '/' separated name of the entry
+     */
+    public void addFile( String name, File file, BasicFileAttributes attributes )
+    {
+        if ( !name.equalsIgnoreCase( MANIFEST_NAME ) )
+        {
+            entries.put( name, new Source( file, attributes ) );
+        }
+    }
+
+    /**
+     * Adds a generated file.
+     *
+     * @param name the '/' separated name of the entry
+     */
+    public void addFile( String name, byte[] content )
+    {
+        entries.put( name, content );
+    }
+
+    /**
+     * Adds a directory, and the directories containing it.
+     *
+     * @param name the '/' separated name of the directory
+     */
+    public void addDirectory( String name )
+    {
+        for ( String dir = name; dir.length() > 0; dir = dir.substring( 0, Math.max( dir.lastIndexOf( '/' ), 0 ) ) )
+        {
+            if ( entries.containsKey( dir + "/" ) )
+            {
+                break;
+            }
+            entries.put( dir + "/", null );
+        }
+    }
+
+    /**
+     * Returns a fingerprint of everything which goes into the archive.
+     */
+    public long getFingerprint()
+    {
+        return IncrementalArchive.getFingerprint( timestamp, getSettings(), manifest, entries );
+    }
+
+    /**
+     * Returns the number of files copied from the previous archive, without
+     * being compressed again, by the last {@link #write(File)}.
+     */
+    public int getReused()
+    {
+        return reused;
+    }
+
+    /**
+     * Writes the archive, unless it is unchanged since it was last written.
+     *
+     * @param fingerprintFile the file keeping the fingerprint of the archive,
+     *                        or <code>null</code> to write the archive from
+     *                        scratch
+     * @return whether the archive was written
+     * @throws IOException if the archive could not be written
+     */
+    public boolean write( File fingerprintFile )
+        throws IOException
+    {
+        IncrementalArchive previous = null;
+        if ( fingerprintFile != null )
+        {
+            previous = new IncrementalArchive( archiveFile, fingerprintFile, getFingerprint(), getSettings() );
+            if ( previous.isUpToDate() )
+            {
+                return false;
+            }
+            previous.open();
+        }
+
+        File temp = new File( archiveFile.getPath() + ".tmp" );
+        archiveFile.getParentFile().mkdirs();
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool( threads ) : null;
+        try
+        {
+            ZipArchiveOutputStream out = new ZipArchiveOutputStream( temp );
+            try
+            {
+                reused = 0;
+                write( out, previous, executor );
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            if ( executor != null )
+            {
+                executor.shutdownNow();
+                try
+                {
+                    // the temporary files are only deleted once nothing writes them any more
+                    executor.awaitTermination( 1, TimeUnit.MINUTES );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if ( previous != null )
+            {
+                previous.close();
+            }
+            synchronized ( this )
+            {
+                if ( scratchDirectory != null )
+                {
+                    FileUtils.deleteDirectory( scratchDirectory );
+                    scratchDirectory = null;
+                }
+            }
+        }
+        Files.move( temp.toPath(), archiveFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+
+        if ( previous != null )
+        {
+            previous.commit();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the entries, keeping up to {@link #QUEUE_PER_THREAD} files per
+     * thread compressing while the oldest one is written.
+     */
+    private void write( ZipArchiveOutputStream out, IncrementalArchive previous, ExecutorService executor )
+        throws IOException
+    {
+        Deque pending = new ArrayDeque();
+        if ( manifest != null )
+        {
+            writeDirectory( out, "META-INF/" );
+            pending.add( submit( executor, MANIFEST_NAME, manifest, previous ) );
+        }
+        for ( Iterator i = entries.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            String name = (String) entry.getKey();
+            Object value = entry.getValue();
+            if ( value == null )
+            {
+                if ( manifest == null || !name.equals( "META-INF/" ) )
+                {
+                    // directories keep their place in the order
+                    pending.add( name );
+                }
+            }
+            else
+            {
+                pending.add( submit( executor, name, value, previous ) );
+            }
+            while ( pending.size() > threads * QUEUE_PER_THREAD )
+            {
+                writeNext( out, pending, previous );
+            }
+        }
+        while ( !pending.isEmpty() )
+        {
+            writeNext( out, pending, previous );
+        }
+    }
+
+    private Future submit( ExecutorService executor, final String name, final Object value,
+                           final IncrementalArchive previous )
+    {
+        Callable compression = new Callable()
+        {
+            public Object call()
+                throws IOException
+            {
+                return compress( name, value, previous );
+            }
+        };
+        if ( executor != null )
+        {
+            return executor.submit( compression );
+        }
+        FutureTask task = new FutureTask( compression );
+        task.run();
+        return task;
+    }
+
+    private void writeNext( ZipArchiveOutputStream out, Deque pending, IncrementalArchive previous )
+        throws IOException
+    {
+        Object next = pending.removeFirst();
+        if ( next instanceof String )
+        {
+            writeDirectory( out, (String) next );
+            return;
+        }
+        Compressed compressed;
+        try
+        {
+            compressed = (Compressed) ( (Future) next ).get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while writing " + archiveFile );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException( e.getCause() );
+        }
+        InputStream in;
+        if ( compressed.content != null )
+        {
+            in = new ByteArrayInputStream( compressed.content );
+        }
+        else if ( compressed.file != null )
+        {
+            in = new FileInputStream( compressed.file );
+        }
+        else
+        {
+            in = previous.getRawInputStream( compressed.old );
+        }
+        try
+        {
+            out.addRawArchiveEntry( compressed.entry, in );
+        }
+        finally
+        {
+            in.close();
+            if ( compressed.temporary )
+            {
+                compressed.file.delete();
+            }
+        }
+        if ( compressed.old != null )
+        {
+            reused++;
+        }
+    }
+
+    /**
+     * Compresses a file, or finds that the previous archive holds it already.
+     *
+     * @param value    the <code>Source</code> or content of the file
+     * @param previous the previous archive, or <code>null</code>
+     */
+    private Compressed compress( String name, Object value, IncrementalArchive previous )
+        throws IOException
+    {
+        if ( value instanceof Source && ( (Source) value ).attributes.size() > STREAMED_SIZE )
+        {
+            return compressStreamed( name, (Source) value, previous );
+        }
+        byte[] content;
+        long time;
+        if ( value instanceof Source )
+        {
+            Source source = (Source) value;
+            content = Files.readAllBytes( source.file.toPath() );
+            time = source.attributes.lastModifiedTime().toMillis();
+        }
+        else
+        {
+            content = (byte[]) value;
+            time = System.currentTimeMillis();
+        }
+        CRC32 crc = new CRC32();
+        crc.update( content, 0, content.length );
+        int method = compress && !policy.isStored( name ) ? ZipEntry.DEFLATED : ZipEntry.STORED;
+
+        ZipArchiveEntry old = previous != null ? previous.find( name, method, content.length, crc.getValue() ) : null;
+        if ( old != null )
+        {
+            return reuse( old, time );
+        }
+
+        byte[] data = content;
+        if ( method == ZipEntry.DEFLATED )
+        {
+            data = deflate( content, policy.getLevel() );
+            if ( data.length >= content.length )
+            {
+                // already compressed content is stored, whatever its name
+                data = content;
+                method = ZipEntry.STORED;
+            }
+        }
+        ZipArchiveEntry entry = new ZipArchiveEntry( name );
+        entry.setTime( getEntryTime( time ) );
+        entry.setMethod( method );
+        entry.setSize( content.length );
+        entry.setCrc( crc.getValue() );
+        entry.setCompressedSize( data.length );
+        return new Compressed( entry, data, null, false, null );
+    }
+
+    /**
+     * Compresses a large file through a temporary file, or finds that the
+     * previous archive holds it already.
+     */
+    private Compressed compressStreamed( String name, Source source, IncrementalArchive previous )
+        throws IOException
+    {
+        CRC32 crc = new CRC32();
+        long size = transfer( source.file, null, crc );
+        long time = source.attributes.lastModifiedTime().toMillis();
+        int method = compress && !policy.isStored( name ) ? ZipEntry.DEFLATED : ZipEntry.STORED;
+        ZipArchiveEntry old = previous != null ? previous.find( name, method, size, crc.getValue() ) : null;
+        if ( old != null )
+        {
+            return reuse( old, time );
+        }
+
+        File data = source.file;
+        boolean temporary = false;
+        if ( method == ZipEntry.DEFLATED )
+        {
+            File deflated = File.createTempFile( "entry", ".deflated", getScratchDirectory() );
+            Deflater deflater = new Deflater( policy.getLevel(), true );
+            try
+            {
+                OutputStream out = new DeflaterOutputStream( new FileOutputStream( deflated ), deflater, 65536 );
+                try
+                {
+                    if ( transfer( source.file, out, null ) != size )
+                    {
+                        throw new IOException( source.file + " changed while it was archived" );
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+            catch ( IOException e )
+            {
+                deflated.delete();
+                throw e;
+            }
+            finally
+            {
+                deflater.end();
+            }
+            if ( deflated.length() < size )
+            {
+                data = deflated;
+                temporary = true;
+            }
+            else
+            {
+                // already compressed content is stored, whatever its name
+                deflated.delete();
+                method = ZipEntry.STORED;
+            }
+        }
+        ZipArchiveEntry entry = new ZipArchiveEntry( name );
+        entry.setTime( getEntryTime( time ) );
+        entry.setMethod( method );
+        entry.setSize( size );
+        entry.setCrc( crc.getValue() );
+        entry.setCompressedSize( temporary ? data.length() : size );
+        return new Compressed( entry, null, data, temporary, null );
+    }
+
+    private synchronized File getScratchDirectory()
+        throws IOException
+    {
+        if ( scratchDirectory == null )
+        {
+            scratchDirectory = Files.createTempDirectory( "sakai-archive" ).toFile();
+        }
+        return scratchDirectory;
+    }
+
+    private Compressed reuse( ZipArchiveEntry old, long time )
+        throws IOException
+    {
+        ZipArchiveEntry entry = new ZipArchiveEntry( old );
+        entry.setTime( getEntryTime( time ) );
+        return new Compressed( entry, null, null, false, old );
+    }
+
+    /**
+     * Reads a file, writing it to <code>out</code> and updating
+     * <code>crc</code> when they are given.
+     *
+     * @return the number of bytes read
+     */
+    private static long transfer( File file, OutputStream out, CRC32 crc )
+        throws IOException
+    {
+        long size = 0;
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            byte[] buffer = new byte[65536];
+            for ( int n; ( n = in.read( buffer ) ) > 0; )
+            {
+                if ( out != null )
+                {
+                    out.write( buffer, 0, n );
+                }
+                if ( crc != null )
+                {
+                    crc.update( buffer, 0, n );
+                }
+                size += n;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return size;
+    }
+
+    private static byte[] deflate( byte[] content, int level )
+    {
+        Deflater deflater = new Deflater( level, true );
+        try
+        {
+            deflater.setInput( content );
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream( content.length / 2 + 64 );
+            byte[] buffer = new byte[8192];
+            while ( !deflater.finished() )
+            {
+                out.write( buffer, 0, deflater.deflate( buffer ) );
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns a digest of the settings deciding how entries are compressed.
+     */
+    long getSettings()
+    {
+        try
+        {
+            return DigestCache.hash( ( compress + " " + policy ).getBytes( "UTF-8" ) );
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private void writeDirectory( ZipArchiveOutputStream out, String name )
+        throws IOException
+    {
+        ZipArchiveEntry entry = new ZipArchiveEntry( name );
+        entry.setTime( getEntryTime( System.currentTimeMillis() ) );
+        entry.setMethod( ZipEntry.STORED );
+        entry.setSize( 0 );
+        entry.setCrc( 0 );
+        out.putArchiveEntry( entry );
+        out.closeArchiveEntry();
+    }
+
+    /**
+     * Returns the time to give an entry. With a fixed timestamp, this is the
+     * time which reads as the timestamp in UTC, since zip entries store local
+     * time.
+     *
+     * @param fileTime the time of the entry's file, used with
+     *                 {@link #FILE_TIMES}
+     */
+    private long getEntryTime( long fileTime )
+    {
+        if ( timestamp == FILE_TIMES )
+        {
+            return fileTime;
+        }
+        return timestamp - TimeZone.getDefault().getOffset( timestamp );
+    }
+
+    /**
+     * A file of the archive, with the attributes it was added with.
+     */
+    static final class Source
+    {
+        final File file;
+
+        final BasicFileAttributes attributes;
+
+        Source( File file, BasicFileAttributes attributes )
+        {
+            this.file = file;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * An entry ready to be written, with its compressed content, the file
+     * holding it, or the entry of the previous archive it is copied from.
+     */
+    private static final class Compressed
+    {
+        final ZipArchiveEntry entry;
+
+        final byte[] content;
+
+        final File file;
+
+        /**
+         * Whether <code>file</code> is deleted once it is written.
+         */
+        final boolean temporary;
+
+        final ZipArchiveEntry old;
+
+        Compressed( ZipArchiveEntry entry, byte[] content, File file, boolean temporary, ZipArchiveEntry old )
+        {
+            this.entry = entry;
+            this.content = content;
+            this.file = file;
+            this.temporary = temporary;
+            this.old = old;
+        }
+    }
+}
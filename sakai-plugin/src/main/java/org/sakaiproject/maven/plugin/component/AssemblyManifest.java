@@ -0,0 +1,274 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records which source produced each file of an assembled webapp, so that a
+ * rebuild only copies inputs that changed and can remove outputs whose source
+ * has gone away.
+ * <p/>
+ * The size and modification time of each output are recorded too, so an
+ * output which was deleted or changed since is copied again even though its
+ * source did not change.
+ * <p/>
+ * The manifest is bound to a single webapp directory. If it is loaded for a
+ * different directory, or the directory no longer exists, the previous state
+ * is discarded and the next build behaves like a clean one.
+ * <p/>
+ * Outputs may be recorded concurrently from several copy threads.
+ */
+final class AssemblyManifest
+{
+    private static final int MAGIC = 0x53414b4d;
+
+    private static final int VERSION = 2;
+
+    /**
+     * Size recorded for outputs which are generated rather than copied, so
+     * they never compare as up to date.
+     */
+    private static final long GENERATED = -1L;
+
+    private final File file;
+
+    private final File webappDirectory;
+
+    private final Map previous;
+
+    private final ConcurrentHashMap current = new ConcurrentHashMap();
+
+    private AssemblyManifest( File file, File webappDirectory, Map previous )
+    {
+        this.file = file;
+        this.webappDirectory = webappDirectory;
+        this.previous = previous;
+    }
+
+    /**
+     * Loads the manifest for the given webapp directory. A missing, unreadable
+     * or foreign manifest yields an empty one.
+     *
+     * @param file            the manifest file
+     * @param webappDirectory the webapp directory the manifest describes
+     * @return the loaded manifest, never <code>null</code>
+     */
+    public static AssemblyManifest load( File file, File webappDirectory )
+    {
+        Map previous = Collections.EMPTY_MAP;
+        if ( file.isFile() && webappDirectory.isDirectory() )
+        {
+            try
+            {
+                previous = read( file, webappDirectory );
+            }
+            catch ( IOException e )
+            {
+                previous = Collections.EMPTY_MAP;
+            }
+        }
+        return new AssemblyManifest( file, webappDirectory, previous );
+    }
+
+    private static Map read( File file, File webappDirectory )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION
+                || !in.readUTF().equals( webappDirectory.getAbsolutePath() ) )
+            {
+                return Collections.EMPTY_MAP;
+            }
+            int count = in.readInt();
+            Map entries = new HashMap( count * 2 );
+            for ( int i = 0; i < count; i++ )
+            {
+                String path = in.readUTF();
+                entries.put( path, new Entry( in.readUTF(), in.readLong(), in.readLong(), in.readLong(),
+                                              in.readLong() ) );
+            }
+            return entries;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns whether <code>path</code> was produced by the previous build from
+     * the same source, and neither the source nor the output has changed
+     * since.
+     */
+    public boolean isUpToDate( String path, File source )
+    {
+        Entry entry = (Entry) previous.get( path );
+        if ( entry == null || entry.size == GENERATED || !entry.source.equals( source.getPath() ) )
+        {
+            return false;
+        }
+        if ( entry.lastModified != source.lastModified() || entry.size != source.length() )
+        {
+            return false;
+        }
+        File output = new File( webappDirectory, path );
+        if ( entry.outputLastModified != output.lastModified() || entry.outputSize != output.length()
+            || !output.isFile() )
+        {
+            return false;
+        }
+        current.put( path, entry );
+        return true;
+    }
+
+    /**
+     * Records that <code>path</code> now holds the contents of
+     * <code>source</code>. The output must have been written already.
+     */
+    public void record( String path, File source )
+    {
+        File output = new File( webappDirectory, path );
+        current.put( path, new Entry( source.getPath(), source.length(), source.lastModified(), output.length(),
+                                      output.lastModified() ) );
+    }
+
+    /**
+     * Records an output which is generated rather than copied from a single
+     * source file, so that it is not treated as stale.
+     */
+    public void recordGenerated( String path )
+    {
+        current.put( path, new Entry( "", GENERATED, 0L, GENERATED, 0L ) );
+    }
+
+    /**
+     * Deletes every output of the previous build which was not produced by this
+     * one, together with any directories left empty by the removal.
+     *
+     * @return the paths that were removed
+     */
+    public List removeStaleOutputs()
+    {
+        List removed = new ArrayList();
+        for ( Iterator i = previous.keySet().iterator(); i.hasNext(); )
+        {
+            String path = (String) i.next();
+            if ( current.containsKey( path ) )
+            {
+                continue;
+            }
+            File output = new File( webappDirectory, path );
+            if ( output.delete() )
+            {
+                removed.add( path );
+                for ( File dir = output.getParentFile(); dir != null && !dir.equals( webappDirectory ); dir =
+                    dir.getParentFile() )
+                {
+                    String[] children = dir.list();
+                    if ( children == null || children.length > 0 || !dir.delete() )
+                    {
+                        break;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Writes the outputs of this build, replacing the previous manifest.
+     */
+    public void save()
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        File temp = new File( file.getPath() + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeUTF( webappDirectory.getAbsolutePath() );
+            out.writeInt( current.size() );
+            for ( Iterator i = current.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                Entry entry = (Entry) e.getValue();
+                out.writeUTF( (String) e.getKey() );
+                out.writeUTF( entry.source );
+                out.writeLong( entry.size );
+                out.writeLong( entry.lastModified );
+                out.writeLong( entry.outputSize );
+                out.writeLong( entry.outputLastModified );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if ( !temp.renameTo( file ) )
+        {
+            file.delete();
+            if ( !temp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to replace assembly manifest " + file );
+            }
+        }
+    }
+
+    private static final class Entry
+    {
+        final String source;
+
+        final long size;
+
+        final long lastModified;
+
+        final long outputSize;
+
+        final long outputLastModified;
+
+        Entry( String source, long size, long lastModified, long outputSize, long outputLastModified )
+        {
+            this.source = source;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.outputSize = outputSize;
+            this.outputLastModified = outputLastModified;
+        }
+    }
+}
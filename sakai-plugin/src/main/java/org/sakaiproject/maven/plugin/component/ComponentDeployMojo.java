@@ -22,11 +22,18 @@ package org.sakaiproject.maven.plugin.component;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.resolver.AbstractArtifactResolutionException;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -91,6 +98,49 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 
 	private boolean explodeWars = false;
 
+	/**
+	 * Whether <tt>sakai-component</tt> and exploded war deploys only write
+	 * the files which changed since the last deploy and only delete the files
+	 * which are gone, rather than deleting the deployed directory and
+	 * unpacking the archive again. Unchanged files are recognised by the
+	 * sizes and CRCs of the archive entries. Likewise, <tt>tomcat-overlay</tt>
+	 * deploys write each file once, with the content of the last overlay
+	 * providing it, and only delete the files of the clean targets which no
+	 * overlay provides, rather than deleting the clean targets.
+	 */
+	@Parameter(property = "sakai.incrementalDeploy", defaultValue = "true")
+	private boolean incrementalDeploy = true;
+
+	/**
+	 * Whether <tt>sakai-component</tt> and exploded war deploys prepare the
+	 * new version in a staging directory and swap it in with renames, rather
+	 * than updating the deployed directory in place. A running container then
+	 * never sees a partly deployed directory. The staging directory is seeded
+	 * with hard links to the deployed files, so with
+	 * <tt>incrementalDeploy</tt> only changed files are written.
+	 */
+	@Parameter(property = "sakai.stagedDeploy", defaultValue = "false")
+	private boolean stagedDeploy;
+
+	/**
+	 * Whether every file deployed is recorded in a ledger kept in the deploy
+	 * directory. A deploy then removes exactly the files the previous deploy
+	 * of the same project left behind, such as older versions of jars, and is
+	 * skipped when neither its artifacts nor the files it deployed changed.
+	 */
+	@Parameter(property = "sakai.deployLedger", defaultValue = "true")
+	private boolean deployLedger = true;
+
+	/**
+	 * Number of threads used to resolve, copy and unpack the artifacts of a
+	 * <tt>pom</tt> deploy. With a single thread artifacts are deployed one
+	 * at a time on the build thread.
+	 */
+	@Parameter(property = "sakai.deployThreads", defaultValue = "4")
+	private int deployThreads = 4;
+
+	private DeployLedger.Deployment deployment;
+
 	public File getDeployDirectory() {
 		return deployDirectory;
 	}
@@ -168,6 +218,19 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				throw new MojoFailureException(
 						"deployDirectory has not been set");
 			}
+			if (deployLedger) {
+				deployment = new DeployLedger(deployDir).begin(
+						project.getGroupId() + ":" + project.getArtifactId(),
+						getDeployFingerprint(deployDir, artifacts));
+				// clean targets must hold only what the overlays provide, which the ledger cannot tell
+				if (deployment.isUpToDate() && !("pom".equals(packaging) && "tomcat-overlay"
+						.equals(project.getProperties().getProperty("deploy.target")))) {
+					getLog().info(
+							"Nothing changed since the last deploy of "
+									+ getProjectId() + " -- skipping");
+					return;
+				}
+			}
 			if ("sakai-component".equals(packaging)) {
 				// UseCase: Sakai component in a pom
 				// deploy to component and unpack as a
@@ -199,9 +262,8 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				}
 				getLog().info(
 						"Unpacking " + artifactFile + " to " + destinationDir);
-				deleteAll(destinationDir);
-				destinationDir.mkdirs();
-				unpack(artifactFile, destinationDir, "war", false);
+				replaceWithArchive(artifactFile, destinationDir, "war");
+				recordArchive(artifactFile, destinationDir);
 			}
 			else if ("sakai-configuration".equals(packaging)) {
 				// UseCase: Sakai configuration in a pom
@@ -233,8 +295,10 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				getLog().info(
 						"Unpacking " + artifactFile + " to " + destinationDir);
 				destinationDir.mkdirs();
+				Map existing = getUnpackTargets(artifactFile, destinationDir);
 				// we use a zip unarchiver
 				unpack(artifactFile, destinationDir, "zip" , false);
+				recordUnpacked(artifactFile, destinationDir, existing);
 			} else if ("war".equals(packaging)) {
 				// UseCase: war webapp
 				// deploy to webapps but dont unpack
@@ -295,13 +359,11 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				} else if ( "tomcat-overlay".equals(deployTarget)) {
 				        String cleanTargetPaths = p.getProperty("clean.targets");
 				        String[] cleanPaths = cleanTargetPaths.split(";");
-				        for ( String pathToClean : cleanPaths ) {
-	                                  File destinationDir = new File(deployDir, getDeploySubDir(pathToClean));
-	                                  getLog().info("Deleting "+destinationDir);
-				          deleteAll(destinationDir);
+				        if (incrementalDeploy) {
+				                syncOverlay(artifacts, deployDir, cleanPaths);
+				        } else {
+				                cleanAndDeployOverlay(artifacts, deployDir, cleanPaths);
 				        }
-				        deployDir.mkdirs();
-				        deployOverlay(artifacts, deployDir);
 				} else {
 					getLog().info(
 							"No deployment specification -- skipping "
@@ -313,6 +375,13 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 						"No deployment specification -- skipping "
 								+ getProjectId());
 			}
+			if (deployment != null) {
+				deployment.commit();
+				getLog().info(
+						"Deployed " + getProjectId() + ": "
+								+ deployment.getSummary());
+			}
+			saveDigestCache();
 		} catch (IOException ex) {
 			getLog().debug("Failed to deploy to container ", ex);
 			throw new MojoFailureException("Failed to deploy to container :"
@@ -370,9 +439,184 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 		return deploySubDir;
 	}
 
-	protected void deployOverlay(Set artifacts, File destination)
+	/**
+	 * Unpacks the artifacts into a directory, later artifacts overwriting
+	 * the files of earlier ones. Artifacts are resolved and unpacked on
+	 * <tt>deployThreads</tt> threads; an artifact which has files in common
+	 * with one still being unpacked waits until the earlier ones are done.
+	 */
+	protected void deployOverlay(Set artifacts, final File destination)
 			throws IOException, MojoFailureException,
 			AbstractArtifactResolutionException, MojoExecutionException, NoSuchArchiverException {
+		List overlays = getDeployedArtifacts(artifacts);
+		File[] files = new File[overlays.size()];
+		Set[] names = new Set[overlays.size()];
+		CopyEngine engine = new CopyEngine(deployThreads);
+		try {
+			resolveOverlays(engine, overlays, files, names);
+
+			Set unpacking = new HashSet();
+			for (int i = 0; i < overlays.size(); i++) {
+				final Artifact artifact = (Artifact) overlays.get(i);
+				final File artifactFile = files[i];
+				// overlapping overlays are applied in order
+				if (names[i] == null || !Collections.disjoint(unpacking, names[i])) {
+					flushDeploys(engine);
+					unpacking.clear();
+				}
+				if (names[i] != null) {
+					unpacking.addAll(names[i]);
+				}
+				submitDeploy(engine, () -> {
+					getLog().debug("Processing: " + artifact.getId());
+					unpack(artifactFile, destination, artifact.getType(), true);
+					recordArchive(artifactFile, destination);
+				});
+				if (names[i] == null) {
+					flushDeploys(engine);
+				}
+			}
+			flushDeploys(engine);
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+	/**
+	 * Resolves overlays and lists the files of each.
+	 *
+	 * @param files receives the file of each overlay
+	 * @param names receives the names of the files of each overlay, or
+	 *              <code>null</code> for overlays which are not zip archives
+	 */
+	private void resolveOverlays(CopyEngine engine, final List overlays,
+			final File[] files, final Set[] names) throws IOException,
+			MojoFailureException, MojoExecutionException,
+			AbstractArtifactResolutionException, NoSuchArchiverException {
+		for (int i = 0; i < overlays.size(); i++) {
+			final int index = i;
+			submitDeploy(engine, () -> {
+				Artifact artifact = (Artifact) overlays.get(index);
+				files[index] = resolveDependency(artifact);
+				names[index] = getEntryNames(files[index]);
+			});
+		}
+		flushDeploys(engine);
+	}
+
+	/**
+	 * Deploys a tomcat overlay in a single pass: the file each path ends up
+	 * with is worked out from all overlays first, and then only files which
+	 * differ from it are written, and only files of the clean targets which
+	 * no overlay provides are deleted. Overlays which are not zip archives
+	 * fall back to {@link #cleanAndDeployOverlay(Set, File, String[])}.
+	 */
+	private void syncOverlay(Set artifacts, File deployDir, String[] cleanPaths)
+			throws IOException, MojoFailureException, MojoExecutionException,
+			AbstractArtifactResolutionException, NoSuchArchiverException {
+		List overlays = getDeployedArtifacts(artifacts);
+		File[] files = new File[overlays.size()];
+		Set[] names = new Set[overlays.size()];
+		CopyEngine engine = new CopyEngine(deployThreads);
+		try {
+			resolveOverlays(engine, overlays, files, names);
+			List archives = new ArrayList();
+			for (int i = 0; i < files.length; i++) {
+				if (names[i] == null) {
+					getLog().info(
+							files[i] + " is not a zip archive, unpacking "
+									+ "every overlay in turn");
+					cleanAndDeployOverlay(artifacts, deployDir, cleanPaths);
+					return;
+				}
+				archives.add(files[i]);
+			}
+			OverlaySync sync = new OverlaySync(deployDir, archives);
+			for (int i = 0; i < cleanPaths.length; i++) {
+				sync.addCleanTarget(getDeploySubDir(cleanPaths[i]));
+			}
+			sync.setDeployment(deployment);
+			sync.sync(engine);
+			getLog().info(
+					"Wrote " + sync.getWritten() + " changed file(s), kept "
+							+ sync.getUnchanged() + " and deleted "
+							+ sync.getDeleted() + " in " + deployDir);
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+	/**
+	 * Deploys a tomcat overlay by deleting the clean targets and unpacking
+	 * every overlay over the previous ones.
+	 */
+	private void cleanAndDeployOverlay(Set artifacts, File deployDir,
+			String[] cleanPaths) throws IOException, MojoFailureException,
+			MojoExecutionException, AbstractArtifactResolutionException,
+			NoSuchArchiverException {
+		for (String pathToClean : cleanPaths) {
+			File destinationDir = new File(deployDir, getDeploySubDir(pathToClean));
+			getLog().info("Deleting " + destinationDir);
+			deleteAll(destinationDir);
+		}
+		deployDir.mkdirs();
+		deployOverlay(artifacts, deployDir);
+	}
+
+	/**
+	 * Copies the artifacts into a directory. Artifacts are resolved and
+	 * copied on <tt>deployThreads</tt> threads, except that artifacts copied
+	 * to the same file are copied in order.
+	 */
+	protected void deployArtifacts(Set artifacts, File destination)
+			throws IOException, MojoFailureException,
+			AbstractArtifactResolutionException {
+		List deployed = getDeployedArtifacts(artifacts);
+		Set copying = new HashSet();
+		CopyEngine engine = new CopyEngine(deployThreads);
+		try {
+			for (Iterator iter = deployed.iterator(); iter.hasNext();) {
+				final Artifact artifact = (Artifact) iter.next();
+				String targetFileName = getDefaultFinalName(artifact);
+				final File destinationFile = new File(destination, targetFileName);
+				if (!copying.add(destinationFile)) {
+					flushDeploys(engine);
+					copying.clear();
+					copying.add(destinationFile);
+				}
+				submitDeploy(engine, () -> {
+					File artifactFile = resolveDependency(artifact);
+					getLog().debug("Processing: " + destinationFile.getName());
+					if ("provided".equals(artifact.getScope())) {
+						getLog().info(
+								"Skipping " + artifactFile + " Scope "
+										+ artifact.getScope());
+					} else {
+						getLog().info(
+								"Copy " + artifactFile + " to " + destinationFile);
+						FileTransfer.copyIfModified(artifactFile,
+								destinationFile, getDigestCache());
+						recordFile(destinationFile);
+					}
+				});
+			}
+			flushDeploys(engine);
+		} catch (MojoExecutionException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		} catch (NoSuchArchiverException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the artifacts of a pom deploy, in order, leaving out those with
+	 * test scope.
+	 */
+	private List getDeployedArtifacts(Set artifacts)
+			throws MojoFailureException {
+		List deployed = new ArrayList();
 		for (Iterator iter = artifacts.iterator(); iter.hasNext();) {
 			Artifact artifact = (Artifact) iter.next();
 			if (artifact == null) {
@@ -382,78 +626,127 @@ public class ComponentDeployMojo extends AbstractComponentMojo {
 				throw new MojoFailureException(
 						"Null Artifact found, sould never happen, in artifacts for project ");
 			}
-			
 			if ("test".equals(artifact.getScope())) {
 				getLog().info("Artifact file has test scope for dependency " + artifact.getId() + " skipping");
 				continue;
 			}
-			File artifactFile = artifact.getFile();
-			if (artifactFile == null) {
-				artifactResolver.resolve(artifact, remoteRepositories,
-						artifactRepository);
-				artifactFile = artifact.getFile();
-			}
-			if (artifactFile == null) {
-				getLog().error(
-						"Artifact File is null for dependency "
-								+ artifact.getId() + " in " + getProjectId());
-				throw new MojoFailureException(
-						"Artifact File is null for dependency "
-								+ artifact.getId() + " in " + getProjectId());
+			deployed.add(artifact);
+		}
+		return deployed;
+	}
+
+	/**
+	 * Returns the file of a dependency, resolving it if needed.
+	 */
+	private File resolveDependency(Artifact artifact)
+			throws MojoFailureException, AbstractArtifactResolutionException {
+		File artifactFile = artifact.getFile();
+		if (artifactFile == null) {
+			artifactResolver.resolve(artifact, remoteRepositories,
+					artifactRepository);
+			artifactFile = artifact.getFile();
+		}
+		if (artifactFile == null) {
+			getLog().error(
+					"Artifact File is null for dependency "
+							+ artifact.getId() + " in " + getProjectId());
+			throw new MojoFailureException(
+					"Artifact File is null for dependency "
+							+ artifact.getId() + " in " + getProjectId());
+		}
+		return artifactFile;
+	}
+
+	/**
+	 * Returns the names of the files of a zip archive, or <code>null</code>
+	 * if it is not a zip archive.
+	 */
+	private static Set getEntryNames(File archive) {
+		ZipFile zip;
+		try {
+			zip = new ZipFile(archive);
+		} catch (IOException ex) {
+			return null;
+		}
+		try {
+			Set names = new HashSet();
+			for (Enumeration entries = zip.getEntries(); entries.hasMoreElements();) {
+				ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+				if (!entry.isDirectory()) {
+					names.add(entry.getName().replace('\\', '/'));
+				}
 			}
-			getLog().debug("Processing: " + artifact.getId());
-			unpack(artifact.getFile(), destination, artifact.getType(),true);
-		}
-
-	}
-        protected void deployArtifacts(Set artifacts, File destination)
-        throws IOException, MojoFailureException,
-        AbstractArtifactResolutionException {
-for (Iterator iter = artifacts.iterator(); iter.hasNext();) {
-        Artifact artifact = (Artifact) iter.next();
-        if (artifact == null) {
-                getLog().error(
-                                "Null Artifact found, sould never happen, in artifacts for project "
-                                                + getProjectId());
-                throw new MojoFailureException(
-                                "Null Artifact found, sould never happen, in artifacts for project ");
-        }
-        if ("test".equals(artifact.getScope())) {
-            getLog().info("Artifact file has test scope for dependency " + artifact.getId() + " skipping");
-            continue;
-        }
-        File artifactFile = artifact.getFile();
-        if (artifactFile == null) {
-                artifactResolver.resolve(artifact, remoteRepositories,
-                                artifactRepository);
-                artifactFile = artifact.getFile();
-        }
-        if (artifactFile == null) {
-                getLog().error(
-                                "Artifact File is null for dependency "
-                                                + artifact.getId() + " in " + getProjectId());
-                throw new MojoFailureException(
-                                "Artifact File is null for dependency "
-                                                + artifact.getId() + " in " + getProjectId());
-        }
-        String targetFileName = getDefaultFinalName(artifact);
-
-        getLog().debug("Processing: " + targetFileName);
-        File destinationFile = new File(destination, targetFileName);
-        if ("provided".equals(artifact.getScope())
-                        || "test".equals(artifact.getScope())) {
-                getLog().info(
-                                "Skipping " + artifactFile + " Scope "
-                                                + artifact.getScope());
-
-        } else {
-                getLog()
-                                .info("Copy " + artifactFile + " to " + destinationFile);
-                FileUtils.copyFileIfModified(artifact.getFile(), destinationFile);
-        }
-}
+			return names;
+		} finally {
+			ZipFile.closeQuietly(zip);
+		}
+	}
 
-}
+	/**
+	 * A step of a pom deploy.
+	 */
+	private interface DeployTask {
+		void run() throws IOException, MojoFailureException,
+				MojoExecutionException, AbstractArtifactResolutionException,
+				NoSuchArchiverException;
+	}
+
+	/**
+	 * Carries the failure of a {@link DeployTask} through the copy engine.
+	 */
+	private static final class DeployFailure extends IOException {
+		DeployFailure(Exception cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
+
+	private void submitDeploy(CopyEngine engine, final DeployTask task)
+			throws IOException, MojoFailureException, MojoExecutionException,
+			AbstractArtifactResolutionException, NoSuchArchiverException {
+		try {
+			engine.submit(() -> {
+				try {
+					task.run();
+				} catch (MojoFailureException | MojoExecutionException
+						| AbstractArtifactResolutionException
+						| NoSuchArchiverException ex) {
+					throw new DeployFailure(ex);
+				}
+			});
+		} catch (DeployFailure ex) {
+			rethrow(ex);
+		}
+	}
+
+	/**
+	 * Waits for the submitted deploy steps, and reports the failure of the
+	 * first failed one in artifact order.
+	 */
+	private void flushDeploys(CopyEngine engine) throws IOException,
+			MojoFailureException, MojoExecutionException,
+			AbstractArtifactResolutionException, NoSuchArchiverException {
+		try {
+			engine.flush();
+		} catch (DeployFailure ex) {
+			rethrow(ex);
+		}
+	}
+
+	private static void rethrow(DeployFailure failure)
+			throws MojoFailureException, MojoExecutionException,
+			AbstractArtifactResolutionException, NoSuchArchiverException {
+		Throwable cause = failure.getCause();
+		if (cause instanceof MojoFailureException) {
+			throw (MojoFailureException) cause;
+		}
+		if (cause instanceof MojoExecutionException) {
+			throw (MojoExecutionException) cause;
+		}
+		if (cause instanceof AbstractArtifactResolutionException) {
+			throw (AbstractArtifactResolutionException) cause;
+		}
+		throw (NoSuchArchiverException) cause;
+	}
 
 	private void deployProjectArtifact(File destination, boolean withVersion,
 			boolean deleteStub) throws MojoFailureException, IOException,
@@ -499,26 +792,212 @@ for (Iterator iter = artifacts.iterator(); iter.hasNext();) {
 			throw new MojoFailureException("Artifact File is null ");
 		}
 		if ("war".equals(project.getPackaging()) && isExplodeWars()) {
-			if (stubFile.exists()) {
-				deleteAll(stubFile);
-			}
-			stubFile.mkdirs();
-			unpack(artifactFile, stubFile, artifact.getType(), true);
+			replaceWithArchive(artifactFile, stubFile, artifact.getType());
+			recordArchive(artifactFile, stubFile);
 		} else {
 			if (deleteStub && stubFile.exists()) {
 				deleteAll(stubFile);
 			}
 			destinationFile.getParentFile().mkdirs();
+			if (deployment != null) {
+				int removed = deployment.removeLeftovers(Collections
+						.singleton(destinationFile));
+				if (removed > 0) {
+					getLog().info(
+							"Removed " + removed
+									+ " file(s) left by the previous deploy");
+				}
+			}
 			if (withVersion) {
 				// This bails out in an exception if there is a problem.
 				handleDuplicates(destination, fileName);
 			}
 			getLog().info("Copy " + artifactFile + " to " + destinationFile);
-			FileUtils.copyFileIfModified(artifactFile, destinationFile);
+			FileTransfer.copyIfModified(artifactFile, destinationFile,
+					getDigestCache());
+			recordFile(destinationFile);
 		}
 
 	}
 
+	/**
+	 * Replaces the contents of a deployed directory with those of an archive.
+	 * With <tt>incrementalDeploy</tt>, only the files which changed are
+	 * written and only the files which are gone are deleted. With
+	 * <tt>stagedDeploy</tt>, this is done in a staging directory which then
+	 * replaces the deployed one.
+	 *
+	 * @param archive     the archive to deploy
+	 * @param directory   the deployed directory
+	 * @param archiveType the type of the archive
+	 */
+	private void replaceWithArchive(File archive, File directory,
+			String archiveType) throws IOException, MojoExecutionException,
+			NoSuchArchiverException {
+		if (stagedDeploy) {
+			StagedDirectory staged = new StagedDirectory(directory);
+			File staging = staged.prepare(incrementalDeploy);
+			if (incrementalDeploy) {
+				sync(archive, staging, directory);
+			} else {
+				ArchiveSync.getIndexFile(directory).delete();
+				unpack(archive, staging, archiveType, true);
+			}
+			try {
+				staged.swap();
+			} catch (IOException e) {
+				// the old version stays live, and the index of the new one
+				// would have its files taken as current by the next deploy
+				ArchiveSync.getIndexFile(directory).delete();
+				throw e;
+			}
+			getLog().info("Swapped the new version of " + directory + " in");
+			return;
+		}
+		if (incrementalDeploy) {
+			sync(archive, directory, directory);
+			return;
+		}
+		if (directory.exists()) {
+			deleteAll(directory);
+		}
+		ArchiveSync.getIndexFile(directory).delete();
+		directory.mkdirs();
+		unpack(archive, directory, archiveType, true);
+	}
+
+	/**
+	 * Brings a directory in line with an archive.
+	 *
+	 * @param directory the directory to write
+	 * @param deployed  the deployed directory, of which <tt>directory</tt> may
+	 *                  be a staged copy
+	 */
+	private void sync(File archive, File directory, File deployed)
+			throws IOException {
+		ArchiveSync sync = new ArchiveSync(archive, directory,
+				ArchiveSync.getIndexFile(deployed));
+		sync.setIndexedDirectory(deployed);
+		sync.sync();
+		getLog().info(
+				"Wrote " + sync.getWritten() + " changed file(s), kept "
+						+ sync.getUnchanged() + " and deleted "
+						+ sync.getDeleted() + " in " + directory);
+	}
+
+	/**
+	 * Records a deployed file in the ledger.
+	 */
+	private void recordFile(File file) throws IOException {
+		if (deployment != null) {
+			deployment.addFile(file, DeployLedger.NO_CRC);
+		}
+	}
+
+	/**
+	 * Records the files of an archive unpacked into a directory in the
+	 * ledger. Archives which cannot be listed leave the deploy incompletely
+	 * recorded, so it is never skipped.
+	 */
+	private void recordArchive(File archive, File directory) {
+		if (deployment == null) {
+			return;
+		}
+		try {
+			deployment.addArchive(archive, directory);
+		} catch (IOException ex) {
+			getLog().debug("Could not record the files of " + archive, ex);
+			deployment.setIncomplete();
+		}
+	}
+
+	/**
+	 * Returns the files an archive is about to be unpacked to without
+	 * overwriting, for {@link #recordUnpacked}.
+	 *
+	 * @return the files, or <code>null</code> if the archive cannot be listed
+	 */
+	private Map getUnpackTargets(File archive, File directory) {
+		if (deployment == null) {
+			return null;
+		}
+		try {
+			return deployment.getUnpackTargets(archive, directory);
+		} catch (IOException ex) {
+			getLog().debug("Could not list the files of " + archive, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Records the files an archive unpacked without overwriting wrote in the
+	 * ledger, leaving out the files which were there already and were not
+	 * deployed by this project.
+	 *
+	 * @param existing the files as they were before the unpack
+	 */
+	private void recordUnpacked(File archive, File directory, Map existing) {
+		if (deployment == null) {
+			return;
+		}
+		if (existing == null) {
+			deployment.setIncomplete();
+			return;
+		}
+		try {
+			deployment.addUnpacked(archive, directory, existing);
+		} catch (IOException ex) {
+			getLog().debug("Could not record the files of " + archive, ex);
+			deployment.setIncomplete();
+		}
+	}
+
+	/**
+	 * Computes a fingerprint of everything a deploy depends on: the settings,
+	 * and the path, size and modification time of each artifact deployed.
+	 *
+	 * @return the fingerprint, or <code>0</code> if an artifact is not
+	 *         resolved yet
+	 */
+	private long getDeployFingerprint(File deployDir, Set artifacts)
+			throws IOException {
+		Properties p = project.getProperties();
+		StringBuilder key = new StringBuilder();
+		key.append(project.getPackaging()).append('\n')
+				.append(p.getProperty("deploy.target")).append('\n')
+				.append(p.getProperty("clean.targets")).append('\n')
+				.append(deployDir.getAbsolutePath()).append('\n')
+				.append(appServer).append('\n').append(deployId).append('\n')
+				.append(project.getVersion()).append('\n').append(explodeWars)
+				.append(incrementalDeploy).append(stagedDeploy).append('\n');
+		if ("pom".equals(project.getPackaging())) {
+			if (artifacts != null) {
+				for (Iterator i = artifacts.iterator(); i.hasNext();) {
+					Artifact artifact = (Artifact) i.next();
+					if (artifact != null && !"test".equals(artifact.getScope())
+							&& !appendArtifact(key, artifact)) {
+						return 0;
+					}
+				}
+			}
+		} else if (!appendArtifact(key, project.getArtifact())) {
+			return 0;
+		}
+		return DigestCache.hash(key.toString().getBytes("UTF-8"));
+	}
+
+	private static boolean appendArtifact(StringBuilder key, Artifact artifact) {
+		File file = artifact == null ? null : artifact.getFile();
+		if (file == null || !file.isFile()) {
+			return false;
+		}
+		key.append(artifact.getId()).append(' ').append(artifact.getScope())
+				.append(' ').append(file.getAbsolutePath()).append(' ')
+				.append(file.length()).append(' ').append(file.lastModified())
+				.append('\n');
+		return true;
+	}
+
 	/**
 	 * This checks for duplicates that may cause problems.
 	 * @param destination The folder into which we are deploying.
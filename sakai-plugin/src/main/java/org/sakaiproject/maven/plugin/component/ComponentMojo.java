@@ -19,20 +19,19 @@ package org.sakaiproject.maven.plugin.component;
  * under the License.
  */
 
-import org.apache.maven.archiver.MavenArchiver;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.*;
 import org.apache.maven.project.MavenProjectHelper;
-import org.codehaus.plexus.archiver.Archiver;
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.jar.ManifestException;
-import org.codehaus.plexus.archiver.war.WarArchiver;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * Build a sakai component
@@ -62,12 +61,6 @@ public class ComponentMojo
     @Parameter
     private String classifier;
 
-    /**
-     * The Jar archiver.
-     */
-    @Component(role = Archiver.class, hint = "war")
-    private WarArchiver warArchiver;
-
     @Component
     private MavenProjectHelper projectHelper;
 
@@ -155,18 +148,32 @@ public class ComponentMojo
         //generate war file
         getLog().info( "Generating component " + warFile.getAbsolutePath() );
 
-        MavenArchiver archiver = new MavenArchiver();
-
-        archiver.setArchiver( warArchiver );
-
-        archiver.setOutputFile( warFile );
+        File webXml = new File( getWebappDirectory(), "WEB-INF/web.xml" );
+        if ( !webXml.isFile() )
+        {
+            throw new ArchiverException( "Deployment descriptor: " + webXml.getAbsolutePath() + " does not exist." );
+        }
 
-        warArchiver.addDirectory( getWebappDirectory(), getIncludes(), getExcludes() );
+        // entries keep the modification times of their files unless the project asks for a fixed timestamp
+        ArchiveWriter writer = newArchiveWriter( warFile, getOutputTimestamp( ArchiveWriter.FILE_TIMES ) );
 
-        warArchiver.setWebxml( new File( getWebappDirectory(), "WEB-INF/web.xml" ) );
+        // the assembled webapp is walked here, and may hold files written by other plugins; the scanner prunes
+        // excluded subtrees and hands over the attributes read during the walk
+        addScannedFiles( writer, scan( getWebappDirectory(), getIncludes(), getExcludes(), true ) );
+        // the excludes leave out web.xml when it is configured, it is added in any case as the war archiver did
+        writer.addFile( "WEB-INF/web.xml", webXml, Files.readAttributes( webXml.toPath(), BasicFileAttributes.class ) );
 
-        // create archive
-        archiver.createArchive(null, getProject(), archive );
+        // the fingerprint of the war lets an unchanged webapp skip packaging, and a changed one reuse the
+        // compressed entries of the previous war
+        File fingerprint = new File( warFile.getParentFile(), warFile.getName() + ".fingerprint" );
+        if ( writer.write( fingerprint ) )
+        {
+            getLog().info( "Reused " + writer.getReused() + " unchanged file(s) of the previous component" );
+        }
+        else
+        {
+            getLog().info( "Component " + warFile.getName() + " is up to date" );
+        }
 
         String classifier = this.classifier;
         if ( classifier != null )
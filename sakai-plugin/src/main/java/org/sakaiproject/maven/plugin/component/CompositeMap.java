@@ -25,15 +25,19 @@ import java.util.Map;
 import java.util.Set;
 
 /**
+ * A map looking up keys in a dominant map first, then in a recessive one.
+ * Neither map is modified through the composite, so it can be read
+ * concurrently as long as the maps themselves can.
+ *
  * @version $Id$
  * @todo merge with resources/assembly plugin
  */
 public class CompositeMap
     extends AbstractMap
 {
-    private Map recessive;
+    private final Map recessive;
 
-    private Map dominant;
+    private final Map dominant;
 
     public CompositeMap( Map dominant, Map recessive )
     {
@@ -42,7 +46,7 @@ public class CompositeMap
         this.recessive = Collections.unmodifiableMap( recessive );
     }
 
-    public synchronized Object get( Object key )
+    public Object get( Object key )
     {
         Object value = dominant.get( key );
 
@@ -0,0 +1,194 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+
+import org.apache.maven.artifact.ArtifactUtils;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Decides how the entries of an archive are compressed: files of types which
+ * are compressed already, such as jars and images, are stored, and the others
+ * are deflated at a level set for the whole archive.
+ * <p/>
+ * The level is given as a number from 0 to 9 or as one of <tt>default</tt>,
+ * <tt>fast</tt>, <tt>best</tt> and <tt>auto</tt>, which is <tt>fast</tt>
+ * for snapshot versions and <tt>best</tt> for releases.
+ */
+final class CompressionPolicy
+{
+    public static final String DEFAULT = "default";
+
+    public static final String FAST = "fast";
+
+    public static final String BEST = "best";
+
+    public static final String AUTO = "auto";
+
+    /**
+     * The value of <tt>storedExtensions</tt> which stores nothing.
+     */
+    public static final String NONE = "none";
+
+    /**
+     * The extensions of files stored by default.
+     */
+    static final String[] STORED_EXTENSIONS =
+        { "jar", "war", "ear", "zip", "gz", "tgz", "bz2", "xz", "7z", "png", "gif", "jpg", "jpeg", "webp", "woff",
+            "woff2", "mp3", "mp4", "ogg", "webm", "svgz" };
+
+    /**
+     * The extensions of the zip files which <tt>recompressAddedZips</tt>
+     * leaves alone when it is turned off.
+     */
+    static final String[] ZIP_EXTENSIONS = { "jar", "war", "ear", "zip" };
+
+    private final int level;
+
+    /**
+     * Lower case extensions, sorted.
+     */
+    private final Set stored;
+
+    /**
+     * @param level  the deflate level, from 0 to 9, or
+     *               <code>Deflater.DEFAULT_COMPRESSION</code>
+     * @param stored the extensions of files to store
+     */
+    public CompressionPolicy( int level, String[] stored )
+    {
+        this.level = level;
+        this.stored = new TreeSet();
+        for ( int i = 0; i < stored.length; i++ )
+        {
+            String extension = stored[i].trim().toLowerCase( Locale.ENGLISH );
+            if ( extension.startsWith( "." ) )
+            {
+                extension = extension.substring( 1 );
+            }
+            if ( extension.length() > 0 )
+            {
+                this.stored.add( extension );
+            }
+        }
+    }
+
+    /**
+     * Creates the policy for plugin parameters.
+     *
+     * @param level            the level, as described above, or
+     *                         <code>null</code> for the default
+     * @param storedExtensions comma separated extensions of files to store,
+     *                         <tt>none</tt>, or <code>null</code> for
+     *                         {@link #STORED_EXTENSIONS}
+     * @param version          the version of the project
+     * @throws IllegalArgumentException if the level is not valid
+     */
+    public static CompressionPolicy create( String level, String storedExtensions, String version )
+    {
+        String[] stored;
+        if ( storedExtensions == null )
+        {
+            stored = STORED_EXTENSIONS;
+        }
+        else if ( storedExtensions.trim().equalsIgnoreCase( NONE ) )
+        {
+            stored = new String[0];
+        }
+        else
+        {
+            stored = StringUtils.split( storedExtensions, "," );
+        }
+        return new CompressionPolicy( parseLevel( level, version != null && ArtifactUtils.isSnapshot( version ) ),
+                                      stored );
+    }
+
+    /**
+     * Returns a policy which also stores the files of the given extensions.
+     */
+    public CompressionPolicy storing( String[] extensions )
+    {
+        String[] all = (String[]) stored.toArray( new String[stored.size() + extensions.length] );
+        System.arraycopy( extensions, 0, all, stored.size(), extensions.length );
+        return new CompressionPolicy( level, all );
+    }
+
+    static int parseLevel( String level, boolean snapshot )
+    {
+        String value = level == null ? DEFAULT : level.trim().toLowerCase( Locale.ENGLISH );
+        if ( value.equals( AUTO ) )
+        {
+            value = snapshot ? FAST : BEST;
+        }
+        if ( value.equals( DEFAULT ) )
+        {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        if ( value.equals( FAST ) )
+        {
+            return Deflater.BEST_SPEED;
+        }
+        if ( value.equals( BEST ) )
+        {
+            return Deflater.BEST_COMPRESSION;
+        }
+        if ( value.length() == 1 && Character.isDigit( value.charAt( 0 ) ) )
+        {
+            return value.charAt( 0 ) - '0';
+        }
+        throw new IllegalArgumentException( "Invalid compression level: " + level
+            + ", expected 0 to 9, default, fast, best or auto" );
+    }
+
+    /**
+     * Returns the deflate level.
+     */
+    public int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * Returns whether an entry is stored because of its type, or because the
+     * level is 0.
+     *
+     * @param name the name of the entry
+     */
+    public boolean isStored( String name )
+    {
+        if ( level == Deflater.NO_COMPRESSION )
+        {
+            return true;
+        }
+        int dot = name.lastIndexOf( '.' );
+        return dot > name.lastIndexOf( '/' )
+            && stored.contains( name.substring( dot + 1 ).toLowerCase( Locale.ENGLISH ) );
+    }
+
+    public String toString()
+    {
+        return "level " + level + ", stored " + Arrays.toString( stored.toArray() );
+    }
+}
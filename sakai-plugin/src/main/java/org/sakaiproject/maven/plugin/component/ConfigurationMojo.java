@@ -10,7 +10,6 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.*;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
-import org.codehaus.plexus.archiver.zip.ZipArchiver;
 
 /**
  * Package Configuration as a Zip for later deployment.
@@ -26,10 +25,29 @@ public class ConfigurationMojo
 	protected MavenProject project;
 
     /**
-     * The Zip archiver.
+     * Number of threads compressing the entries of the archive, 0 for one per
+     * processor. Entries are written in the same order whatever the number of
+     * threads.
      */
-    @Component(role = org.codehaus.plexus.archiver.Archiver.class, hint = "zip")
-    private ZipArchiver zipArchiver;
+    @Parameter(property = "sakai.archiveThreads", defaultValue = "0")
+    private int archiveThreads;
+
+    /**
+     * Deflate level of the archive: a number from 0 to 9, <tt>default</tt>,
+     * <tt>fast</tt>, <tt>best</tt>, or <tt>auto</tt> for <tt>fast</tt> with
+     * snapshot versions and <tt>best</tt> with releases.
+     */
+    @Parameter(property = "sakai.compressionLevel", defaultValue = CompressionPolicy.DEFAULT)
+    private String compressionLevel = CompressionPolicy.DEFAULT;
+
+    /**
+     * Comma separated extensions of the files which are stored rather than
+     * deflated, because they are compressed already, or <tt>none</tt>. By
+     * default jars, wars, zips and other archives, images, web fonts and media
+     * files are stored.
+     */
+    @Parameter(property = "sakai.storedExtensions")
+    private String storedExtensions;
 
     /**
      * Directory containing the build files.
@@ -88,9 +106,14 @@ public class ConfigurationMojo
            	File outputDirectoryFile = new File(outputDirectory);
             File buildDirectoryFile = new File(configurationDirectory);
         	File outputFile = getConfigurationFile( outputDirectoryFile, configurationName, classifier);
-            zipArchiver.addDirectory( buildDirectoryFile, new String[]{"**/**"}, new String[]{"**/"+outputFile.getName()} );
-            zipArchiver.setDestFile( outputFile );
-            zipArchiver.createArchive();
+            // the output directory may lie within the configuration directory, leave out what is written there
+            FileScanner scanner = new FileScanner( new String[]{"**/**"}, new String[]{"**/"+outputFile.getName(),
+                "**/"+outputFile.getName()+".fingerprint", "**/"+outputFile.getName()+".tmp"}, true );
+            ArchiveWriter writer = new ArchiveWriter( outputFile, ArchiveWriter.FILE_TIMES, true );
+            writer.setThreads( AbstractComponentMojo.getArchiveThreads( archiveThreads ) );
+            writer.setPolicy( CompressionPolicy.create( compressionLevel, storedExtensions, getProject().getVersion() ) );
+            AbstractComponentMojo.addScannedFiles( writer, scanner.scan( buildDirectoryFile ) );
+            writer.write( new File( outputDirectoryFile, outputFile.getName() + ".fingerprint" ) );
             
             String classifier = this.classifier;
             if ( classifier != null )
@@ -0,0 +1,208 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs file copies on a bounded pool of threads.
+ * <p/>
+ * Work is submitted in batches: {@link #flush()} waits for everything
+ * submitted so far, so callers put a flush between steps whose outputs may
+ * overlap and must be applied in order, such as successive overlays. Within a
+ * batch tasks must write distinct files.
+ * <p/>
+ * When a batch fails, the failure of the earliest submitted task is reported,
+ * whatever order the tasks actually ran in, and tasks that had not started yet
+ * are skipped. With a single thread every task runs immediately on the calling
+ * thread.
+ */
+final class CopyEngine
+{
+    /**
+     * A unit of copying work.
+     */
+    interface Task
+    {
+        void run()
+            throws IOException;
+    }
+
+    /**
+     * Number of tasks each thread may have queued before submit blocks.
+     */
+    private static final int QUEUE_PER_THREAD = 64;
+
+    private final ExecutorService executor;
+
+    private final Semaphore capacity;
+
+    private final List pending = new ArrayList();
+
+    private volatile boolean failed;
+
+    public CopyEngine( int threads )
+    {
+        if ( threads > 1 )
+        {
+            executor = Executors.newFixedThreadPool( threads, new CopyThreadFactory() );
+            capacity = new Semaphore( threads * QUEUE_PER_THREAD );
+        }
+        else
+        {
+            executor = null;
+            capacity = null;
+        }
+    }
+
+    /**
+     * Submits a task to the current batch.
+     *
+     * @throws IOException if the engine runs on the calling thread and the task fails
+     */
+    public void submit( final Task task )
+        throws IOException
+    {
+        if ( executor == null )
+        {
+            task.run();
+            return;
+        }
+        capacity.acquireUninterruptibly();
+        try
+        {
+            pending.add( executor.submit( () -> {
+                try
+                {
+                    if ( !failed )
+                    {
+                        task.run();
+                    }
+                    return null;
+                }
+                catch ( IOException | RuntimeException e )
+                {
+                    failed = true;
+                    throw e;
+                }
+                finally
+                {
+                    capacity.release();
+                }
+            } ) );
+        }
+        catch ( RuntimeException e )
+        {
+            capacity.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for every task of the current batch to complete.
+     *
+     * @throws IOException the failure of the first failed task, in submission order
+     */
+    public void flush()
+        throws IOException
+    {
+        Throwable failure = null;
+        boolean interrupted = false;
+        for ( int i = 0; i < pending.size(); i++ )
+        {
+            Future future = (Future) pending.get( i );
+            while ( true )
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+                catch ( ExecutionException e )
+                {
+                    if ( failure == null )
+                    {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        pending.clear();
+        failed = false;
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+        if ( failure instanceof IOException )
+        {
+            throw (IOException) failure;
+        }
+        if ( failure instanceof RuntimeException )
+        {
+            throw (RuntimeException) failure;
+        }
+        if ( failure != null )
+        {
+            throw new IOException( failure.getMessage(), failure );
+        }
+    }
+
+    /**
+     * Releases the threads. Tasks still pending are abandoned.
+     */
+    public void shutdown()
+    {
+        if ( executor != null )
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class CopyThreadFactory
+        implements ThreadFactory
+    {
+        private static final AtomicInteger POOL = new AtomicInteger();
+
+        private final int pool = POOL.incrementAndGet();
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread( Runnable r )
+        {
+            Thread thread = new Thread( r, "sakai-copy-" + pool + "-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
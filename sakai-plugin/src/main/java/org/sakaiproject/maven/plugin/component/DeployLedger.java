@@ -0,0 +1,723 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+/**
+ * Records, in the home of the container, every file each project deployed
+ * there, so that a deploy knows what the previous deploy of the same project
+ * left behind without walking the deployed trees or guessing from file
+ * names.
+ * <p/>
+ * Each project has a record holding a fingerprint of what was deployed and
+ * the path, size, modification time and, where known, CRC of every file. A
+ * deploy whose fingerprint matches the record, and whose recorded files are
+ * all still as they were written, has nothing to do. Otherwise the files of
+ * the previous record which the new deploy did not write again are deleted,
+ * unless they were changed since or another project deployed them too.
+ * <p/>
+ * The ledger keeps the record of each project as a separate block of bytes,
+ * with sorted paths sharing their common prefixes, so a deploy only decodes
+ * its own record and copies the others as they are. Records are replaced
+ * under a lock, by writing a new ledger and renaming it over the old one, so
+ * builds deploying several projects at once do not lose each other's
+ * records and an interrupted deploy leaves the previous ledger intact.
+ */
+final class DeployLedger
+{
+    public static final String FILE_NAME = ".sakai-deploy.ledger";
+
+    private static final int MAGIC = 0x53414b4c;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The CRC of a file whose CRC is not known.
+     */
+    public static final long NO_CRC = -1;
+
+    private static final ConcurrentHashMap LOCKS = new ConcurrentHashMap();
+
+    private final File home;
+
+    private final File file;
+
+    /**
+     * @param home the home of the container, which the recorded paths are
+     *             relative to
+     */
+    public DeployLedger( File home )
+    {
+        this.home = home.getAbsoluteFile();
+        this.file = new File( this.home, FILE_NAME );
+    }
+
+    /**
+     * Starts recording a deploy.
+     *
+     * @param project     the key of the deployed project
+     * @param fingerprint a fingerprint of everything the deploy depends on,
+     *                    or <code>0</code> if it cannot be told
+     */
+    public Deployment begin( String project, long fingerprint )
+        throws IOException
+    {
+        return new Deployment( project, fingerprint, read( project ) );
+    }
+
+    /**
+     * Returns the record of a project, or <code>null</code> if it has none.
+     */
+    public Record read( String project )
+        throws IOException
+    {
+        byte[] block = (byte[]) readBlocks( project ).get( project );
+        return block == null ? null : Record.decode( block );
+    }
+
+    /**
+     * Reads the blocks of the ledger, all of them or only that of one
+     * project. A missing or foreign ledger is empty.
+     *
+     * @param project the project to read the block of, or <code>null</code>
+     *                for all of them
+     * @return the blocks by project, in ledger order
+     */
+    private Map readBlocks( String project )
+        throws IOException
+    {
+        Map blocks = new LinkedHashMap();
+        if ( !file.isFile() )
+        {
+            return blocks;
+        }
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 65536 ) );
+        try
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                return blocks;
+            }
+            int count = in.readInt();
+            for ( int i = 0; i < count; i++ )
+            {
+                String name = in.readUTF();
+                int length = in.readInt();
+                if ( project == null || project.equals( name ) )
+                {
+                    byte[] block = new byte[length];
+                    in.readFully( block );
+                    blocks.put( name, block );
+                }
+                else
+                {
+                    skipFully( in, length );
+                }
+            }
+        }
+        catch ( EOFException e )
+        {
+            // a truncated ledger only records the projects read so far
+        }
+        finally
+        {
+            in.close();
+        }
+        return blocks;
+    }
+
+    private static void skipFully( DataInputStream in, int length )
+        throws IOException
+    {
+        while ( length > 0 )
+        {
+            int skipped = in.skipBytes( length );
+            if ( skipped <= 0 )
+            {
+                throw new EOFException();
+            }
+            length -= skipped;
+        }
+    }
+
+    private void write( Map blocks )
+        throws IOException
+    {
+        File temporary = new File( home, FILE_NAME + ".tmp" );
+        boolean written = false;
+        try
+        {
+            writeBlocks( temporary, blocks );
+            Files.move( temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+            written = true;
+        }
+        finally
+        {
+            if ( !written )
+            {
+                temporary.delete();
+            }
+        }
+    }
+
+    private static void writeBlocks( File temporary, Map blocks )
+        throws IOException
+    {
+        DataOutputStream out =
+            new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temporary ), 65536 ) );
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( blocks.size() );
+            for ( Iterator i = blocks.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                byte[] block = (byte[]) e.getValue();
+                out.writeUTF( (String) e.getKey() );
+                out.writeInt( block.length );
+                out.write( block );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Runs a change to the ledger while holding its lock, against other
+     * threads and other builds.
+     */
+    private void locked( Change change )
+        throws IOException
+    {
+        Files.createDirectories( home.toPath() );
+        Object lock = LOCKS.computeIfAbsent( file.getPath(), k -> new Object() );
+        synchronized ( lock )
+        {
+            FileChannel channel = FileChannel.open( new File( home, FILE_NAME + ".lock" ).toPath(),
+                                                    StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+            try
+            {
+                FileLock fileLock = channel.lock();
+                try
+                {
+                    change.apply( readBlocks( null ) );
+                }
+                finally
+                {
+                    fileLock.release();
+                }
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+    }
+
+    private interface Change
+    {
+        void apply( Map blocks )
+            throws IOException;
+    }
+
+    /**
+     * Returns the path of a file as recorded, relative to the home of the
+     * container where it is inside it.
+     */
+    String getPath( File file )
+    {
+        Path path = file.getAbsoluteFile().toPath().normalize();
+        Path root = home.toPath().normalize();
+        if ( path.startsWith( root ) )
+        {
+            path = root.relativize( path );
+        }
+        return path.toString().replace( File.separatorChar, '/' );
+    }
+
+    File getFile( String path )
+    {
+        File file = new File( path.replace( '/', File.separatorChar ) );
+        return file.isAbsolute() ? file : new File( home, path );
+    }
+
+    /**
+     * Whether a file is still as it was recorded.
+     */
+    private boolean isUnchanged( String path, Recorded recorded )
+        throws IOException
+    {
+        BasicFileAttributes attributes = FileTransfer.readAttributes( getFile( path ).toPath() );
+        return attributes != null && attributes.isRegularFile() && attributes.size() == recorded.size
+            && attributes.lastModifiedTime().toMillis() == recorded.lastModified;
+    }
+
+    /**
+     * The files deployed by a project.
+     */
+    static final class Record
+    {
+        private final long fingerprint;
+
+        /**
+         * Recorded files by path, sorted.
+         */
+        private final TreeMap files = new TreeMap();
+
+        Record( long fingerprint )
+        {
+            this.fingerprint = fingerprint;
+        }
+
+        public long getFingerprint()
+        {
+            return fingerprint;
+        }
+
+        /**
+         * Returns the recorded paths, sorted.
+         */
+        public Set getPaths()
+        {
+            return files.keySet();
+        }
+
+        byte[] encode()
+            throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 + files.size() * 48 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeLong( fingerprint );
+            out.writeInt( files.size() );
+            String previous = "";
+            for ( Iterator i = files.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                String path = (String) e.getKey();
+                Recorded recorded = (Recorded) e.getValue();
+                int shared = 0;
+                int max = Math.min( Math.min( path.length(), previous.length() ), 0xffff );
+                while ( shared < max && path.charAt( shared ) == previous.charAt( shared ) )
+                {
+                    shared++;
+                }
+                out.writeShort( shared );
+                out.writeUTF( path.substring( shared ) );
+                out.writeLong( recorded.size );
+                out.writeLong( recorded.lastModified );
+                out.writeLong( recorded.crc );
+                previous = path;
+            }
+            out.close();
+            return bytes.toByteArray();
+        }
+
+        static Record decode( byte[] block )
+            throws IOException
+        {
+            DataInputStream in = new DataInputStream( new ByteArrayInputStream( block ) );
+            Record record = new Record( in.readLong() );
+            int count = in.readInt();
+            String previous = "";
+            for ( int i = 0; i < count; i++ )
+            {
+                int shared = in.readUnsignedShort();
+                String path = previous.substring( 0, shared ) + in.readUTF();
+                record.files.put( path, new Recorded( in.readLong(), in.readLong(), in.readLong() ) );
+                previous = path;
+            }
+            return record;
+        }
+    }
+
+    /**
+     * A recorded file.
+     */
+    private static final class Recorded
+    {
+        final long size;
+
+        final long lastModified;
+
+        final long crc;
+
+        Recorded( long size, long lastModified, long crc )
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.crc = crc;
+        }
+
+        /**
+         * Returns whether both describe the same file. A missing CRC on
+         * either side matches any CRC.
+         */
+        boolean matches( Recorded other )
+        {
+            return size == other.size && lastModified == other.lastModified
+                && ( crc == other.crc || crc == NO_CRC || other.crc == NO_CRC );
+        }
+    }
+
+    /**
+     * A deploy of a project being recorded. Files may be recorded from
+     * several threads.
+     */
+    final class Deployment
+    {
+        private final String project;
+
+        private final Record previous;
+
+        private long fingerprint;
+
+        /**
+         * Recorded files by path.
+         */
+        private final Map files = new TreeMap();
+
+        private int added;
+
+        private int changed;
+
+        private int removed;
+
+        private Deployment( String project, long fingerprint, Record previous )
+        {
+            this.project = project;
+            this.fingerprint = fingerprint;
+            this.previous = previous;
+        }
+
+        /**
+         * Returns whether the previous deploy had the same fingerprint, and
+         * all the files it recorded are still as they were written.
+         */
+        public boolean isUpToDate()
+            throws IOException
+        {
+            if ( previous == null || fingerprint == 0 || previous.fingerprint != fingerprint )
+            {
+                return false;
+            }
+            for ( Iterator i = previous.files.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                if ( !isUnchanged( (String) e.getKey(), (Recorded) e.getValue() ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns whether the previous deploy recorded a file with the given
+         * size and CRC, and the file is still as it was written. This may be
+         * called while files are being recorded.
+         */
+        public boolean isDeployed( File file, long size, long crc )
+            throws IOException
+        {
+            if ( previous == null || crc == NO_CRC )
+            {
+                return false;
+            }
+            String path = getPath( file );
+            Recorded recorded = (Recorded) previous.files.get( path );
+            return recorded != null && recorded.size == size && recorded.crc == crc
+                && isUnchanged( path, recorded );
+        }
+
+        /**
+         * Records a deployed file. A file which does not exist is not
+         * recorded.
+         *
+         * @param crc the CRC of the file, or {@link DeployLedger#NO_CRC}
+         */
+        public synchronized void addFile( File file, long crc )
+            throws IOException
+        {
+            BasicFileAttributes attributes = FileTransfer.readAttributes( file.toPath() );
+            if ( attributes != null && attributes.isRegularFile() )
+            {
+                files.put( getPath( file ),
+                           new Recorded( attributes.size(), attributes.lastModifiedTime().toMillis(), crc ) );
+            }
+        }
+
+        /**
+         * Records the files of an archive unpacked into a directory, with the
+         * CRCs of their entries.
+         */
+        public void addArchive( File archive, File directory )
+            throws IOException
+        {
+            ZipFile zip = new ZipFile( archive );
+            try
+            {
+                for ( Enumeration entries = zip.getEntries(); entries.hasMoreElements(); )
+                {
+                    ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                    if ( !entry.isDirectory() )
+                    {
+                        addFile( new File( directory, entry.getName() ), entry.getCrc() );
+                    }
+                }
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+
+        /**
+         * Returns the size and modification time of the files an archive is
+         * about to be unpacked to, for {@link #addUnpacked}.
+         */
+        public Map getUnpackTargets( File archive, File directory )
+            throws IOException
+        {
+            Map targets = new HashMap();
+            ZipFile zip = new ZipFile( archive );
+            try
+            {
+                for ( Enumeration entries = zip.getEntries(); entries.hasMoreElements(); )
+                {
+                    ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                    File file = new File( directory, entry.getName() );
+                    BasicFileAttributes attributes = FileTransfer.readAttributes( file.toPath() );
+                    if ( !entry.isDirectory() && attributes != null && attributes.isRegularFile() )
+                    {
+                        targets.put( getPath( file ), new Recorded( attributes.size(),
+                                                                    attributes.lastModifiedTime().toMillis(),
+                                                                    NO_CRC ) );
+                    }
+                }
+            }
+            finally
+            {
+                zip.close();
+            }
+            return targets;
+        }
+
+        /**
+         * Records the files of an archive unpacked into a directory without
+         * overwriting existing files. Only the files the unpack wrote, and
+         * those the previous deploy recorded and which were unchanged since,
+         * are recorded. Files which were there already, such as a local
+         * <tt>sakai.properties</tt>, are left out, so they are never removed
+         * as leftovers.
+         *
+         * @param before the files as they were before the unpack, see
+         *               {@link #getUnpackTargets}
+         */
+        public void addUnpacked( File archive, File directory, Map before )
+            throws IOException
+        {
+            ZipFile zip = new ZipFile( archive );
+            try
+            {
+                for ( Enumeration entries = zip.getEntries(); entries.hasMoreElements(); )
+                {
+                    ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                    if ( entry.isDirectory() )
+                    {
+                        continue;
+                    }
+                    File file = new File( directory, entry.getName() );
+                    String path = getPath( file );
+                    Recorded existing = (Recorded) before.get( path );
+                    BasicFileAttributes attributes = FileTransfer.readAttributes( file.toPath() );
+                    if ( existing == null || attributes == null
+                        || !existing.matches( new Recorded( attributes.size(),
+                                                           attributes.lastModifiedTime().toMillis(), NO_CRC ) ) )
+                    {
+                        addFile( file, entry.getCrc() );
+                        continue;
+                    }
+                    Recorded deployed = previous != null ? (Recorded) previous.files.get( path ) : null;
+                    if ( deployed != null && deployed.matches( existing ) )
+                    {
+                        addFile( file, deployed.crc );
+                    }
+                }
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+
+        /**
+         * Marks the deploy as not fully recorded, so that the next deploy is
+         * not skipped because of it.
+         */
+        public synchronized void setIncomplete()
+        {
+            fingerprint = 0;
+        }
+
+        /**
+         * Deletes the files of the previous deploy which are not going to be
+         * deployed again, as far as they were not changed since and no other
+         * project deployed them.
+         *
+         * @param keep the files which are going to be deployed, in addition
+         *             to those recorded already
+         * @return the number of files deleted
+         */
+        public synchronized int removeLeftovers( Collection keep )
+            throws IOException
+        {
+            if ( previous == null )
+            {
+                return 0;
+            }
+            final Map leftovers = new TreeMap( previous.files );
+            leftovers.keySet().removeAll( files.keySet() );
+            for ( Iterator i = keep.iterator(); i.hasNext(); )
+            {
+                leftovers.remove( getPath( (File) i.next() ) );
+            }
+            for ( Iterator i = leftovers.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                if ( !isUnchanged( (String) e.getKey(), (Recorded) e.getValue() ) )
+                {
+                    i.remove();
+                }
+            }
+            if ( leftovers.isEmpty() )
+            {
+                return 0;
+            }
+            final int[] count = new int[1];
+            locked( new Change()
+            {
+                public void apply( Map blocks )
+                    throws IOException
+                {
+                    for ( Iterator i = blocks.entrySet().iterator(); i.hasNext() && !leftovers.isEmpty(); )
+                    {
+                        Map.Entry e = (Map.Entry) i.next();
+                        if ( !project.equals( e.getKey() ) )
+                        {
+                            leftovers.keySet().removeAll( Record.decode( (byte[]) e.getValue() ).getPaths() );
+                        }
+                    }
+                    for ( Iterator i = leftovers.keySet().iterator(); i.hasNext(); )
+                    {
+                        if ( Files.deleteIfExists( getFile( (String) i.next() ).toPath() ) )
+                        {
+                            count[0]++;
+                        }
+                    }
+                }
+            } );
+            previous.files.keySet().removeAll( leftovers.keySet() );
+            removed += count[0];
+            return count[0];
+        }
+
+        /**
+         * Removes what the previous deploy left behind and replaces its
+         * record with that of this deploy.
+         */
+        public synchronized void commit()
+            throws IOException
+        {
+            if ( previous == null && files.isEmpty() )
+            {
+                return;
+            }
+            removeLeftovers( Collections.EMPTY_SET );
+            Record record = new Record( fingerprint );
+            record.files.putAll( files );
+            for ( Iterator i = files.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                Recorded before = previous == null ? null : (Recorded) previous.files.get( e.getKey() );
+                if ( before == null )
+                {
+                    added++;
+                }
+                else if ( !before.matches( (Recorded) e.getValue() ) )
+                {
+                    changed++;
+                }
+            }
+            final byte[] block = record.encode();
+            locked( new Change()
+            {
+                public void apply( Map blocks )
+                    throws IOException
+                {
+                    blocks.put( project, block );
+                    write( blocks );
+                }
+            } );
+        }
+
+        /**
+         * Describes what changed since the previous deploy, once committed.
+         */
+        public String getSummary()
+        {
+            return added + " file(s) added, " + changed + " changed and " + removed + " removed";
+        }
+    }
+}
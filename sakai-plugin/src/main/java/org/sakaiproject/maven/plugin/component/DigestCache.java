@@ -0,0 +1,366 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content digests of files, cached on disk by path, size and modification
+ * time so that a file is only read again when its metadata changes.
+ * <p/>
+ * Digests are 64 bit xxHash values: they are meant to recognise files whose
+ * content did not change after a checkout or a restore of a build cache
+ * touched them, not to guard against deliberate collisions.
+ * <p/>
+ * Only the files looked at during a build are written back, so the cache does
+ * not grow with files which are no longer used. Digests may be requested
+ * concurrently from several copy threads.
+ */
+final class DigestCache
+{
+    private static final int MAGIC = 0x53414b44;
+
+    private static final int VERSION = 1;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private final File file;
+
+    private final Map previous;
+
+    private final ConcurrentHashMap current = new ConcurrentHashMap();
+
+    private volatile boolean modified;
+
+    private DigestCache( File file, Map previous )
+    {
+        this.file = file;
+        this.previous = previous;
+    }
+
+    /**
+     * Loads the cache. A missing or unreadable cache file yields an empty
+     * cache.
+     */
+    public static DigestCache load( File file )
+    {
+        Map previous = Collections.EMPTY_MAP;
+        if ( file.isFile() )
+        {
+            try
+            {
+                previous = read( file );
+            }
+            catch ( IOException e )
+            {
+                previous = Collections.EMPTY_MAP;
+            }
+        }
+        return new DigestCache( file, previous );
+    }
+
+    private static Map read( File file )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                return Collections.EMPTY_MAP;
+            }
+            int count = in.readInt();
+            Map entries = new HashMap( count * 2 );
+            for ( int i = 0; i < count; i++ )
+            {
+                String path = in.readUTF();
+                entries.put( path, new Entry( in.readLong(), in.readLong(), in.readLong() ) );
+            }
+            return entries;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the digest of a file, reading it only if it is not cached for
+     * the given size and modification time.
+     *
+     * @param file       the file
+     * @param attributes the current attributes of <code>file</code>
+     */
+    public long digest( File file, BasicFileAttributes attributes )
+        throws IOException
+    {
+        String path = file.getAbsolutePath();
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        Entry entry = lookup( path, size, lastModified );
+        if ( entry == null )
+        {
+            entry = new Entry( size, lastModified, hash( file ) );
+            modified = true;
+        }
+        current.put( path, entry );
+        return entry.digest;
+    }
+
+    /**
+     * Records that <code>copy</code> was made from <code>source</code>, so
+     * that its digest is known without reading it. Nothing is recorded if the
+     * digest of the source is not cached.
+     *
+     * @param source     the file that was copied
+     * @param attributes the attributes of <code>source</code> when it was copied
+     * @param copy       the copy, which has the size and modification time of
+     *                   the source
+     */
+    public void copied( File source, BasicFileAttributes attributes, File copy )
+    {
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        Entry entry = lookup( source.getAbsolutePath(), size, lastModified );
+        if ( entry != null )
+        {
+            current.put( copy.getAbsolutePath(), entry );
+            modified = true;
+        }
+    }
+
+    private Entry lookup( String path, long size, long lastModified )
+    {
+        Entry entry = (Entry) current.get( path );
+        if ( entry == null )
+        {
+            entry = (Entry) previous.get( path );
+        }
+        return entry != null && entry.size == size && entry.lastModified == lastModified ? entry : null;
+    }
+
+    /**
+     * Writes the digests used by this build, if any were added.
+     */
+    public void save()
+        throws IOException
+    {
+        if ( !modified && current.size() == previous.size() )
+        {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        File temp = new File( file.getPath() + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( current.size() );
+            for ( Iterator i = current.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                Entry entry = (Entry) e.getValue();
+                out.writeUTF( (String) e.getKey() );
+                out.writeLong( entry.size );
+                out.writeLong( entry.lastModified );
+                out.writeLong( entry.digest );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if ( !temp.renameTo( file ) )
+        {
+            file.delete();
+            if ( !temp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to replace digest cache " + file );
+            }
+        }
+    }
+
+    /**
+     * Computes the xxHash64 digest, with seed 0, of a file's content.
+     */
+    static long hash( File file )
+        throws IOException
+    {
+        FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 ).order( ByteOrder.LITTLE_ENDIAN );
+            Hash hash = new Hash();
+            while ( channel.read( buffer ) >= 0 )
+            {
+                buffer.flip();
+                hash.update( buffer );
+                buffer.compact();
+            }
+            buffer.flip();
+            return hash.finish( buffer );
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Computes the xxHash64 digest, with seed 0, of a byte array.
+     */
+    static long hash( byte[] data )
+    {
+        ByteBuffer buffer = ByteBuffer.wrap( data ).order( ByteOrder.LITTLE_ENDIAN );
+        Hash hash = new Hash();
+        hash.update( buffer );
+        return hash.finish( buffer );
+    }
+
+    /**
+     * The state of an xxHash64 computation over 32 byte stripes.
+     */
+    private static final class Hash
+    {
+        private long v1 = PRIME1 + PRIME2;
+
+        private long v2 = PRIME2;
+
+        private long v3 = 0;
+
+        private long v4 = -PRIME1;
+
+        private long length;
+
+        /**
+         * Consumes all complete stripes of a little endian buffer.
+         */
+        void update( ByteBuffer buffer )
+        {
+            while ( buffer.remaining() >= 32 )
+            {
+                v1 = round( v1, buffer.getLong() );
+                v2 = round( v2, buffer.getLong() );
+                v3 = round( v3, buffer.getLong() );
+                v4 = round( v4, buffer.getLong() );
+                length += 32;
+            }
+        }
+
+        /**
+         * Mixes in the final, less than 32, bytes of the input and returns
+         * the digest.
+         */
+        long finish( ByteBuffer tail )
+        {
+            long h;
+            if ( length > 0 )
+            {
+                h = Long.rotateLeft( v1, 1 ) + Long.rotateLeft( v2, 7 ) + Long.rotateLeft( v3, 12 )
+                    + Long.rotateLeft( v4, 18 );
+                h = mergeRound( h, v1 );
+                h = mergeRound( h, v2 );
+                h = mergeRound( h, v3 );
+                h = mergeRound( h, v4 );
+            }
+            else
+            {
+                h = PRIME5;
+            }
+            h += length + tail.remaining();
+            while ( tail.remaining() >= 8 )
+            {
+                h ^= round( 0, tail.getLong() );
+                h = Long.rotateLeft( h, 27 ) * PRIME1 + PRIME4;
+            }
+            if ( tail.remaining() >= 4 )
+            {
+                h ^= ( tail.getInt() & 0xFFFFFFFFL ) * PRIME1;
+                h = Long.rotateLeft( h, 23 ) * PRIME2 + PRIME3;
+            }
+            while ( tail.hasRemaining() )
+            {
+                h ^= ( tail.get() & 0xFF ) * PRIME5;
+                h = Long.rotateLeft( h, 11 ) * PRIME1;
+            }
+            h ^= h >>> 33;
+            h *= PRIME2;
+            h ^= h >>> 29;
+            h *= PRIME3;
+            h ^= h >>> 32;
+            return h;
+        }
+    }
+
+    private static long round( long acc, long input )
+    {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft( acc, 31 );
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound( long h, long v )
+    {
+        h ^= round( 0, v );
+        return h * PRIME1 + PRIME4;
+    }
+
+    private static final class Entry
+    {
+        final long size;
+
+        final long lastModified;
+
+        final long digest;
+
+        Entry( long size, long lastModified, long digest )
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
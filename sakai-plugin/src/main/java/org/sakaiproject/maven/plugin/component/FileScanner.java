@@ -0,0 +1,299 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.plexus.util.AbstractScanner;
+
+/**
+ * Scans a directory for the files matching a set of include and exclude
+ * patterns, with the same pattern semantics as the plexus
+ * <code>DirectoryScanner</code>.
+ * <p/>
+ * Unlike <code>DirectoryScanner</code> it does not descend into directories
+ * which are excluded as a whole (such as <code>**&#47;node_modules/**</code> or
+ * the default SCM excludes) or which no include pattern could match below,
+ * and it returns the attributes read during the walk with every file. The
+ * patterns are compiled into {@link PathPatterns}, and the match state of each
+ * directory is carried down the walk, so every entry costs one step per
+ * pattern set.
+ * <p/>
+ * Scans are cached per scanner and base directory, so a source tree that
+ * several assembly steps look at is only walked once. Call
+ * {@link #invalidate(File)} after writing into a scanned directory.
+ */
+final class FileScanner
+{
+    private final PathPatterns includes;
+
+    private final PathPatterns excludes;
+
+    private final Map cache = new HashMap();
+
+    /**
+     * @param includes        include patterns, or <code>null</code> for everything
+     * @param excludes        exclude patterns, or <code>null</code> for none
+     * @param defaultExcludes whether to add the default SCM and editor excludes
+     */
+    public FileScanner( String[] includes, String[] excludes, boolean defaultExcludes )
+    {
+        this.includes = PathPatterns.compile( includes == null || includes.length == 0 ? new String[] { "**" }
+                        : includes );
+
+        List excludeList = new ArrayList();
+        if ( excludes != null )
+        {
+            excludeList.addAll( Arrays.asList( excludes ) );
+        }
+        if ( defaultExcludes )
+        {
+            excludeList.addAll( Arrays.asList( AbstractScanner.DEFAULTEXCLUDES ) );
+        }
+        this.excludes = PathPatterns.compile( (String[]) excludeList.toArray( new String[excludeList.size()] ) );
+    }
+
+    /**
+     * Returns the files and directories below <code>basedir</code> matching
+     * this scanner's patterns. A missing directory yields an empty result.
+     */
+    public synchronized Result scan( File basedir )
+        throws IOException
+    {
+        Result result = (Result) cache.get( basedir );
+        if ( result == null )
+        {
+            result = walk( basedir );
+            cache.put( basedir, result );
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether a relative path, '/' or platform separated, matches this
+     * scanner's patterns. For the entries of an archive this gives the same
+     * answer as scanning the archive unpacked.
+     */
+    public boolean isIncluded( String path )
+    {
+        return includes.matches( path ) && !excludes.matches( path );
+    }
+
+    /**
+     * Forgets the cached scan of <code>basedir</code>.
+     */
+    public synchronized void invalidate( File basedir )
+    {
+        cache.remove( basedir );
+    }
+
+    private Result walk( final File basedir )
+        throws IOException
+    {
+        final Result result = new Result();
+        if ( !basedir.isDirectory() )
+        {
+            return result;
+        }
+        final Path root = basedir.toPath();
+        final LinkedList stack = new LinkedList();
+        Files.walkFileTree( root, EnumSet.of( FileVisitOption.FOLLOW_LINKS ), Integer.MAX_VALUE,
+                            new SimpleFileVisitor<Path>()
+                            {
+                                public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs )
+                                {
+                                    Level level;
+                                    if ( stack.isEmpty() )
+                                    {
+                                        level = new Level( "", includes.start(), excludes.start() );
+                                    }
+                                    else
+                                    {
+                                        level = ( (Level) stack.getFirst() ).child( dir.getFileName().toString() );
+                                    }
+                                    if ( level.isIncluded() )
+                                    {
+                                        result.directories.add( level.name );
+                                    }
+                                    if ( level.name.length() > 0 && ( excludes.matchesAllBelow( level.exclude )
+                                        || !includes.couldMatchBelow( level.include ) ) )
+                                    {
+                                        return FileVisitResult.SKIP_SUBTREE;
+                                    }
+                                    stack.addFirst( level );
+                                    result.descended++;
+                                    return FileVisitResult.CONTINUE;
+                                }
+
+                                public FileVisitResult postVisitDirectory( Path dir, IOException e )
+                                    throws IOException
+                                {
+                                    stack.removeFirst();
+                                    if ( e != null )
+                                    {
+                                        throw e;
+                                    }
+                                    return FileVisitResult.CONTINUE;
+                                }
+
+                                public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+                                {
+                                    if ( attrs.isDirectory() )
+                                    {
+                                        // a directory we could not descend into
+                                        return FileVisitResult.CONTINUE;
+                                    }
+                                    Level level = ( (Level) stack.getFirst() ).child( file.getFileName().toString() );
+                                    if ( level.isIncluded() )
+                                    {
+                                        result.files.add( new ScannedFile( level.name, new File( basedir, level.name ),
+                                                                           attrs ) );
+                                    }
+                                    return FileVisitResult.CONTINUE;
+                                }
+
+                                public FileVisitResult visitFileFailed( Path file, IOException e )
+                                    throws IOException
+                                {
+                                    if ( e instanceof FileSystemLoopException || e instanceof NoSuchFileException )
+                                    {
+                                        // link cycles and dangling links are skipped, as DirectoryScanner does
+                                        return FileVisitResult.CONTINUE;
+                                    }
+                                    throw e;
+                                }
+                            } );
+        return result;
+    }
+
+    /**
+     * The match state of one entry of the walk.
+     */
+    private final class Level
+    {
+        final String name;
+
+        final PathPatterns.State include;
+
+        final PathPatterns.State exclude;
+
+        Level( String name, PathPatterns.State include, PathPatterns.State exclude )
+        {
+            this.name = name;
+            this.include = include;
+            this.exclude = exclude;
+        }
+
+        Level child( String segment )
+        {
+            return new Level( name.length() == 0 ? segment : name + File.separator + segment,
+                              includes.step( include, segment ), excludes.step( exclude, segment ) );
+        }
+
+        boolean isIncluded()
+        {
+            return includes.matches( include, name ) && !excludes.matches( exclude, name );
+        }
+    }
+
+    /**
+     * A file found by a scan.
+     */
+    static final class ScannedFile
+    {
+        /**
+         * The path relative to the scanned directory, using the platform separator.
+         */
+        final String name;
+
+        final File file;
+
+        final BasicFileAttributes attributes;
+
+        ScannedFile( String name, File file, BasicFileAttributes attributes )
+        {
+            this.name = name;
+            this.file = file;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * The outcome of a scan.
+     */
+    static final class Result
+    {
+        final List files = new ArrayList();
+
+        final List directories = new ArrayList();
+
+        /**
+         * The number of directories the walk descended into, the base
+         * directory included.
+         */
+        int descended;
+
+        private Set names;
+
+        /**
+         * Returns the names of the included files, in scan order.
+         */
+        public String[] getFileNames()
+        {
+            String[] result = new String[files.size()];
+            for ( int i = 0; i < result.length; i++ )
+            {
+                result[i] = ( (ScannedFile) files.get( i ) ).name;
+            }
+            return result;
+        }
+
+        /**
+         * Returns whether a file of the given relative name was found.
+         */
+        public synchronized boolean containsFile( String name )
+        {
+            if ( names == null )
+            {
+                names = files.isEmpty() ? Collections.EMPTY_SET : new HashSet( Arrays.asList( getFileNames() ) );
+            }
+            return names.contains( name );
+        }
+    }
+}
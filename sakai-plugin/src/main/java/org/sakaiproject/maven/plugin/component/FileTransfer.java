@@ -0,0 +1,235 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Copies single files for the assembly and deploy goals.
+ * <p/>
+ * Copies are made with <code>Files.copy</code>, which copies in native code
+ * rather than through buffers on the Java heap; how the data is moved is up
+ * to the JDK and platform. Blocks are never shared with the source, the
+ * <tt>reflink</tt> placement of {@link LibPlacement} does that. The
+ * modification time of the source is carried over, as
+ * <code>FileUtils.copyFileIfModified</code> did; permissions are not, so
+ * read-only files in the local repository do not produce read-only files in
+ * the webapp.
+ * <p/>
+ * An existing destination is replaced rather than written to, so a link at
+ * the destination never causes the file it points to to be modified. A
+ * destination which is a symbolic link, or a hard link to the source, is
+ * always out of date: it is what the link placements of {@link LibPlacement}
+ * leave behind, and a copy is expected to be a file of its own.
+ */
+final class FileTransfer
+{
+    private FileTransfer()
+    {
+    }
+
+    /**
+     * Copies <code>source</code> to <code>destination</code> if the destination
+     * is missing or out of date, which is when it is older than the source, or
+     * as old but of a different size.
+     *
+     * @return whether the file was copied
+     * @throws IOException if the source is missing or the copy fails
+     */
+    public static boolean copyIfModified( File source, File destination )
+        throws IOException
+    {
+        return copyIfModified( source, destination, null );
+    }
+
+    /**
+     * Copies <code>source</code> to <code>destination</code> if the destination
+     * is out of date, as {@link #copyIfModified(File, File)}. When a digest
+     * cache is given, an out of date destination which has the same content
+     * as the source is left alone.
+     *
+     * @param digests the digest cache, or <code>null</code> to compare by
+     *                modification time only
+     * @return whether the file was copied
+     * @throws IOException if the source is missing or the copy fails
+     */
+    public static boolean copyIfModified( File source, File destination, DigestCache digests )
+        throws IOException
+    {
+        BasicFileAttributes from = readAttributes( source.toPath() );
+        if ( from == null )
+        {
+            throw new FileNotFoundException( "File " + source + " does not exist" );
+        }
+        BasicFileAttributes to = readAttributes( destination.toPath(), LinkOption.NOFOLLOW_LINKS );
+        if ( isLink( source.toPath(), from, destination.toPath(), to ) )
+        {
+            Files.delete( destination.toPath() );
+            to = null;
+        }
+        if ( !isModified( from, to ) )
+        {
+            return false;
+        }
+        if ( digests != null && to != null && to.size() == from.size() && to.isRegularFile()
+            && digests.digest( source, from ) == digests.digest( destination, to ) )
+        {
+            return false;
+        }
+        copy( source.toPath(), destination.toPath(), from );
+        if ( digests != null )
+        {
+            digests.copied( source, from, destination );
+        }
+        return true;
+    }
+
+    /**
+     * Copies <code>source</code> to <code>destination</code> unconditionally.
+     *
+     * @throws IOException if the source is missing or the copy fails
+     */
+    public static void copy( File source, File destination )
+        throws IOException
+    {
+        BasicFileAttributes from = readAttributes( source.toPath() );
+        if ( from == null )
+        {
+            throw new FileNotFoundException( "File " + source + " does not exist" );
+        }
+        copy( source.toPath(), destination.toPath(), from );
+    }
+
+    /**
+     * Returns whether a destination with attributes <code>to</code>, or
+     * <code>null</code> if it does not exist, is out of date with respect to a
+     * source with attributes <code>from</code>.
+     */
+    static boolean isModified( BasicFileAttributes from, BasicFileAttributes to )
+    {
+        return isModified( from.lastModifiedTime(), from.size(), to );
+    }
+
+    /**
+     * Returns whether a destination with attributes <code>to</code>, or
+     * <code>null</code> if it does not exist, is out of date with respect to a
+     * source of the given modification time and size.
+     *
+     * @param size the size of the source, or -1 if it is not known
+     */
+    static boolean isModified( FileTime lastModified, long size, BasicFileAttributes to )
+    {
+        if ( to == null )
+        {
+            return true;
+        }
+        int age = to.lastModifiedTime().compareTo( lastModified );
+        return age < 0 || ( age == 0 && size >= 0 && to.size() != size );
+    }
+
+    /**
+     * Writes a stream to <code>destination</code>, replacing it, and gives it
+     * the given modification time.
+     */
+    public static void write( InputStream in, File destination, FileTime lastModified )
+        throws IOException
+    {
+        Path target = destination.toPath();
+        Path parent = target.getParent();
+        if ( parent != null )
+        {
+            Files.createDirectories( parent );
+        }
+        Files.copy( in, target, StandardCopyOption.REPLACE_EXISTING );
+        Files.setLastModifiedTime( target, lastModified );
+    }
+
+    /**
+     * Returns whether a destination with attributes <code>to</code>, read
+     * without following links, is a symbolic link or a hard link to the source
+     * rather than a file of its own.
+     *
+     * @param to the attributes of the destination, or <code>null</code> if it
+     *           does not exist
+     */
+    static boolean isLink( Path source, BasicFileAttributes from, Path destination, BasicFileAttributes to )
+        throws IOException
+    {
+        if ( to == null )
+        {
+            return false;
+        }
+        if ( to.isSymbolicLink() )
+        {
+            return true;
+        }
+        if ( from.fileKey() != null && to.fileKey() != null )
+        {
+            return from.fileKey().equals( to.fileKey() );
+        }
+        return Files.isSameFile( source, destination );
+    }
+
+    /**
+     * Reads the attributes of a file in a single call.
+     *
+     * @param options how symbolic links are handled; they are followed by
+     *                default
+     * @return the attributes, or <code>null</code> if the file does not exist
+     */
+    static BasicFileAttributes readAttributes( Path path, LinkOption... options )
+        throws IOException
+    {
+        try
+        {
+            return Files.readAttributes( path, BasicFileAttributes.class, options );
+        }
+        catch ( NoSuchFileException e )
+        {
+            return null;
+        }
+    }
+
+    private static void copy( Path source, Path destination, BasicFileAttributes from )
+        throws IOException
+    {
+        if ( from.isDirectory() )
+        {
+            throw new IOException( "Unable to copy directory " + source + " as a file" );
+        }
+        Path parent = destination.getParent();
+        if ( parent != null )
+        {
+            Files.createDirectories( parent );
+        }
+        Files.copy( source, destination, StandardCopyOption.REPLACE_EXISTING );
+        Files.setLastModifiedTime( destination, from.lastModifiedTime() );
+    }
+}
@@ -0,0 +1,358 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers how each filtered resource of a webapp was rendered, so that a
+ * rebuild can tell that a filtered file would come out the same without
+ * rendering it again.
+ * <p/>
+ * An output is keyed by its source file (path, size and modification time)
+ * and by the filter properties the source actually referenced, together with
+ * the values they had. If none of these changed and the output was not
+ * touched since, the output is up to date. Properties the source does not
+ * refer to can change freely without causing a rewrite.
+ * <p/>
+ * Like the {@link AssemblyManifest}, the cache is bound to a single webapp
+ * directory and outputs may be recorded concurrently.
+ */
+final class FilterCache
+{
+    private static final int MAGIC = 0x53414b46;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The longest property name which is stored; longer lookups are made
+     * when @ signs are far apart.
+     */
+    private static final int MAX_KEY_LENGTH = 8192;
+
+    private final File file;
+
+    private final File webappDirectory;
+
+    private final Map previous;
+
+    private final ConcurrentHashMap current = new ConcurrentHashMap();
+
+    private FilterCache( File file, File webappDirectory, Map previous )
+    {
+        this.file = file;
+        this.webappDirectory = webappDirectory;
+        this.previous = previous;
+    }
+
+    /**
+     * Loads the cache for the given webapp directory. A missing, unreadable
+     * or foreign cache yields an empty one.
+     */
+    public static FilterCache load( File file, File webappDirectory )
+    {
+        Map previous = Collections.EMPTY_MAP;
+        if ( file.isFile() && webappDirectory.isDirectory() )
+        {
+            try
+            {
+                previous = read( file, webappDirectory );
+            }
+            catch ( IOException e )
+            {
+                previous = Collections.EMPTY_MAP;
+            }
+        }
+        return new FilterCache( file, webappDirectory, previous );
+    }
+
+    private static Map read( File file, File webappDirectory )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION
+                || !in.readUTF().equals( webappDirectory.getAbsolutePath() ) )
+            {
+                return Collections.EMPTY_MAP;
+            }
+            int count = in.readInt();
+            Map entries = new HashMap( count * 2 );
+            for ( int i = 0; i < count; i++ )
+            {
+                String path = in.readUTF();
+                Entry entry = new Entry( in.readUTF(), in.readLong(), in.readLong(), new String[in.readInt()] );
+                for ( int j = 0; j < entry.keys.length; j++ )
+                {
+                    entry.keys[j] = in.readUTF();
+                }
+                entry.values = in.readLong();
+                entry.outputSize = in.readLong();
+                entry.outputModified = in.readLong();
+                entries.put( path, entry );
+            }
+            return entries;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns whether <code>output</code>, at <code>path</code> in the
+     * webapp, was rendered by the previous build from the same source with
+     * the same values of the properties it refers to, and has not been
+     * touched since.
+     *
+     * @param source     the source of the output
+     * @param attributes the attributes of the source
+     * @param properties the filter properties
+     */
+    public boolean isUpToDate( String path, File source, BasicFileAttributes attributes, File output,
+                               Map properties )
+        throws IOException
+    {
+        Entry entry = (Entry) previous.get( path );
+        if ( entry == null || !entry.source.equals( source.getPath() ) || entry.size != attributes.size()
+            || entry.lastModified != attributes.lastModifiedTime().toMillis() )
+        {
+            return false;
+        }
+        BasicFileAttributes rendered = FileTransfer.readAttributes( output.toPath() );
+        if ( rendered == null || rendered.size() != entry.outputSize
+            || rendered.lastModifiedTime().toMillis() != entry.outputModified )
+        {
+            return false;
+        }
+        Map values = new LinkedHashMap();
+        for ( int i = 0; i < entry.keys.length; i++ )
+        {
+            values.put( entry.keys[i], properties.get( entry.keys[i] ) );
+        }
+        if ( digest( values ) != entry.values )
+        {
+            return false;
+        }
+        current.put( path, entry );
+        return true;
+    }
+
+    /**
+     * Records how <code>output</code> was rendered.
+     *
+     * @param source     the source of the output
+     * @param attributes the attributes of the source
+     * @param lookups    the properties looked up while rendering
+     * @param output     the rendered output
+     */
+    public void record( String path, File source, BasicFileAttributes attributes, Lookups lookups, File output )
+        throws IOException
+    {
+        BasicFileAttributes rendered = FileTransfer.readAttributes( output.toPath() );
+        if ( rendered == null )
+        {
+            current.remove( path );
+            return;
+        }
+        Map values = lookups.getValues();
+        for ( Iterator i = values.keySet().iterator(); i.hasNext(); )
+        {
+            if ( ( (String) i.next() ).length() > MAX_KEY_LENGTH )
+            {
+                // not a property, but too long to store
+                current.remove( path );
+                return;
+            }
+        }
+        Entry entry = new Entry( source.getPath(), attributes.size(), attributes.lastModifiedTime().toMillis(),
+                                 (String[]) values.keySet().toArray( new String[values.size()] ) );
+        entry.values = digest( values );
+        entry.outputSize = rendered.size();
+        entry.outputModified = rendered.lastModifiedTime().toMillis();
+        current.put( path, entry );
+    }
+
+    /**
+     * Writes the outputs of this build, replacing the previous cache.
+     */
+    public void save()
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        File temp = new File( file.getPath() + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+        try
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeUTF( webappDirectory.getAbsolutePath() );
+            out.writeInt( current.size() );
+            for ( Iterator i = current.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                Entry entry = (Entry) e.getValue();
+                out.writeUTF( (String) e.getKey() );
+                out.writeUTF( entry.source );
+                out.writeLong( entry.size );
+                out.writeLong( entry.lastModified );
+                out.writeInt( entry.keys.length );
+                for ( int j = 0; j < entry.keys.length; j++ )
+                {
+                    out.writeUTF( entry.keys[j] );
+                }
+                out.writeLong( entry.values );
+                out.writeLong( entry.outputSize );
+                out.writeLong( entry.outputModified );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if ( !temp.renameTo( file ) )
+        {
+            file.delete();
+            if ( !temp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to replace filter cache " + file );
+            }
+        }
+    }
+
+    /**
+     * Returns a digest of property names and values, in order, telling a
+     * missing property from an empty one.
+     */
+    private static long digest( Map values )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        try
+        {
+            for ( Iterator i = values.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                out.writeUTF( (String) e.getKey() );
+                if ( e.getValue() == null )
+                {
+                    out.writeInt( -1 );
+                }
+                else
+                {
+                    byte[] value = e.getValue().toString().getBytes( "UTF-8" );
+                    out.writeInt( value.length );
+                    out.write( value );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+        return DigestCache.hash( bytes.toByteArray() );
+    }
+
+    /**
+     * A view of the filter properties which remembers every property looked
+     * up through it, with its value, including properties which are not set.
+     * A view is used for rendering a single file.
+     */
+    static final class Lookups
+        extends AbstractMap
+    {
+        private final Map properties;
+
+        private final Map values = new LinkedHashMap();
+
+        Lookups( Map properties )
+        {
+            this.properties = properties;
+        }
+
+        public Object get( Object key )
+        {
+            Object value = properties.get( key );
+            if ( key instanceof String && !values.containsKey( key ) )
+            {
+                values.put( key, value );
+            }
+            return value;
+        }
+
+        public boolean containsKey( Object key )
+        {
+            return get( key ) != null;
+        }
+
+        Map getValues()
+        {
+            return values;
+        }
+
+        public Set entrySet()
+        {
+            throw new UnsupportedOperationException( "Cannot enumerate filter properties" );
+        }
+    }
+
+    private static final class Entry
+    {
+        final String source;
+
+        final long size;
+
+        final long lastModified;
+
+        final String[] keys;
+
+        long values;
+
+        long outputSize;
+
+        long outputModified;
+
+        Entry( String source, long size, long lastModified, String[] keys )
+        {
+            this.source = source;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.keys = keys;
+        }
+    }
+}
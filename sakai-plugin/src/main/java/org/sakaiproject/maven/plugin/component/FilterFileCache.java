@@ -0,0 +1,109 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The resolved contents of filter files, shared by every module built by
+ * this copy of the plugin.
+ * <p/>
+ * The modules of a reactor usually share a few filter files. Each file is
+ * parsed and resolved by {@link PropertyUtils#loadPropertyFile} once, and
+ * the result is reused for as long as the file keeps its size and
+ * modification time and the system properties, which take part in the
+ * resolution, do not change.
+ */
+final class FilterFileCache
+{
+    /**
+     * Resolved files by canonical path.
+     */
+    private static final ConcurrentHashMap FILES = new ConcurrentHashMap();
+
+    private FilterFileCache()
+    {
+    }
+
+    /**
+     * Returns the properties of a filter file, with the system properties as
+     * defaults, all resolved.
+     *
+     * @return an unmodifiable map of the properties
+     * @throws IOException if the file is missing or cannot be read
+     */
+    public static Map load( File file )
+        throws IOException
+    {
+        BasicFileAttributes attributes = FileTransfer.readAttributes( file.toPath() );
+        if ( attributes == null )
+        {
+            throw new FileNotFoundException( file.toString() );
+        }
+        String key = file.getCanonicalPath();
+        int system = System.getProperties().hashCode();
+
+        Entry entry = (Entry) FILES.get( key );
+        if ( entry == null || entry.size != attributes.size()
+            || entry.lastModified != attributes.lastModifiedTime().toMillis() || entry.system != system )
+        {
+            // loading twice on a race is harmless
+            entry = new Entry( attributes, system,
+                               Collections.unmodifiableMap( new HashMap( PropertyUtils.loadPropertyFile( file, true,
+                                                                                                         true ) ) ) );
+            FILES.put( key, entry );
+        }
+        return entry.properties;
+    }
+
+    /**
+     * Forgets all files.
+     */
+    static void clear()
+    {
+        FILES.clear();
+    }
+
+    private static final class Entry
+    {
+        final long size;
+
+        final long lastModified;
+
+        final int system;
+
+        final Map properties;
+
+        Entry( BasicFileAttributes attributes, int system, Map properties )
+        {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.system = system;
+            this.properties = properties;
+        }
+    }
+}
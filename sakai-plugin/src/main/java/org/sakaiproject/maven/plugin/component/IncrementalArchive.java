@@ -0,0 +1,253 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+/**
+ * The state an {@link ArchiveWriter} keeps next to an archive so that it can
+ * be written incrementally.
+ * <p/>
+ * A fingerprint of the entries (names, sizes and modification times of the
+ * files, and the contents of generated entries) is kept in a fingerprint
+ * file, together with the length and modification time of the archive, so an
+ * unchanged archive is not written at all. When the archive has to be
+ * written, the previous archive is opened, and entries whose content is the
+ * same as there are copied from it as raw compressed data, with their CRC,
+ * instead of being compressed again. Entries compressed with other settings
+ * are always compressed again.
+ */
+final class IncrementalArchive
+{
+    private static final int VERSION = 2;
+
+    private final File archiveFile;
+
+    private final File fingerprintFile;
+
+    private final long fingerprint;
+
+    private final long settings;
+
+    private ZipFile previous;
+
+    /**
+     * @param archiveFile     the archive
+     * @param fingerprintFile the file keeping the fingerprint of the archive
+     * @param fingerprint     the fingerprint of the archive about to be
+     *                        written, see {@link #getFingerprint}
+     * @param settings        a digest of the settings deciding how entries
+     *                        are compressed
+     */
+    public IncrementalArchive( File archiveFile, File fingerprintFile, long fingerprint, long settings )
+    {
+        this.archiveFile = archiveFile;
+        this.fingerprintFile = fingerprintFile;
+        this.fingerprint = fingerprint;
+        this.settings = settings;
+    }
+
+    /**
+     * Returns a fingerprint of everything which goes into an archive.
+     *
+     * @param timestamp the timestamp of the entries
+     * @param settings  a digest of the compression settings
+     * @param manifest  the manifest, or <code>null</code>
+     * @param entries   the entries by name: an {@link ArchiveWriter.Source}
+     *                  for files, a <code>byte[]</code> for generated files
+     *                  and <code>null</code> for directories
+     */
+    static long getFingerprint( long timestamp, long settings, byte[] manifest, Map entries )
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        try
+        {
+            out.writeInt( VERSION );
+            out.writeLong( timestamp );
+            out.writeLong( settings );
+            out.writeLong( manifest == null ? 0 : DigestCache.hash( manifest ) );
+            for ( Iterator i = entries.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) i.next();
+                out.writeUTF( (String) entry.getKey() );
+                Object value = entry.getValue();
+                if ( value instanceof ArchiveWriter.Source )
+                {
+                    ArchiveWriter.Source source = (ArchiveWriter.Source) value;
+                    out.writeLong( source.attributes.size() );
+                    out.writeLong( source.attributes.lastModifiedTime().toMillis() );
+                }
+                else if ( value != null )
+                {
+                    out.writeLong( DigestCache.hash( (byte[]) value ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+        return DigestCache.hash( bytes.toByteArray() );
+    }
+
+    /**
+     * Returns whether the archive was last written with the same fingerprint
+     * and has not been touched since.
+     */
+    public boolean isUpToDate()
+    {
+        long[] last = readFingerprint();
+        return last != null && last[0] == fingerprint && last[1] == archiveFile.length()
+            && last[2] == archiveFile.lastModified();
+    }
+
+    /**
+     * Prepares for writing the archive: forgets the fingerprint, so that an
+     * interrupted write is not taken for an up to date archive, and opens the
+     * previous archive if it was written with the same settings.
+     */
+    public void open()
+    {
+        long[] last = readFingerprint();
+        fingerprintFile.delete();
+        if ( last != null && last[3] == settings )
+        {
+            try
+            {
+                previous = new ZipFile( archiveFile );
+            }
+            catch ( IOException e )
+            {
+                // a damaged archive is simply written from scratch
+                previous = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the entry of the previous archive which can be copied for a
+     * file of the given name, size and CRC, or <code>null</code>. With the
+     * same settings, a stored entry which was meant to be deflated did not
+     * shrink.
+     *
+     * @param method the method the file is to be compressed with
+     */
+    public ZipArchiveEntry find( String name, int method, long size, long crc )
+    {
+        ZipArchiveEntry old = previous != null ? previous.getEntry( name ) : null;
+        if ( old != null && ( old.getMethod() == method || old.getMethod() == ZipEntry.STORED )
+            && old.getSize() == size && old.getCrc() == crc )
+        {
+            return old;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the compressed data of an entry found by {@link #find}.
+     */
+    public InputStream getRawInputStream( ZipArchiveEntry old )
+        throws IOException
+    {
+        return previous.getRawInputStream( old );
+    }
+
+    /**
+     * Closes the previous archive.
+     */
+    public void close()
+        throws IOException
+    {
+        if ( previous != null )
+        {
+            previous.close();
+            previous = null;
+        }
+    }
+
+    /**
+     * Records the fingerprint of the archive once it is written.
+     */
+    public void commit()
+        throws IOException
+    {
+        DataOutputStream out = new DataOutputStream( new FileOutputStream( fingerprintFile ) );
+        try
+        {
+            out.writeLong( fingerprint );
+            out.writeLong( archiveFile.length() );
+            out.writeLong( archiveFile.lastModified() );
+            out.writeLong( settings );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the fingerprint, length, modification time and compression
+     * settings of the archive when it was last written.
+     *
+     * @return the values, or <code>null</code> if they cannot be read
+     */
+    private long[] readFingerprint()
+    {
+        if ( !fingerprintFile.isFile() || !archiveFile.isFile() )
+        {
+            return null;
+        }
+        try
+        {
+            DataInputStream in = new DataInputStream( new FileInputStream( fingerprintFile ) );
+            try
+            {
+                long[] values = new long[4];
+                for ( int i = 0; i < values.length; i++ )
+                {
+                    values[i] = in.readLong();
+                }
+                return values;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replaces <code>${token}</code> and <code>@token@</code> in text with the
+ * values of filter properties.
+ * <p/>
+ * This gives the same result as the chain of two plexus
+ * <code>InterpolationFilterReader</code>s the filtered resources used to go
+ * through, first for <code>${}</code> and then for <code>@@</code>, but
+ * handles both in a single pass over the text: runs of text without a
+ * delimiter are copied in bulk, and each token is looked up once per text.
+ * The rules of the chain are kept, in particular:
+ * <ul>
+ * <li>values are not interpolated again, except that <code>@token@</code> is
+ * still recognised in the values of <code>${}</code> tokens, and across
+ * them;</li>
+ * <li>an unknown token is left as it is, and for <code>@@</code> its closing
+ * delimiter opens the next token;</li>
+ * <li>a <code>$</code> not followed by <code>{</code> is copied together with
+ * the character after it.</li>
+ * </ul>
+ */
+final class Interpolator
+{
+    /**
+     * Marks a token which is not set in the lookup table.
+     */
+    private static final String UNSET = new String( "unset" );
+
+    /**
+     * The characters the byte checks rely on.
+     */
+    private static final String ASCII = "\u0000${}@ azAZ09";
+
+    private final Map properties;
+
+    /**
+     * The tokens of the current text, and what they resolve to.
+     */
+    private final Map table = new HashMap();
+
+    private final StringBuilder out;
+
+    /**
+     * The name of the <code>@@</code> token being read, or <code>null</code>.
+     */
+    private StringBuilder atToken;
+
+    private Interpolator( Map properties, StringBuilder out )
+    {
+        this.properties = properties;
+        this.out = out;
+    }
+
+    /**
+     * Interpolates a text.
+     *
+     * @param text       the text
+     * @param length     the number of characters of the text
+     * @param properties the filter properties
+     * @param out        receives the interpolated text
+     */
+    public static void interpolate( char[] text, int length, Map properties, StringBuilder out )
+    {
+        new Interpolator( properties, out ).interpolate( text, length );
+    }
+
+    /**
+     * Interpolates a string.
+     */
+    public static String interpolate( String text, Map properties )
+    {
+        StringBuilder out = new StringBuilder( text.length() + 16 );
+        interpolate( text.toCharArray(), text.length(), properties, out );
+        return out.toString();
+    }
+
+    /**
+     * Returns whether the encoded text may contain a token, which is when it
+     * contains <code>${</code> or at least two <code>@</code>. The encoding
+     * must be one which encodes these characters as in ASCII.
+     */
+    public static boolean mayContainTokens( byte[] text )
+    {
+        boolean at = false;
+        for ( int i = 0; i < text.length; i++ )
+        {
+            byte b = text[i];
+            if ( b == '@' )
+            {
+                if ( at )
+                {
+                    return true;
+                }
+                at = true;
+            }
+            else if ( b == '$' && i + 1 < text.length && text[i + 1] == '{' )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether encoded content looks binary rather than text, which is
+     * when there is a NUL byte among its first 8000 bytes, as git decides.
+     * The encoding must be one which does not use NUL bytes for text.
+     */
+    public static boolean isBinary( byte[] content )
+    {
+        int length = Math.min( content.length, 8000 );
+        for ( int i = 0; i < length; i++ )
+        {
+            if ( content[i] == 0 )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the byte checks of this class work for text in the given
+     * encoding, which is when the encoding is a superset of ASCII.
+     */
+    public static boolean isAsciiCompatible( Charset charset )
+    {
+        return charset.newEncoder().canEncode( ASCII )
+            && Arrays.equals( ASCII.getBytes( charset ), ASCII.getBytes( StandardCharsets.US_ASCII ) );
+    }
+
+    private void interpolate( char[] text, int length )
+    {
+        int i = 0;
+        while ( i < length )
+        {
+            int dollar = indexOf( text, '$', i, length );
+            emit( text, i, dollar );
+            if ( dollar + 1 >= length )
+            {
+                emit( text, dollar, length );
+                break;
+            }
+            if ( text[dollar + 1] != '{' )
+            {
+                emit( text, dollar, dollar + 2 );
+                i = dollar + 2;
+                continue;
+            }
+            int close = indexOf( text, '}', dollar + 2, length );
+            if ( close == length )
+            {
+                emit( text, dollar, length );
+                break;
+            }
+            String value = lookup( new String( text, dollar + 2, close - dollar - 2 ) );
+            if ( value != null )
+            {
+                emit( value );
+            }
+            else
+            {
+                emit( text, dollar, close + 1 );
+            }
+            i = close + 1;
+        }
+        if ( atToken != null )
+        {
+            out.append( '@' ).append( atToken );
+        }
+    }
+
+    /**
+     * Passes the result of the <code>${}</code> interpolation on to the
+     * <code>@@</code> interpolation.
+     */
+    private void emit( char[] text, int start, int end )
+    {
+        while ( start < end )
+        {
+            int at = indexOf( text, '@', start, end );
+            if ( atToken == null )
+            {
+                out.append( text, start, at - start );
+                if ( at < end )
+                {
+                    atToken = new StringBuilder();
+                }
+            }
+            else
+            {
+                atToken.append( text, start, at - start );
+                if ( at < end )
+                {
+                    closeAtToken();
+                }
+            }
+            start = at + 1;
+        }
+    }
+
+    private void emit( String value )
+    {
+        if ( atToken == null && value.indexOf( '@' ) < 0 )
+        {
+            out.append( value );
+        }
+        else
+        {
+            emit( value.toCharArray(), 0, value.length() );
+        }
+    }
+
+    private void closeAtToken()
+    {
+        String value = lookup( atToken.toString() );
+        if ( value != null )
+        {
+            out.append( value );
+            atToken = null;
+        }
+        else
+        {
+            // the closing delimiter opens the next token
+            out.append( '@' ).append( atToken );
+            atToken.setLength( 0 );
+        }
+    }
+
+    private String lookup( String token )
+    {
+        String value = (String) table.get( token );
+        if ( value == null )
+        {
+            Object property = properties.get( token );
+            value = property != null ? property.toString() : UNSET;
+            table.put( token, value );
+        }
+        return value == UNSET ? null : value;
+    }
+
+    private static int indexOf( char[] text, char c, int start, int end )
+    {
+        for ( int i = start; i < end; i++ )
+        {
+            if ( text[i] == c )
+            {
+                return i;
+            }
+        }
+        return end;
+    }
+}
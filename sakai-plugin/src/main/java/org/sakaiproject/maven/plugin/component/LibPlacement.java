@@ -0,0 +1,407 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Places dependency jars into <tt>WEB-INF/lib</tt> using one of several
+ * strategies:
+ * <ul>
+ * <li><tt>copy</tt> - copy the bytes, as it has always been done.</li>
+ * <li><tt>hardlink</tt> - link the file from the local repository. Needs the
+ * webapp and the repository on the same device.</li>
+ * <li><tt>reflink</tt> - clone the file with <tt>cp --reflink=always</tt>, so
+ * that file systems which support it (btrfs, XFS) share the blocks with the
+ * repository copy until either is written. Needs GNU cp and both files on the
+ * same file system. Clones are queued by {@link #place(File, File, CopyEngine.Task)}
+ * and made by {@link #flush()}, with one <tt>cp</tt> per destination
+ * directory rather than one per jar.</li>
+ * <li><tt>symlink</tt> - link to the file in the local repository.</li>
+ * </ul>
+ * If a link or clone cannot be created, for instance across devices or on a
+ * file system without link or clone support, the jar is copied instead and
+ * all later jars of the build are copied too.
+ * <p/>
+ * An existing link in the webapp is always replaced rather than written to,
+ * so that the repository copy is never modified through it. A jar placed by
+ * another mode, such as a link left by <tt>symlink</tt> when the build now
+ * copies, is placed again.
+ */
+final class LibPlacement
+{
+    public static final String COPY = "copy";
+
+    public static final String HARDLINK = "hardlink";
+
+    public static final String REFLINK = "reflink";
+
+    public static final String SYMLINK = "symlink";
+
+    /**
+     * Most jars cloned by a single <tt>cp</tt>, to stay well below the
+     * argument length limit.
+     */
+    private static final int CLONE_BATCH = 256;
+
+    private final String mode;
+
+    private final DigestCache digests;
+
+    private final Log log;
+
+    private volatile boolean fallback;
+
+    /**
+     * Queued clones, in the order they were placed.
+     */
+    private final List clones = new ArrayList();
+
+    private LibPlacement( String mode, DigestCache digests, Log log )
+    {
+        this.mode = mode;
+        this.digests = digests;
+        this.log = log;
+    }
+
+    /**
+     * Returns the placement for a configured mode.
+     *
+     * @param digests the digest cache for copies, or <code>null</code>
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    public static LibPlacement forMode( String mode, DigestCache digests, Log log )
+    {
+        String m = mode == null ? COPY : mode.trim().toLowerCase();
+        if ( !COPY.equals( m ) && !HARDLINK.equals( m ) && !REFLINK.equals( m ) && !SYMLINK.equals( m ) )
+        {
+            throw new IllegalArgumentException( "Unknown libPlacement '" + mode + "', expected one of " + COPY
+                + ", " + HARDLINK + ", " + REFLINK + " or " + SYMLINK );
+        }
+        return new LibPlacement( m, digests, log );
+    }
+
+    /**
+     * Places <code>source</code> at <code>destination</code> unless it is
+     * already there. A clone is only queued, call {@link #flush()} to make
+     * it.
+     *
+     * @return whether <code>destination</code> was written or queued
+     * @throws IOException if the file could not be placed
+     */
+    public boolean place( File source, File destination )
+        throws IOException
+    {
+        return place( source, destination, null );
+    }
+
+    /**
+     * Places <code>source</code> at <code>destination</code> unless it is
+     * already there, and runs <code>placed</code> once it is. For a clone
+     * that is when {@link #flush()} has made it.
+     *
+     * @param placed run once <code>destination</code> holds the jar, or
+     *               <code>null</code>
+     * @return whether <code>destination</code> was written or queued
+     * @throws IOException if the file could not be placed
+     */
+    public boolean place( File source, File destination, CopyEngine.Task placed )
+        throws IOException
+    {
+        if ( !fallback )
+        {
+            try
+            {
+                if ( HARDLINK.equals( mode ) )
+                {
+                    return placed( hardlink( source, destination ), placed );
+                }
+                if ( SYMLINK.equals( mode ) )
+                {
+                    return placed( symlink( source, destination ), placed );
+                }
+                if ( REFLINK.equals( mode ) )
+                {
+                    return queueClone( source, destination, placed );
+                }
+            }
+            catch ( IOException | UnsupportedOperationException e )
+            {
+                fallBack( source, destination, e );
+            }
+        }
+        return placed( FileTransfer.copyIfModified( source, destination, digests ), placed );
+    }
+
+    /**
+     * Returns whether <code>destination</code> holds <code>source</code> the
+     * way this placement puts it there: as a link to it for the link modes,
+     * and as a file of its own otherwise. A jar left by another mode is not
+     * placed, whatever its time and size say, since both are read through
+     * the link.
+     *
+     * @throws IOException if the destination could not be read
+     */
+    public boolean isPlaced( File source, File destination )
+        throws IOException
+    {
+        Path target = destination.toPath();
+        BasicFileAttributes to = FileTransfer.readAttributes( target, LinkOption.NOFOLLOW_LINKS );
+        if ( to == null )
+        {
+            return false;
+        }
+        if ( !fallback && SYMLINK.equals( mode ) )
+        {
+            return to.isSymbolicLink() && Files.readSymbolicLink( target ).equals( source.getAbsoluteFile().toPath() );
+        }
+        BasicFileAttributes from = FileTransfer.readAttributes( source.toPath() );
+        if ( from == null )
+        {
+            return false;
+        }
+        boolean linked = FileTransfer.isLink( source.toPath(), from, target, to );
+        return !fallback && HARDLINK.equals( mode ) ? linked && !to.isSymbolicLink() : !linked;
+    }
+
+    /**
+     * Makes the queued clones, one <tt>cp</tt> for every destination
+     * directory, and runs their completion tasks. If cloning fails the
+     * remaining jars are copied instead.
+     *
+     * @throws IOException if a jar could neither be cloned nor copied
+     */
+    public void flush()
+        throws IOException
+    {
+        List queued;
+        synchronized ( clones )
+        {
+            queued = new ArrayList( clones );
+            clones.clear();
+        }
+        Map batches = new LinkedHashMap();
+        for ( Iterator i = queued.iterator(); i.hasNext(); )
+        {
+            Clone clone = (Clone) i.next();
+            // cp -t keeps the file name, jars renamed on the way are cloned on their own
+            Object key = clone.source.getName().equals( clone.destination.getName() )
+                ? (Object) clone.destination.getParentFile() : clone;
+            List batch = (List) batches.get( key );
+            if ( batch == null )
+            {
+                batch = new ArrayList();
+                batches.put( key, batch );
+            }
+            batch.add( clone );
+        }
+        for ( Iterator i = batches.values().iterator(); i.hasNext(); )
+        {
+            List batch = (List) i.next();
+            for ( int start = 0; start < batch.size(); start += CLONE_BATCH )
+            {
+                List part = batch.subList( start, Math.min( batch.size(), start + CLONE_BATCH ) );
+                if ( !fallback )
+                {
+                    try
+                    {
+                        cloneAll( part );
+                    }
+                    catch ( IOException e )
+                    {
+                        Clone first = (Clone) part.get( 0 );
+                        fallBack( first.source, first.destination, e );
+                    }
+                }
+                for ( Iterator j = part.iterator(); j.hasNext(); )
+                {
+                    Clone clone = (Clone) j.next();
+                    if ( fallback )
+                    {
+                        // jars cp did clone keep the time of the source and are left alone
+                        FileTransfer.copyIfModified( clone.source, clone.destination, digests );
+                    }
+                    else if ( digests != null )
+                    {
+                        digests.copied( clone.source, clone.attributes, clone.destination );
+                    }
+                    placed( true, clone.placed );
+                }
+            }
+        }
+    }
+
+    private void fallBack( File source, File destination, Exception e )
+    {
+        fallback = true;
+        log.warn( "Unable to " + mode + " " + source + " into " + destination.getParent() + " ("
+            + e.getMessage() + "), copying dependencies instead" );
+    }
+
+    private static boolean placed( boolean written, CopyEngine.Task placed )
+        throws IOException
+    {
+        if ( placed != null )
+        {
+            placed.run();
+        }
+        return written;
+    }
+
+    private static boolean hardlink( File source, File destination )
+        throws IOException
+    {
+        Path target = destination.toPath();
+        if ( !Files.isSymbolicLink( target ) && destination.exists() && Files.isSameFile( source.toPath(), target ) )
+        {
+            return false;
+        }
+        Files.deleteIfExists( target );
+        destination.getParentFile().mkdirs();
+        Files.createLink( target, source.toPath() );
+        return true;
+    }
+
+    private boolean queueClone( File source, File destination, CopyEngine.Task placed )
+        throws IOException
+    {
+        BasicFileAttributes from = FileTransfer.readAttributes( source.toPath() );
+        if ( from == null )
+        {
+            throw new FileNotFoundException( "File " + source + " does not exist" );
+        }
+        Path target = destination.toPath();
+        BasicFileAttributes to = FileTransfer.readAttributes( target, LinkOption.NOFOLLOW_LINKS );
+        if ( !FileTransfer.isLink( source.toPath(), from, target, to ) && !FileTransfer.isModified( from, to ) )
+        {
+            return placed( false, placed );
+        }
+        synchronized ( clones )
+        {
+            clones.add( new Clone( source, from, destination, placed ) );
+        }
+        return true;
+    }
+
+    /**
+     * Clones a batch of jars with a single <tt>cp</tt>. The jars either share
+     * their destination directory and keep their names, or the batch holds a
+     * single jar.
+     */
+    private static void cloneAll( List batch )
+        throws IOException
+    {
+        List command = new ArrayList();
+        command.add( "cp" );
+        command.add( "--reflink=always" );
+        command.add( "--preserve=timestamps" );
+        Clone first = (Clone) batch.get( 0 );
+        boolean renamed = !first.source.getName().equals( first.destination.getName() );
+        if ( !renamed )
+        {
+            command.add( "-t" );
+            command.add( first.destination.getParentFile().getAbsolutePath() );
+        }
+        command.add( "--" );
+        for ( Iterator i = batch.iterator(); i.hasNext(); )
+        {
+            Clone clone = (Clone) i.next();
+            Files.deleteIfExists( clone.destination.toPath() );
+            command.add( clone.source.getAbsolutePath() );
+        }
+        if ( renamed )
+        {
+            command.add( first.destination.getAbsolutePath() );
+        }
+        first.destination.getParentFile().mkdirs();
+        Process cp = new ProcessBuilder( command ).redirectErrorStream( true ).start();
+        try
+        {
+            String output = IOUtil.toString( cp.getInputStream() ).trim();
+            if ( cp.waitFor() != 0 )
+            {
+                // cp may leave empty or partial files behind, which would look newer than the jars
+                for ( Iterator i = batch.iterator(); i.hasNext(); )
+                {
+                    Files.deleteIfExists( ( (Clone) i.next() ).destination.toPath() );
+                }
+                throw new IOException( output.length() > 0 ? output : "cp exited with " + cp.exitValue() );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            cp.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while cloning " + first.source );
+        }
+    }
+
+    private static boolean symlink( File source, File destination )
+        throws IOException
+    {
+        Path target = destination.toPath();
+        Path link = source.getAbsoluteFile().toPath();
+        if ( Files.isSymbolicLink( target ) && Files.readSymbolicLink( target ).equals( link ) )
+        {
+            return false;
+        }
+        Files.deleteIfExists( target );
+        destination.getParentFile().mkdirs();
+        Files.createSymbolicLink( target, link );
+        return true;
+    }
+
+    /**
+     * A jar waiting to be cloned.
+     */
+    private static final class Clone
+    {
+        final File source;
+
+        final BasicFileAttributes attributes;
+
+        final File destination;
+
+        final CopyEngine.Task placed;
+
+        Clone( File source, BasicFileAttributes attributes, File destination, CopyEngine.Task placed )
+        {
+            this.source = source;
+            this.attributes = attributes;
+            this.destination = destination;
+            this.placed = placed;
+        }
+    }
+}
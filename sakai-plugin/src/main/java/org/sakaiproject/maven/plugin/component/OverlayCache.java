@@ -0,0 +1,150 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * A directory of unpacked dependent wars which can be shared by all modules
+ * of a reactor, and by several builds.
+ * <p/>
+ * Each war is unpacked into a directory named after its content digest, so
+ * an entry never changes once it exists and a changed war simply gets a new
+ * entry. Entries are populated under an exclusive file lock, which
+ * serialises builds in other processes, and a lock per entry within this
+ * JVM, which serialises the threads of a parallel build. A war is unpacked
+ * into a scratch directory that is renamed into place when complete, so an
+ * interrupted build never leaves a partial entry behind.
+ * <p/>
+ * Entries are never modified by their users and are not removed by the
+ * plugin; the directory may be deleted at any time no build is running.
+ */
+final class OverlayCache
+{
+    /**
+     * Locks per entry, shared by all caches of this JVM, since a process
+     * cannot take the same file lock twice.
+     */
+    private static final ConcurrentHashMap LOCKS = new ConcurrentHashMap();
+
+    private final File directory;
+
+    private final DigestCache digests;
+
+    /**
+     * @param directory the cache directory
+     * @param digests   the digest cache used to avoid hashing unchanged wars,
+     *                  or <code>null</code>
+     */
+    public OverlayCache( File directory, DigestCache digests )
+    {
+        this.directory = directory;
+        this.digests = digests;
+    }
+
+    /**
+     * Unpacks the contents of a war.
+     */
+    interface Populator
+    {
+        void populate( File directory )
+            throws IOException;
+    }
+
+    /**
+     * Returns the directory holding the unpacked contents of
+     * <code>war</code>, populating it first if this war has not been
+     * unpacked before.
+     *
+     * @param war       the war file
+     * @param name      the name of the entry, used to make the cache readable
+     * @param populator unpacks the war into a given directory
+     * @return the unpacked war, which must not be modified
+     * @throws IOException if the war cannot be read or unpacked
+     */
+    public File get( File war, String name, Populator populator )
+        throws IOException
+    {
+        long digest = digests != null ? digests.digest( war, FileTransfer.readAttributes( war.toPath() ) )
+                        : DigestCache.hash( war );
+        String key = name + "-" + Long.toHexString( digest );
+        File entry = new File( directory, key );
+        if ( entry.isDirectory() )
+        {
+            return entry;
+        }
+
+        directory.mkdirs();
+        Object lock = LOCKS.computeIfAbsent( entry.getCanonicalPath(), k -> new Object() );
+        synchronized ( lock )
+        {
+            FileChannel channel = FileChannel.open( new File( directory, key + ".lock" ).toPath(),
+                                                    StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+            try
+            {
+                FileLock fileLock = channel.lock();
+                try
+                {
+                    if ( !entry.isDirectory() )
+                    {
+                        populate( entry, populator );
+                    }
+                }
+                finally
+                {
+                    fileLock.release();
+                }
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+        return entry;
+    }
+
+    private static void populate( File entry, Populator populator )
+        throws IOException
+    {
+        File scratch = new File( entry.getPath() + ".partial-" + Long.toHexString( System.nanoTime() ) );
+        try
+        {
+            scratch.mkdirs();
+            populator.populate( scratch );
+            Files.move( scratch.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally
+        {
+            if ( scratch.exists() )
+            {
+                FileUtils.deleteDirectory( scratch );
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+/**
+ * Brings a directory in line with a stack of overlay archives, as deleting
+ * its clean targets and unpacking each archive over the previous ones would,
+ * in a single pass.
+ * <p/>
+ * The central directories of all archives are read first to find the entry
+ * which ends up at each path, the one of the last archive providing it. Only
+ * those entries are then written, and only where the file on disk differs:
+ * a file recorded in the deploy ledger with the size and CRC of its entry,
+ * and not touched since, is up to date without being read, and other files
+ * of the right size are compared by CRC. Within the clean targets, files and
+ * directories which no archive provides are deleted; outside of them nothing
+ * is deleted here.
+ */
+final class OverlaySync
+{
+    private final File directory;
+
+    private final List archives;
+
+    private final List cleanTargets = new ArrayList();
+
+    private DeployLedger.Deployment deployment;
+
+    private final AtomicInteger written = new AtomicInteger();
+
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    private int deleted;
+
+    /**
+     * @param directory the directory the archives are unpacked into
+     * @param archives  the zip archives, the later ones overwriting the
+     *                  earlier ones
+     */
+    public OverlaySync( File directory, List archives )
+    {
+        this.directory = directory;
+        this.archives = archives;
+    }
+
+    /**
+     * Adds a directory which is to hold only what the archives provide.
+     *
+     * @param path the path of the directory, relative to the directory the
+     *             archives are unpacked into
+     */
+    public void addCleanTarget( String path )
+    {
+        cleanTargets.add( new File( directory, path ) );
+    }
+
+    /**
+     * Sets the deploy which records the files, and whose previous record
+     * tells which files are up to date.
+     */
+    public void setDeployment( DeployLedger.Deployment deployment )
+    {
+        this.deployment = deployment;
+    }
+
+    /**
+     * Unpacks the archives.
+     *
+     * @param engine the engine writing the files
+     * @throws IOException if an archive cannot be read, has an entry outside
+     *                     of the directory, or the directory cannot be written
+     */
+    public void sync( CopyEngine engine )
+        throws IOException
+    {
+        written.set( 0 );
+        unchanged.set( 0 );
+        deleted = 0;
+        List zips = new ArrayList();
+        try
+        {
+            Map winners = new HashMap();
+            Set directories = new HashSet();
+            for ( Iterator i = archives.iterator(); i.hasNext(); )
+            {
+                File archive = (File) i.next();
+                ZipFile zip = new ZipFile( archive );
+                zips.add( zip );
+                for ( Enumeration entries = zip.getEntries(); entries.hasMoreElements(); )
+                {
+                    ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                    String name = ArchiveSync.getPath( entry, archive, directory );
+                    if ( name.length() == 0 )
+                    {
+                        continue;
+                    }
+                    if ( entry.isDirectory() )
+                    {
+                        directories.add( name );
+                    }
+                    else
+                    {
+                        winners.put( name, new Winner( zip, entry ) );
+                    }
+                }
+            }
+            Set parents = new HashSet( directories );
+            for ( Iterator i = winners.keySet().iterator(); i.hasNext(); )
+            {
+                String name = (String) i.next();
+                for ( int slash = name.lastIndexOf( '/' ); slash > 0; slash = name.lastIndexOf( '/', slash - 1 ) )
+                {
+                    parents.add( name.substring( 0, slash ) );
+                }
+            }
+
+            for ( Iterator i = cleanTargets.iterator(); i.hasNext(); )
+            {
+                removeOthers( ( (File) i.next() ).toPath(), winners.keySet(), parents );
+            }
+            for ( Iterator i = directories.iterator(); i.hasNext(); )
+            {
+                Files.createDirectories( new File( directory, (String) i.next() ).toPath() );
+            }
+            for ( Iterator i = winners.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) i.next();
+                final File file = new File( directory, (String) e.getKey() );
+                final Winner winner = (Winner) e.getValue();
+                engine.submit( () -> update( file, winner.zip, winner.entry ) );
+            }
+            engine.flush();
+        }
+        finally
+        {
+            for ( Iterator i = zips.iterator(); i.hasNext(); )
+            {
+                ZipFile.closeQuietly( (ZipFile) i.next() );
+            }
+        }
+    }
+
+    /**
+     * Returns the number of files written by the last sync.
+     */
+    public int getWritten()
+    {
+        return written.get();
+    }
+
+    /**
+     * Returns the number of files found up to date by the last sync.
+     */
+    public int getUnchanged()
+    {
+        return unchanged.get();
+    }
+
+    /**
+     * Returns the number of files and directories deleted from the clean
+     * targets by the last sync.
+     */
+    public int getDeleted()
+    {
+        return deleted;
+    }
+
+    /**
+     * Deletes the files and directories of a clean target which no archive
+     * provides.
+     */
+    private void removeOthers( Path target, final Set files, final Set directories )
+        throws IOException
+    {
+        final Path root = directory.toPath();
+        if ( !Files.exists( target ) )
+        {
+            return;
+        }
+        Files.walkFileTree( target, new SimpleFileVisitor<Path>()
+        {
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attributes )
+                throws IOException
+            {
+                if ( !files.contains( getName( file ) ) )
+                {
+                    Files.delete( file );
+                    deleted++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult postVisitDirectory( Path dir, IOException e )
+                throws IOException
+            {
+                if ( e != null )
+                {
+                    throw e;
+                }
+                if ( !directories.contains( getName( dir ) ) )
+                {
+                    Files.delete( dir );
+                    deleted++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private String getName( Path path )
+            {
+                return root.relativize( path ).toString().replace( File.separatorChar, '/' );
+            }
+        } );
+    }
+
+    /**
+     * Writes a file unless it already has the content of its entry, and
+     * records it.
+     */
+    private void update( File file, ZipFile zip, ZipArchiveEntry entry )
+        throws IOException
+    {
+        if ( isUpToDate( file, entry ) )
+        {
+            unchanged.incrementAndGet();
+        }
+        else
+        {
+            InputStream in = zip.getInputStream( entry );
+            try
+            {
+                FileTransfer.write( in, file, FileTime.fromMillis( entry.getTime() ) );
+            }
+            finally
+            {
+                in.close();
+            }
+            written.incrementAndGet();
+        }
+        if ( deployment != null )
+        {
+            deployment.addFile( file, entry.getCrc() );
+        }
+    }
+
+    private boolean isUpToDate( File file, ZipArchiveEntry entry )
+        throws IOException
+    {
+        if ( deployment != null && deployment.isDeployed( file, entry.getSize(), entry.getCrc() ) )
+        {
+            return true;
+        }
+        BasicFileAttributes attributes = FileTransfer.readAttributes( file.toPath() );
+        return attributes != null && attributes.isRegularFile() && attributes.size() == entry.getSize()
+            && ArchiveSync.crc( file ) == entry.getCrc();
+    }
+
+    /**
+     * The entry which ends up at a path.
+     */
+    private static final class Winner
+    {
+        final ZipFile zip;
+
+        final ZipArchiveEntry entry;
+
+        Winner( ZipFile zip, ZipArchiveEntry entry )
+        {
+            this.zip = zip;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * A set of Ant style path patterns compiled into a single automaton over path
+ * segments, with the semantics of <code>SelectorUtils.matchPath</code>.
+ * <p/>
+ * The patterns share a trie: literal segments are looked up by hash, so a
+ * path is tested against the whole set in one pass over its segments instead
+ * of once per pattern. Matching is incremental: the {@link State} reached for
+ * a directory is extended by one segment for each of its children, which lets
+ * a directory walk match every entry with a single step and decide whether a
+ * subtree can be skipped.
+ * <p/>
+ * <code>%regex[...]</code> patterns cannot be compiled and are matched one by
+ * one against the full path; they never allow a subtree to be skipped.
+ */
+final class PathPatterns
+{
+    private static final String GLOBSTAR = "**";
+
+    private final Node root = new Node( false );
+
+    private final String[] regexPatterns;
+
+    private final State start;
+
+    private PathPatterns( String[] patterns )
+    {
+        List regex = new ArrayList();
+        for ( int i = 0; i < patterns.length; i++ )
+        {
+            String pattern = patterns[i].trim();
+            if ( pattern.startsWith( SelectorUtils.REGEX_HANDLER_PREFIX )
+                && pattern.endsWith( SelectorUtils.PATTERN_HANDLER_SUFFIX ) )
+            {
+                regex.add( pattern );
+                continue;
+            }
+            if ( pattern.startsWith( SelectorUtils.ANT_HANDLER_PREFIX )
+                && pattern.endsWith( SelectorUtils.PATTERN_HANDLER_SUFFIX ) )
+            {
+                pattern = pattern.substring( SelectorUtils.ANT_HANDLER_PREFIX.length(),
+                                             pattern.length() - SelectorUtils.PATTERN_HANDLER_SUFFIX.length() );
+            }
+            pattern = pattern.replace( '\\', '/' );
+            if ( pattern.startsWith( "/" ) )
+            {
+                // scanned paths are relative, so an absolute pattern never matches
+                continue;
+            }
+            if ( pattern.endsWith( "/" ) )
+            {
+                pattern += GLOBSTAR;
+            }
+            add( pattern );
+        }
+        this.regexPatterns = (String[]) regex.toArray( new String[regex.size()] );
+        StateBuilder initial = new StateBuilder( 1 );
+        initial.add( root );
+        this.start = initial.close();
+    }
+
+    /**
+     * Compiles a set of patterns. Both <code>/</code> and <code>\</code> are
+     * accepted as separators, and a trailing separator stands for everything
+     * below.
+     */
+    public static PathPatterns compile( String[] patterns )
+    {
+        return new PathPatterns( patterns == null ? new String[0] : patterns );
+    }
+
+    /**
+     * Returns the state before any segment has been consumed.
+     */
+    public State start()
+    {
+        return start;
+    }
+
+    /**
+     * Returns the state reached by consuming one more path segment.
+     */
+    public State step( State state, String segment )
+    {
+        StateBuilder next = new StateBuilder( state.size * 2 );
+        for ( int i = 0; i < state.size; i++ )
+        {
+            Node node = state.nodes[i];
+            if ( node.loops )
+            {
+                next.add( node );
+            }
+            if ( node.literals != null )
+            {
+                Node child = (Node) node.literals.get( segment );
+                if ( child != null )
+                {
+                    next.add( child );
+                }
+            }
+            if ( node.wildcards != null )
+            {
+                for ( int j = 0; j < node.wildcards.size(); j++ )
+                {
+                    Node child = (Node) node.wildcards.get( j );
+                    if ( matchSegment( child.glob, segment ) )
+                    {
+                        next.add( child );
+                    }
+                }
+            }
+        }
+        return next.close();
+    }
+
+    /**
+     * Returns whether the path that led to <code>state</code> matches one of
+     * the patterns.
+     *
+     * @param path the '/' or platform separated path, used for regex patterns only
+     */
+    public boolean matches( State state, String path )
+    {
+        for ( int i = 0; i < state.size; i++ )
+        {
+            if ( state.nodes[i].terminal )
+            {
+                return true;
+            }
+        }
+        return matchesRegex( path );
+    }
+
+    /**
+     * Returns whether some path below the one that led to <code>state</code>
+     * could match one of the patterns.
+     */
+    public boolean couldMatchBelow( State state )
+    {
+        if ( regexPatterns.length > 0 )
+        {
+            return true;
+        }
+        for ( int i = 0; i < state.size; i++ )
+        {
+            Node node = state.nodes[i];
+            if ( node.loops || node.literals != null || node.wildcards != null )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether every path below the one that led to <code>state</code>
+     * matches one of the patterns, as for <code>node_modules/**</code>.
+     */
+    public boolean matchesAllBelow( State state )
+    {
+        for ( int i = 0; i < state.size; i++ )
+        {
+            Node node = state.nodes[i];
+            if ( node.loops && node.terminal )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests a complete relative path against the set.
+     */
+    public boolean matches( String path )
+    {
+        State state = start;
+        int from = 0;
+        int length = path.length();
+        for ( int i = 0; i <= length; i++ )
+        {
+            if ( i == length || path.charAt( i ) == '/' || path.charAt( i ) == '\\' )
+            {
+                if ( i > from )
+                {
+                    state = step( state, path.substring( from, i ) );
+                }
+                from = i + 1;
+            }
+        }
+        return matches( state, path );
+    }
+
+    private boolean matchesRegex( String path )
+    {
+        for ( int i = 0; i < regexPatterns.length; i++ )
+        {
+            if ( SelectorUtils.matchPath( regexPatterns[i], path, true ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add( String pattern )
+    {
+        Node node = root;
+        String previous = null;
+        String[] segments = pattern.split( "/" );
+        for ( int i = 0; i < segments.length; i++ )
+        {
+            String segment = segments[i];
+            if ( segment.length() == 0 || ( GLOBSTAR.equals( segment ) && GLOBSTAR.equals( previous ) ) )
+            {
+                continue;
+            }
+            node = node.child( segment );
+            previous = segment;
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * Matches a single path segment against a segment pattern containing
+     * <code>*</code> and <code>?</code> wildcards.
+     */
+    static boolean matchSegment( String pattern, String segment )
+    {
+        int p = 0;
+        int s = 0;
+        int star = -1;
+        int mark = 0;
+        int patternLength = pattern.length();
+        int segmentLength = segment.length();
+        while ( s < segmentLength )
+        {
+            if ( p < patternLength && ( pattern.charAt( p ) == '?' || pattern.charAt( p ) == segment.charAt( s ) ) )
+            {
+                p++;
+                s++;
+            }
+            else if ( p < patternLength && pattern.charAt( p ) == '*' )
+            {
+                star = p++;
+                mark = s;
+            }
+            else if ( star >= 0 )
+            {
+                p = star + 1;
+                s = ++mark;
+            }
+            else
+            {
+                return false;
+            }
+        }
+        while ( p < patternLength && pattern.charAt( p ) == '*' )
+        {
+            p++;
+        }
+        return p == patternLength;
+    }
+
+    /**
+     * The set of trie nodes reached after consuming a path.
+     */
+    static final class State
+    {
+        private final Node[] nodes;
+
+        private final int size;
+
+        State( Node[] nodes, int size )
+        {
+            this.nodes = nodes;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Collects the distinct nodes of a state.
+     */
+    private static final class StateBuilder
+    {
+        private Node[] nodes;
+
+        private int size;
+
+        StateBuilder( int capacity )
+        {
+            nodes = new Node[Math.max( 4, capacity )];
+        }
+
+        void add( Node node )
+        {
+            for ( int i = 0; i < size; i++ )
+            {
+                if ( nodes[i] == node )
+                {
+                    return;
+                }
+            }
+            if ( size == nodes.length )
+            {
+                Node[] grown = new Node[size * 2];
+                System.arraycopy( nodes, 0, grown, 0, size );
+                nodes = grown;
+            }
+            nodes[size++] = node;
+        }
+
+        /**
+         * Adds the nodes reachable without consuming a segment, that is by
+         * letting a <code>**</code> match nothing, and returns the state.
+         */
+        State close()
+        {
+            for ( int i = 0; i < size; i++ )
+            {
+                if ( nodes[i].globstar != null )
+                {
+                    add( nodes[i].globstar );
+                }
+            }
+            return new State( nodes, size );
+        }
+    }
+
+    private static final class Node
+    {
+        /**
+         * Whether this node was reached through <code>**</code> and so may
+         * consume any number of further segments.
+         */
+        final boolean loops;
+
+        /**
+         * The segment pattern leading to this node, when it has wildcards.
+         */
+        String glob;
+
+        boolean terminal;
+
+        Map literals;
+
+        List wildcards;
+
+        Node globstar;
+
+        Node( boolean loops )
+        {
+            this.loops = loops;
+        }
+
+        Node child( String segment )
+        {
+            if ( GLOBSTAR.equals( segment ) )
+            {
+                if ( globstar == null )
+                {
+                    globstar = new Node( true );
+                }
+                return globstar;
+            }
+            if ( segment.indexOf( '*' ) < 0 && segment.indexOf( '?' ) < 0 )
+            {
+                if ( literals == null )
+                {
+                    literals = new HashMap();
+                }
+                Node child = (Node) literals.get( segment );
+                if ( child == null )
+                {
+                    child = new Node( false );
+                    literals.put( segment, child );
+                }
+                return child;
+            }
+            if ( wildcards == null )
+            {
+                wildcards = new ArrayList();
+            }
+            for ( int i = 0; i < wildcards.size(); i++ )
+            {
+                Node child = (Node) wildcards.get( i );
+                if ( child.glob.equals( segment ) )
+                {
+                    return child;
+                }
+            }
+            Node child = new Node( false );
+            child.glob = segment;
+            wildcards.add( child );
+            return child;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Resolves <code>${key}</code> references between the values of a set of
+ * properties.
+ * <p/>
+ * Each value is parsed once into text and references, and each key is
+ * resolved once, after the keys it refers to, so the work is linear in the
+ * size of the properties however long the chains of references are. The
+ * resolution walks the references with an explicit stack rather than by
+ * recursion, so long chains cannot overflow the stack.
+ * <p/>
+ * A reference to a key which is not set is looked up in the system
+ * properties, and left as it is if it is not set there either. A cycle of
+ * references is reported with the whole chain.
+ */
+final class PropertyResolver
+{
+    private final Properties properties;
+
+    private final Map resolved = new HashMap();
+
+    /**
+     * @param properties the properties, including their defaults, whose
+     *                   references are resolved
+     */
+    public PropertyResolver( Properties properties )
+    {
+        this.properties = properties;
+    }
+
+    /**
+     * Returns the value of a key with all references resolved.
+     *
+     * @param key a key of the properties
+     * @return the resolved value, or <code>null</code> if the key is not set
+     * @throws IOException if the value refers to itself, directly or not
+     */
+    public String resolve( String key )
+        throws IOException
+    {
+        String value = (String) resolved.get( key );
+        if ( value != null || properties.getProperty( key ) == null )
+        {
+            return value;
+        }
+
+        List stack = new ArrayList();
+        Set resolving = new HashSet();
+        stack.add( new Frame( key, properties.getProperty( key ) ) );
+        resolving.add( key );
+        while ( true )
+        {
+            Frame frame = (Frame) stack.get( stack.size() - 1 );
+            if ( frame.index == frame.parts.size() )
+            {
+                value = frame.value.toString();
+                resolved.put( frame.key, value );
+                resolving.remove( frame.key );
+                stack.remove( stack.size() - 1 );
+                if ( stack.isEmpty() )
+                {
+                    return value;
+                }
+                ( (Frame) stack.get( stack.size() - 1 ) ).value.append( value );
+                continue;
+            }
+
+            Object part = frame.parts.get( frame.index++ );
+            if ( !( part instanceof Reference ) )
+            {
+                frame.value.append( (String) part );
+                continue;
+            }
+            String name = ( (Reference) part ).name;
+            String done = (String) resolved.get( name );
+            if ( done != null )
+            {
+                frame.value.append( done );
+            }
+            else if ( resolving.contains( name ) )
+            {
+                throw new IOException( "Circular property reference: " + chain( stack, name ) );
+            }
+            else if ( properties.getProperty( name ) != null )
+            {
+                stack.add( new Frame( name, properties.getProperty( name ) ) );
+                resolving.add( name );
+            }
+            else
+            {
+                String system = System.getProperty( name );
+                frame.value.append( system != null ? system : "${" + name + "}" );
+            }
+        }
+    }
+
+    private static String chain( List stack, String name )
+    {
+        StringBuilder chain = new StringBuilder();
+        boolean inCycle = false;
+        for ( int i = 0; i < stack.size(); i++ )
+        {
+            String key = ( (Frame) stack.get( i ) ).key;
+            inCycle |= key.equals( name );
+            if ( inCycle )
+            {
+                chain.append( key ).append( " -> " );
+            }
+        }
+        return chain.append( name ).toString();
+    }
+
+    /**
+     * Splits a value into text and references. A <code>${</code> without a
+     * closing <code>}</code>, and <code>${}</code>, are text.
+     */
+    static List parse( String value )
+    {
+        List parts = new ArrayList();
+        int start = 0;
+        while ( true )
+        {
+            int open = value.indexOf( "${", start );
+            int close = open < 0 ? -1 : value.indexOf( '}', open + 2 );
+            if ( close < 0 )
+            {
+                break;
+            }
+            if ( close == open + 2 )
+            {
+                parts.add( value.substring( start, close + 1 ) );
+            }
+            else
+            {
+                if ( open > start )
+                {
+                    parts.add( value.substring( start, open ) );
+                }
+                parts.add( new Reference( value.substring( open + 2, close ) ) );
+            }
+            start = close + 1;
+        }
+        if ( start < value.length() )
+        {
+            parts.add( value.substring( start ) );
+        }
+        return parts;
+    }
+
+    /**
+     * A key being resolved.
+     */
+    private static final class Frame
+    {
+        final String key;
+
+        final List parts;
+
+        final StringBuilder value;
+
+        int index;
+
+        Frame( String key, String raw )
+        {
+            this.key = key;
+            this.parts = parse( raw );
+            this.value = new StringBuilder( raw.length() );
+        }
+    }
+
+    private static final class Reference
+    {
+        final String name;
+
+        Reference( String name )
+        {
+            this.name = name;
+        }
+    }
+}
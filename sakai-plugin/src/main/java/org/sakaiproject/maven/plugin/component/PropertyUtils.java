@@ -47,6 +47,7 @@ public final class PropertyUtils
      * @param fail           wheter to throw an exception when the file cannot be loaded or to return null
      * @param useSystemProps wheter to incorporate System.getProperties settings into the returned Properties object.
      * @return the loaded and fully resolved Properties object
+     * @throws IOException if the file cannot be read, or properties refer to each other in a cycle
      */
     public static Properties loadPropertyFile( File propfile, boolean fail, boolean useSystemProps )
         throws IOException
@@ -75,76 +76,13 @@ public final class PropertyUtils
             throw new FileNotFoundException( propfile.toString() );
         }
 
+        PropertyResolver resolver = new PropertyResolver( props );
         for ( Enumeration n = props.propertyNames(); n.hasMoreElements(); )
         {
             String k = (String) n.nextElement();
-            props.setProperty( k, PropertyUtils.getPropertyValue( k, props ) );
+            props.setProperty( k, resolver.resolve( k ) );
         }
 
         return props;
     }
-
-
-    /**
-     * Retrieves a property value, replacing values like ${token}
-     * using the Properties to look them up.
-     * <p/>
-     * It will leave unresolved properties alone, trying for System
-     * properties, and implements reparsing (in the case that
-     * the value of a property contains a key), and will
-     * not loop endlessly on a pair like
-     * test = ${test}.
-     */
-    private static String getPropertyValue( String k, Properties p )
-    {
-        // This can also be done using InterpolationFilterReader,
-        // but it requires reparsing the file over and over until
-        // it doesn't change.
-
-        String v = p.getProperty( k );
-        String ret = "";
-        int idx, idx2;
-
-        while ( ( idx = v.indexOf( "${" ) ) >= 0 )
-        {
-            // append prefix to result
-            ret += v.substring( 0, idx );
-
-            // strip prefix from original
-            v = v.substring( idx + 2 );
-
-            // if no matching } then bail
-            if ( ( idx2 = v.indexOf( '}' ) ) < 0 )
-            {
-                break;
-            }
-
-            // strip out the key and resolve it
-            // resolve the key/value for the ${statement}
-            String nk = v.substring( 0, idx2 );
-            v = v.substring( idx2 + 1 );
-            String nv = p.getProperty( nk );
-
-            // try global environment..
-            if ( nv == null )
-            {
-                nv = System.getProperty( nk );
-            }
-
-            // if the key cannot be resolved,
-            // leave it alone ( and don't parse again )
-            // else prefix the original string with the
-            // resolved property ( so it can be parsed further )
-            // taking recursion into account.
-            if ( nv == null || nv.equals( k ) )
-            {
-                ret += "${" + nk + "}";
-            }
-            else
-            {
-                v = nv + v;
-            }
-        }
-        return ret + v;
-    }
 }
@@ -24,33 +24,62 @@ import org.codehaus.plexus.util.introspection.ReflectionValueExtractor;
 
 import java.util.AbstractMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * The values of expressions such as <code>project.version</code> on a
+ * project, for filtering.
+ * <p/>
+ * Each expression is only evaluated once, whether or not it has a value, and
+ * later lookups read the remembered result without locking, so the project
+ * must not change while it is being used. Expressions which cannot be
+ * evaluated have no value.
+ *
  * @version $Id$
  * @todo merge with resources/assembly plugin
  */
 public class ReflectionProperties
     extends AbstractMap
 {
-    private MavenProject project;
+    /**
+     * Remembers an expression without a value.
+     */
+    private static final Object NONE = new Object();
+
+    private final MavenProject project;
+
+    private final ConcurrentHashMap values = new ConcurrentHashMap();
 
     public ReflectionProperties( MavenProject project )
     {
         this.project = project;
     }
 
-    public synchronized Object get( Object key )
+    public Object get( Object key )
+    {
+        String expression = String.valueOf( key );
+        Object value = values.get( expression );
+        if ( value == null )
+        {
+            // evaluating twice on a race is harmless, and cheaper than a lock
+            value = evaluate( expression );
+            values.put( expression, value );
+        }
+        return value == NONE ? null : value;
+    }
+
+    private Object evaluate( String expression )
     {
         Object value = null;
         try
         {
-            value = ReflectionValueExtractor.evaluate( String.valueOf( key ), project );
+            value = ReflectionValueExtractor.evaluate( expression, project );
         }
         catch ( Exception e )
         {
             //TODO: remove the try-catch block when ReflectionValueExtractor.evaluate() throws no more exceptions
         }
-        return value;
+        return value == null ? NONE : value;
     }
 
     public Set entrySet()
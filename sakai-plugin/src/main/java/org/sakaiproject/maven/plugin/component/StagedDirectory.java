@@ -0,0 +1,274 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Replaces a deployed directory by a new version prepared next to it, so that
+ * a running container never sees a half written directory.
+ * <p/>
+ * The new version is prepared in a staging directory, seeded with hard links
+ * to the files of the current version so that only changed files need to be
+ * written; files are replaced rather than written in place, so the current
+ * version is not affected. The staging directory then takes the place of the
+ * current version by two renames, one moving the current version away and one
+ * moving the new version in, and the previous version is deleted in the
+ * background. It is moved to a name of its own, so no other deploy ever
+ * deletes the same tree, and the next deploy of the same directory in this
+ * JVM waits for the deletion to finish.
+ * <p/>
+ * Staging directories are kept in a <tt>.sakai-staging</tt> directory beside
+ * the directory containing the deployed one, for instance next to
+ * <tt>components</tt>, so that containers scanning that directory do not
+ * pick them up, while staying on the same file system so the renames are
+ * atomic. A previous version left behind because the build ended before it
+ * was deleted is deleted by the next deploy.
+ */
+final class StagedDirectory
+{
+    /**
+     * The threads deleting previous versions, by deployed directory.
+     */
+    private static final ConcurrentHashMap CLEANUPS = new ConcurrentHashMap();
+
+    private final File directory;
+
+    private final File staging;
+
+    /**
+     * The directory holding the staging directory and the previous versions.
+     */
+    private final File root;
+
+    /**
+     * @param directory the deployed directory
+     */
+    public StagedDirectory( File directory )
+    {
+        this.directory = directory.getAbsoluteFile();
+        File container = this.directory.getParentFile();
+        this.root = new File( container.getParentFile(), ".sakai-staging/" + container.getName() );
+        this.staging = new File( root, this.directory.getName() + ".new" );
+    }
+
+    /**
+     * Returns the staging directory.
+     */
+    public File getStaging()
+    {
+        return staging;
+    }
+
+    /**
+     * Creates the staging directory, removing any left over from an earlier
+     * deploy, once the deletion of the version replaced by the last deploy of
+     * this directory has finished.
+     *
+     * @param seed whether to fill it with links to the files of the deployed
+     *             directory
+     * @return the staging directory
+     */
+    public File prepare( boolean seed )
+        throws IOException
+    {
+        awaitCleanup();
+        FileUtils.deleteDirectory( staging );
+        removeLeftovers();
+        Files.createDirectories( staging.toPath() );
+        if ( seed && directory.isDirectory() )
+        {
+            link( directory.toPath(), staging.toPath() );
+        }
+        return staging;
+    }
+
+    /**
+     * Moves the staging directory into the place of the deployed directory,
+     * and starts deleting the previous version.
+     *
+     * @throws IOException if the directories could not be renamed, in which
+     *                     case the deployed directory is left in place
+     */
+    public void swap()
+        throws IOException
+    {
+        final File previous = newPreviousName();
+        boolean replace = directory.exists();
+        if ( replace )
+        {
+            Files.move( directory.toPath(), previous.toPath(), StandardCopyOption.ATOMIC_MOVE );
+        }
+        else
+        {
+            Files.createDirectories( directory.getParentFile().toPath() );
+        }
+        try
+        {
+            Files.move( staging.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException e )
+        {
+            if ( replace )
+            {
+                Files.move( previous.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE );
+            }
+            throw e;
+        }
+        if ( !replace )
+        {
+            return;
+        }
+        Thread removal = new Thread( "sakai-deploy-cleanup " + directory.getName() )
+        {
+            public void run()
+            {
+                try
+                {
+                    FileUtils.deleteDirectory( previous );
+                }
+                catch ( IOException e )
+                {
+                    // deleted by the next deploy
+                }
+            }
+        };
+        CLEANUPS.put( directory.getPath(), removal );
+        removal.start();
+    }
+
+    /**
+     * Waits until the version replaced by the last swap of this directory in
+     * this JVM is deleted.
+     *
+     * @throws InterruptedIOException if the thread is interrupted while
+     *                                waiting
+     */
+    public void awaitCleanup()
+        throws InterruptedIOException
+    {
+        Thread removal = (Thread) CLEANUPS.get( directory.getPath() );
+        if ( removal == null )
+        {
+            return;
+        }
+        try
+        {
+            removal.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while deleting the previous version of " + directory );
+        }
+        CLEANUPS.remove( directory.getPath(), removal );
+    }
+
+    /**
+     * Deletes the previous versions which were not deleted because the build
+     * ended first. Each is moved to a new name before it is deleted, so that
+     * deploys in other processes never delete the same tree.
+     */
+    private void removeLeftovers()
+        throws IOException
+    {
+        String prefix = directory.getName() + ".old";
+        File[] files = root.listFiles();
+        for ( int i = 0; files != null && i < files.length; i++ )
+        {
+            String name = files[i].getName();
+            if ( !name.equals( prefix ) && !name.startsWith( prefix + "-" ) )
+            {
+                continue;
+            }
+            File retired = newPreviousName();
+            try
+            {
+                Files.move( files[i].toPath(), retired.toPath(), StandardCopyOption.ATOMIC_MOVE );
+            }
+            catch ( IOException e )
+            {
+                // taken by another deploy
+                continue;
+            }
+            FileUtils.deleteDirectory( retired );
+        }
+    }
+
+    /**
+     * Returns a new name for a previous version, unique to one deploy.
+     */
+    private File newPreviousName()
+    {
+        return new File( root, directory.getName() + ".old-" + Long.toHexString( System.currentTimeMillis() ) + "-"
+            + Long.toHexString( ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE ) );
+    }
+
+    /**
+     * Recreates a tree of directories, with hard links to its files, or
+     * copies where links cannot be created.
+     */
+    private static void link( final Path source, final Path target )
+        throws IOException
+    {
+        Files.walkFileTree( source, new SimpleFileVisitor<Path>()
+        {
+            public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attributes )
+                throws IOException
+            {
+                Files.createDirectories( target.resolve( source.relativize( dir ) ) );
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attributes )
+                throws IOException
+            {
+                Path link = target.resolve( source.relativize( file ) );
+                if ( attributes.isRegularFile() )
+                {
+                    try
+                    {
+                        Files.createLink( link, file );
+                        return FileVisitResult.CONTINUE;
+                    }
+                    catch ( IOException | UnsupportedOperationException e )
+                    {
+                        // copied below
+                    }
+                }
+                Files.copy( file, link, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.COPY_ATTRIBUTES );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+}
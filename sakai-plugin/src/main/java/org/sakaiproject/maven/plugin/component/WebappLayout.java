@@ -0,0 +1,208 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The layout of a webapp, resolved in memory before anything is written.
+ * <p/>
+ * Every layer of the assembly (web resources, the war source directory, the
+ * deployment descriptors, classes, libraries and overlays) offers its files
+ * to the layout in the order the layers used to be copied. Where two layers
+ * offer the same path the layout applies the rule the copies used to follow:
+ * a later layer only replaces a file which is older than its own, or as old
+ * but of a different size. Generated files, such as filtered resources,
+ * count as newer than any source file.
+ * <p/>
+ * Once all layers are known, {@link #materialize(File, CopyEngine)} writes each
+ * path exactly once, from the layer which won it, so the copies of
+ * different layers no longer need to wait for each other.
+ */
+final class WebappLayout
+{
+    /**
+     * The modification time of generated files.
+     */
+    public static final long GENERATED = Long.MAX_VALUE;
+
+    private final Map entries = new LinkedHashMap();
+
+    private final Set directories = new LinkedHashSet();
+
+    private final List conflicts = new ArrayList();
+
+    /**
+     * Offers a file to the layout.
+     *
+     * @param layer        a description of the layer, for conflict reports
+     * @param path         the '/' separated path in the webapp
+     * @param lastModified the modification time of the source, or
+     *                     {@link #GENERATED}
+     * @param size         the size of the source, or -1 if it is not known
+     * @param write        writes the file into the webapp
+     * @return whether the file is, for now, the one the path resolves to
+     */
+    public boolean add( String layer, String path, long lastModified, long size, CopyEngine.Task write )
+    {
+        Entry candidate = new Entry( layer, lastModified, size, write );
+        Entry existing = (Entry) entries.get( path );
+        if ( existing == null )
+        {
+            entries.put( path, candidate );
+            return true;
+        }
+        boolean replace = lastModified == GENERATED || lastModified > existing.lastModified
+            || ( lastModified == existing.lastModified && size >= 0 && size != existing.size );
+        if ( !existing.layer.equals( layer ) )
+        {
+            conflicts.add( replace ? new Conflict( path, candidate, existing ) : new Conflict( path, existing,
+                                                                                             candidate ) );
+        }
+        if ( replace )
+        {
+            entries.put( path, candidate );
+        }
+        return replace;
+    }
+
+    /**
+     * Adds a directory, which is created even if no file is written into it.
+     */
+    public void addDirectory( String path )
+    {
+        directories.add( path );
+    }
+
+    /**
+     * Returns whether some layer offered a file at <code>path</code>.
+     */
+    public boolean contains( String path )
+    {
+        return entries.containsKey( path );
+    }
+
+    /**
+     * Returns the number of files in the layout.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total size of the files in the layout whose size is known.
+     */
+    public long getTotalBytes()
+    {
+        long total = 0;
+        for ( Iterator i = entries.values().iterator(); i.hasNext(); )
+        {
+            Entry entry = (Entry) i.next();
+            if ( entry.size > 0 )
+            {
+                total += entry.size;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the paths offered by more than one layer, in the order they
+     * were found.
+     */
+    public List getConflicts()
+    {
+        return conflicts;
+    }
+
+    /**
+     * Creates the directories of the layout and writes every file from the
+     * layer which won it.
+     *
+     * @param webappDirectory the webapp directory
+     * @param engine          the engine to run the writes on
+     * @throws IOException the first write failure, if the engine runs the
+     *                     writes on the calling thread
+     */
+    public void materialize( File webappDirectory, CopyEngine engine )
+        throws IOException
+    {
+        for ( Iterator i = directories.iterator(); i.hasNext(); )
+        {
+            new File( webappDirectory, (String) i.next() ).mkdirs();
+        }
+        for ( Iterator i = entries.values().iterator(); i.hasNext(); )
+        {
+            engine.submit( ( (Entry) i.next() ).write );
+        }
+    }
+
+    private static final class Entry
+    {
+        final String layer;
+
+        final long lastModified;
+
+        final long size;
+
+        final CopyEngine.Task write;
+
+        Entry( String layer, long lastModified, long size, CopyEngine.Task write )
+        {
+            this.layer = layer;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.write = write;
+        }
+    }
+
+    /**
+     * A path offered by two layers.
+     */
+    static final class Conflict
+    {
+        final String path;
+
+        final String winner;
+
+        final String loser;
+
+        Conflict( String path, Entry winner, Entry loser )
+        {
+            this.path = path;
+            this.winner = winner.layer;
+            this.loser = loser.layer;
+        }
+
+        public String toString()
+        {
+            return path + " from " + winner + " shadows " + loser;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class ArchiveSyncTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/archivesync-test" );
+
+    public void testOnlyChangesAreWritten()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File war = new File( testDirectory, "component.war" );
+        File deployed = new File( testDirectory, "components/component" );
+        writeWar( war, new String[] { "WEB-INF/web.xml", "index.jsp", "pix/logo.png" },
+                  new String[] { "<web-app/>", "hello", "png" } );
+
+        ArchiveSync sync = new ArchiveSync( war, deployed, ArchiveSync.getIndexFile( deployed ) );
+        sync.sync();
+        assertEquals( 3, sync.getWritten() );
+        assertEquals( "hello", FileUtils.fileRead( new File( deployed, "index.jsp" ) ) );
+        assertTrue( ArchiveSync.getIndexFile( deployed ).isFile() );
+
+        // left over from an older version, or written by the container
+        File stale = new File( deployed, "old/stale.jsp" );
+        stale.getParentFile().mkdirs();
+        FileUtils.fileWrite( stale.getPath(), "stale" );
+        // touched, but with the same content
+        File logo = new File( deployed, "pix/logo.png" );
+        logo.setLastModified( logo.lastModified() - 60000 );
+
+        writeWar( war, new String[] { "WEB-INF/web.xml", "index.jsp", "pix/logo.png" },
+                  new String[] { "<web-app/>", "hello, changed", "png" } );
+        sync.sync();
+        assertEquals( 1, sync.getWritten() );
+        assertEquals( 2, sync.getUnchanged() );
+        // the file and its directory
+        assertEquals( 2, sync.getDeleted() );
+        assertEquals( "hello, changed", FileUtils.fileRead( new File( deployed, "index.jsp" ) ) );
+        assertFalse( stale.getParentFile().exists() );
+
+        // a file where the archive now has a directory
+        writeWar( war, new String[] { "WEB-INF/web.xml", "index.jsp/nested.jsp" },
+                  new String[] { "<web-app/>", "nested" } );
+        sync.sync();
+        assertEquals( "nested", FileUtils.fileRead( new File( deployed, "index.jsp/nested.jsp" ) ) );
+        assertFalse( logo.exists() );
+    }
+
+    public void testEntryOutsideOfDirectory()
+        throws Exception
+    {
+        File war = new File( testDirectory, "evil.war" );
+        File deployed = new File( testDirectory, "components/evil" );
+        writeWar( war, new String[] { "../escaped.jsp" }, new String[] { "x" } );
+        try
+        {
+            new ArchiveSync( war, deployed, ArchiveSync.getIndexFile( deployed ) ).sync();
+            fail( "entry outside of the directory unpacked" );
+        }
+        catch ( IOException e )
+        {
+            assertFalse( new File( testDirectory, "components/escaped.jsp" ).exists() );
+        }
+    }
+
+    private static void writeWar( File war, String[] names, String[] contents )
+        throws Exception
+    {
+        ArchiveWriter writer = new ArchiveWriter( war, ArchiveWriter.FILE_TIMES, true );
+        for ( int i = 0; i < names.length; i++ )
+        {
+            writer.addFile( names[i], contents[i].getBytes( "UTF-8" ) );
+        }
+        writer.write( null );
+    }
+}
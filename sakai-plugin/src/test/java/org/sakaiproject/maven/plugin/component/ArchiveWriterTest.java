@@ -0,0 +1,263 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+public class ArchiveWriterTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/archivewriter-test" );
+
+    public void testIncrementalUpdate()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File classes = new File( testDirectory, "classes" );
+        File a = writeClass( classes, "org/example/A.class", "class A" );
+        File b = writeClass( classes, "org/example/B.class", "class B" );
+        File jarFile = new File( testDirectory, "lib/classes.jar" );
+        File fingerprint = new File( testDirectory, "classes.jar.fingerprint" );
+
+        assertTrue( newJar( jarFile, classes, a, b ).write( fingerprint ) );
+        assertFalse( newJar( jarFile, classes, a, b ).write( fingerprint ) );
+
+        FileUtils.fileWrite( b.getPath(), "class B, changed" );
+        ArchiveWriter jar = newJar( jarFile, classes, a, b );
+        assertTrue( jar.write( fingerprint ) );
+        // the manifest and A.class
+        assertEquals( 2, jar.getReused() );
+
+        ZipFile zip = new ZipFile( jarFile );
+        try
+        {
+            assertEquals( 16, zip.getEntry( "org/example/B.class" ).getSize() );
+            Enumeration entries = zip.entries();
+            assertEquals( "META-INF/", ( (ZipEntry) entries.nextElement() ).getName() );
+            assertEquals( ArchiveWriter.MANIFEST_NAME, ( (ZipEntry) entries.nextElement() ).getName() );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    public void testReproducible()
+        throws Exception
+    {
+        File classes = new File( testDirectory, "reproducible" );
+        File a = writeClass( classes, "org/example/A.class", "class A" );
+        File b = writeClass( classes, "org/example/B.class", "class B" );
+
+        File first = new File( testDirectory, "first.jar" );
+        newJar( first, classes, a, b ).write( new File( testDirectory, "first.fingerprint" ) );
+
+        a.setLastModified( a.lastModified() - 60000 );
+        b.setLastModified( b.lastModified() + 60000 );
+        File second = new File( testDirectory, "second.jar" );
+        newJar( second, classes, b, a ).write( new File( testDirectory, "second.fingerprint" ) );
+
+        assertTrue( Arrays.equals( Files.readAllBytes( first.toPath() ), Files.readAllBytes( second.toPath() ) ) );
+    }
+
+    public void testSameArchiveWithThreads()
+        throws Exception
+    {
+        File classes = new File( testDirectory, "threads" );
+        StringBuilder content = new StringBuilder();
+        File[] files = new File[40];
+        for ( int i = 0; i < files.length; i++ )
+        {
+            content.append( "class C" ).append( i ).append( ' ' );
+            files[i] = writeClass( classes, "org/example/p" + i % 3 + "/C" + i + ".class", content.toString() );
+        }
+
+        File[] jars = new File[2];
+        for ( int t = 0; t < jars.length; t++ )
+        {
+            jars[t] = new File( testDirectory, "threads-" + t + ".jar" );
+            ArchiveWriter jar = new ArchiveWriter( jars[t], ArchiveWriter.DEFAULT_TIMESTAMP, true );
+            jar.setThreads( t == 0 ? 1 : 4 );
+            for ( int i = 0; i < files.length; i++ )
+            {
+                String name = "org/example/p" + i % 3 + "/C" + i + ".class";
+                jar.addDirectory( name.substring( 0, name.lastIndexOf( '/' ) ) );
+                jar.addFile( name, files[i], Files.readAttributes( files[i].toPath(), BasicFileAttributes.class ) );
+            }
+            assertTrue( jar.write( null ) );
+        }
+
+        assertTrue( Arrays.equals( Files.readAllBytes( jars[0].toPath() ), Files.readAllBytes( jars[1].toPath() ) ) );
+        ZipFile zip = new ZipFile( jars[1] );
+        try
+        {
+            assertEquals( files.length + 5, zip.size() );
+            assertEquals( files[39].length(), zip.getEntry( "org/example/p0/C39.class" ).getSize() );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    public void testLargeEntriesStreamed()
+        throws Exception
+    {
+        File files = new File( testDirectory, "large" );
+        byte[] text = new byte[(int) ArchiveWriter.STREAMED_SIZE * 2];
+        for ( int i = 0; i < text.length; i++ )
+        {
+            text[i] = (byte) ( 'a' + i % 7 );
+        }
+        byte[] noise = new byte[(int) ArchiveWriter.STREAMED_SIZE + 1];
+        new Random( 1 ).nextBytes( noise );
+        File textFile = new File( files, "large.txt" );
+        File noiseFile = new File( files, "large.bin" );
+        textFile.getParentFile().mkdirs();
+        Files.write( textFile.toPath(), text );
+        Files.write( noiseFile.toPath(), noise );
+        File small = writeClass( files, "small.txt", "small" );
+
+        File[] jars = new File[2];
+        for ( int t = 0; t < jars.length; t++ )
+        {
+            jars[t] = new File( testDirectory, "large-" + t + ".jar" );
+            ArchiveWriter jar = newLargeJar( jars[t], textFile, noiseFile, small );
+            jar.setThreads( t == 0 ? 1 : 4 );
+            assertTrue( jar.write( null ) );
+        }
+        assertTrue( Arrays.equals( Files.readAllBytes( jars[0].toPath() ), Files.readAllBytes( jars[1].toPath() ) ) );
+
+        ZipFile zip = new ZipFile( jars[1] );
+        try
+        {
+            assertEquals( ZipEntry.DEFLATED, zip.getEntry( "large.txt" ).getMethod() );
+            assertEquals( ZipEntry.STORED, zip.getEntry( "large.bin" ).getMethod() );
+            assertTrue( Arrays.equals( text, IOUtil.toByteArray( zip.getInputStream( zip.getEntry( "large.txt" ) ) ) ) );
+            assertTrue( Arrays.equals( noise, IOUtil.toByteArray( zip.getInputStream( zip.getEntry( "large.bin" ) ) ) ) );
+        }
+        finally
+        {
+            zip.close();
+        }
+
+        // large entries are copied from the previous archive like small ones
+        File fingerprint = new File( testDirectory, "large.jar.fingerprint" );
+        assertTrue( newLargeJar( jars[1], textFile, noiseFile, small ).write( fingerprint ) );
+        FileUtils.fileWrite( small.getPath(), "small, changed" );
+        ArchiveWriter jar = newLargeJar( jars[1], textFile, noiseFile, small );
+        assertTrue( jar.write( fingerprint ) );
+        assertEquals( 2, jar.getReused() );
+    }
+
+    public void testCompressionPolicy()
+        throws Exception
+    {
+        File jarFile = new File( testDirectory, "policy.jar" );
+        ArchiveWriter jar = new ArchiveWriter( jarFile, ArchiveWriter.DEFAULT_TIMESTAMP, true );
+        jar.setPolicy( CompressionPolicy.create( "best", null, "1.0" ) );
+        byte[] text = new byte[4096];
+        Arrays.fill( text, (byte) 'a' );
+        byte[] noise = new byte[4096];
+        new Random( 1 ).nextBytes( noise );
+        jar.addFile( "images/logo.PNG", text );
+        jar.addFile( "text.txt", text );
+        jar.addFile( "noise.bin", noise );
+        jar.write( null );
+
+        ZipFile zip = new ZipFile( jarFile );
+        try
+        {
+            assertEquals( ZipEntry.STORED, zip.getEntry( "images/logo.PNG" ).getMethod() );
+            assertEquals( ZipEntry.DEFLATED, zip.getEntry( "text.txt" ).getMethod() );
+            // deflating would not shrink it
+            assertEquals( ZipEntry.STORED, zip.getEntry( "noise.bin" ).getMethod() );
+        }
+        finally
+        {
+            zip.close();
+        }
+
+        assertEquals( Deflater.BEST_SPEED, CompressionPolicy.create( "auto", null, "1.0-SNAPSHOT" ).getLevel() );
+        assertEquals( Deflater.BEST_COMPRESSION, CompressionPolicy.create( "auto", null, "1.0" ).getLevel() );
+        assertFalse( CompressionPolicy.create( "3", "none", "1.0" ).isStored( "lib/a.jar" ) );
+        assertTrue( CompressionPolicy.create( "0", "none", "1.0" ).isStored( "a.txt" ) );
+        assertFalse( CompressionPolicy.create( null, null, null ).isStored( "png/readme" ) );
+        try
+        {
+            CompressionPolicy.create( "fastest", null, "1.0" );
+            fail( "invalid level accepted" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    private static File writeClass( File classes, String name, String content )
+        throws Exception
+    {
+        File file = new File( classes, name );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), content );
+        return file;
+    }
+
+    private static ArchiveWriter newLargeJar( File jarFile, File text, File noise, File small )
+        throws Exception
+    {
+        ArchiveWriter jar = new ArchiveWriter( jarFile, ArchiveWriter.DEFAULT_TIMESTAMP, true );
+        File[] files = { text, noise, small };
+        for ( int i = 0; i < files.length; i++ )
+        {
+            jar.addFile( files[i].getName(), files[i],
+                         Files.readAttributes( files[i].toPath(), BasicFileAttributes.class ) );
+        }
+        return jar;
+    }
+
+    private static ArchiveWriter newJar( File jarFile, File classes, File first, File second )
+        throws Exception
+    {
+        ArchiveWriter jar = new ArchiveWriter( jarFile, ArchiveWriter.DEFAULT_TIMESTAMP, true );
+        jar.setManifest( "Manifest-Version: 1.0\r\n\r\n".getBytes( "UTF-8" ) );
+        File[] files = { first, second };
+        for ( int i = 0; i < files.length; i++ )
+        {
+            String name = files[i].getPath().substring( classes.getPath().length() + 1 ).replace( File.separatorChar,
+                                                                                                    '/' );
+            jar.addDirectory( name.substring( 0, name.lastIndexOf( '/' ) ) );
+            jar.addFile( name, files[i], Files.readAttributes( files[i].toPath(), BasicFileAttributes.class ) );
+        }
+        return jar;
+    }
+}
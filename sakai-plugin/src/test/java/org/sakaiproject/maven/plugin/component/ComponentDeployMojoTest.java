@@ -22,6 +22,7 @@ package org.sakaiproject.maven.plugin.component;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -29,6 +30,7 @@ import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.codehaus.plexus.util.FileUtils;
 import org.sakaiproject.maven.plugin.component.stub.MavenProjectBasicStub;
 import org.sakaiproject.maven.plugin.component.stub.ResourceStub;
 import org.sakaiproject.maven.plugin.component.stub.SimpleWarArtifactStub;
@@ -192,6 +194,68 @@ public class ComponentDeployMojoTest
         // house keeping
        // expectedWarFile.delete();
     }
+    /**
+     * @throws Exception
+     */
+    public void testTomcatOverlayDeploy()
+        throws Exception
+    {
+        // setup test data
+        String testId = "SimpleDeployOverlay";
+        MavenProjectBasicStub project = new MavenProjectBasicStub();
+        project.setArtifact(artifactFactory.createArtifact(project.getGroupId(), project.getArtifactId(), project.getVersion(), null, "pom"));
+        LinkedHashSet<Artifact> dependencySet = new LinkedHashSet<Artifact>();
+        dependencySet.add( createOverlay( "base", new String[] { "conf/server.xml", "lib/base.jar" }, "base" ) );
+        dependencySet.add( createOverlay( "extra", new String[] { "bin/setenv.sh" }, "extra" ) );
+        dependencySet.add( createOverlay( "custom", new String[] { "conf/server.xml" }, "custom" ) );
+        project.setDependencyArtifacts(dependencySet);
+        project.setPackaging("pom");
+        project.addProperty("deploy.target", "tomcat-overlay");
+        project.addProperty("clean.targets", "lib");
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, false );
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File deployDirectory = new File( getTestDirectory(), testId + "-tomcat" );
+        FileUtils.deleteDirectory( deployDirectory );
+
+        // configure mojo
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, deployDirectory, project );
+        setVariableValueToObject( mojo, "remoteRepositories", new ArrayList() );
+        mojo.execute();
+
+        // validate operation, the last overlay wins
+        assertEquals( "custom", FileUtils.fileRead( new File( deployDirectory, "conf/server.xml" ) ) );
+        assertEquals( "base", FileUtils.fileRead( new File( deployDirectory, "lib/base.jar" ) ) );
+        assertEquals( "extra", FileUtils.fileRead( new File( deployDirectory, "bin/setenv.sh" ) ) );
+
+        // deployed again, the clean targets only keep what the overlays provide
+        File stale = new File( deployDirectory, "lib/stale.jar" );
+        FileUtils.fileWrite( stale.getPath(), "stale" );
+        File other = new File( deployDirectory, "webapps/other.war" );
+        other.getParentFile().mkdirs();
+        FileUtils.fileWrite( other.getPath(), "other" );
+        mojo.execute();
+        assertFalse( stale.exists() );
+        assertTrue( other.exists() );
+        assertEquals( "custom", FileUtils.fileRead( new File( deployDirectory, "conf/server.xml" ) ) );
+    }
+
+    private Artifact createOverlay( String name, String[] paths, String content )
+        throws Exception
+    {
+        File zip = new File( getTestDirectory(), "overlays/" + name + ".zip" );
+        zip.getParentFile().mkdirs();
+        ArchiveWriter writer = new ArchiveWriter( zip, ArchiveWriter.FILE_TIMES, true );
+        for ( int i = 0; i < paths.length; i++ )
+        {
+            writer.addFile( paths[i], content.getBytes( "UTF-8" ) );
+        }
+        writer.write( null );
+        Artifact artifact = artifactFactory.createArtifact( "org.sakaiproject", name, "1.0", "compile", "zip" );
+        artifact.setFile( zip );
+        return artifact;
+    }
+
     /**
      * @throws Exception
      */
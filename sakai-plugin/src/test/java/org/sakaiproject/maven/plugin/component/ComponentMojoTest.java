@@ -19,19 +19,33 @@ package org.sakaiproject.maven.plugin.component;
  * under the License.
  */
 
+import org.sakaiproject.maven.plugin.component.stub.IncludeExcludeWarArtifactStub;
 import org.sakaiproject.maven.plugin.component.stub.MavenProject4CopyConstructor;
 import org.sakaiproject.maven.plugin.component.stub.ProjectHelperStub;
 import org.sakaiproject.maven.plugin.component.stub.SimpleWarArtifact4CCStub;
+import org.sakaiproject.maven.plugin.component.stub.SimpleWarArtifactStub;
+import org.apache.maven.archiver.ManifestSection;
+import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.model.Resource;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 
 /**
@@ -274,4 +288,364 @@ public class ComponentMojoTest
         assertTrue( "pom properties not found",
                     jarContent.contains( "META-INF/maven/org.apache.maven.plugin.test/maven-war-plugin-test/pom.properties" ) );
     }
+
+    public void testIncrementalAssembly()
+        throws Exception
+    {
+        String testId = "IncrementalAssembly";
+        MavenProject4CopyConstructor project = new MavenProject4CopyConstructor();
+        String outputDir = getTestDirectory().getAbsolutePath() + "/" + testId + "-output";
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        SimpleWarArtifact4CCStub warArtifact = new SimpleWarArtifact4CCStub( getBasedir() );
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, false );
+        File xmlSource = createXMLConfigDir( testId, new String[]{"web.xml"} );
+        File manifestFile = new File( outputDir, "sakai-assembly.manifest" );
+
+        project.setArtifact( warArtifact );
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, null, project );
+        setVariableValueToObject( mojo, "outputDirectory", outputDir );
+        setVariableValueToObject( mojo, "warName", "simple" );
+        setVariableValueToObject( mojo, "assemblyManifest", manifestFile );
+        mojo.setWebXml( new File( xmlSource, "web.xml" ) );
+
+        mojo.execute();
+
+        File oldClass = new File( webAppDirectory, "WEB-INF/classes/sample-servlet.class" );
+        assertTrue( "assembly manifest not written", manifestFile.exists() );
+        assertTrue( "class not copied: " + oldClass, oldClass.exists() );
+
+        // replace the class and rebuild
+        assertTrue( new File( classesDir, "sample-servlet.class" ).delete() );
+        createFile( new File( classesDir, "org/sample/Renamed.class" ) );
+
+        mojo.execute();
+
+        assertFalse( "stale class not removed: " + oldClass, oldClass.exists() );
+        assertTrue( "new class not copied",
+                    new File( webAppDirectory, "WEB-INF/classes/org/sample/Renamed.class" ).exists() );
+        assertTrue( "web source removed", new File( webAppDirectory, "pansit.jsp" ).exists() );
+        assertTrue( "web xml removed", new File( webAppDirectory, "WEB-INF/web.xml" ).exists() );
+
+        // outputs deleted since the last build are copied again, although their sources did not change
+        File jsp = new File( webAppDirectory, "pansit.jsp" );
+        assertTrue( jsp.delete() );
+        mojo.execute();
+        assertTrue( "deleted output not restored: " + jsp, jsp.exists() );
+
+        FileUtils.deleteDirectory( webAppDirectory );
+        mojo.execute();
+        assertTrue( "deleted webapp not restored: " + jsp, jsp.exists() );
+        assertTrue( "deleted class not restored",
+                    new File( webAppDirectory, "WEB-INF/classes/org/sample/Renamed.class" ).exists() );
+    }
+
+    public void testParallelAssembly()
+        throws Exception
+    {
+        Map[] contents = new Map[2];
+        int[] threads = { 1, 8 };
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            String testId = "ParallelAssembly" + threads[t];
+            MavenProject4CopyConstructor project = new MavenProject4CopyConstructor();
+            String outputDir = getTestDirectory().getAbsolutePath() + "/" + testId + "-output";
+            File webAppDirectory = new File( getTestDirectory(), testId );
+            File webAppSource = createWebAppSource( testId );
+            File classesDir = createClassesDir( testId, false );
+            File xmlSource = createXMLConfigDir( testId, new String[]{"web.xml"} );
+            for ( int i = 0; i < 300; i++ )
+            {
+                File page = new File( webAppSource, "pages/" + ( i % 10 ) + "/page" + i + ".jsp" );
+                page.getParentFile().mkdirs();
+                FileUtils.fileWrite( page.getPath(), "page " + i );
+                File clazz = new File( classesDir, "org/sample/Class" + i + ".class" );
+                clazz.getParentFile().mkdirs();
+                FileUtils.fileWrite( clazz.getPath(), "class " + i );
+            }
+
+            project.setArtifact( new SimpleWarArtifact4CCStub( getBasedir() ) );
+            this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, null, project );
+            setVariableValueToObject( mojo, "outputDirectory", outputDir );
+            setVariableValueToObject( mojo, "warName", "simple" );
+            setVariableValueToObject( mojo, "assemblyThreads", new Integer( threads[t] ) );
+            setVariableValueToObject( mojo, "assemblyManifest", new File( outputDir, "sakai-assembly.manifest" ) );
+            mojo.setWebXml( new File( xmlSource, "web.xml" ) );
+            mojo.execute();
+
+            contents[t] = new HashMap();
+            for ( Iterator i = FileUtils.getFileNames( webAppDirectory, null, null, false ).iterator(); i.hasNext(); )
+            {
+                String name = (String) i.next();
+                // the sample sources hold their own path, which has the test id in it
+                contents[t].put( name, FileUtils.fileRead( new File( webAppDirectory, name ) ).replace( testId, "" ) );
+            }
+        }
+        assertTrue( contents[0].containsKey( "pages/9/page299.jsp".replace( '/', File.separatorChar ) ) );
+        assertEquals( "assembled with several threads differs", contents[0], contents[1] );
+    }
+
+    public void testIncrementalPackaging()
+        throws Exception
+    {
+        String testId = "IncrementalPackaging";
+        MavenProject4CopyConstructor project = new MavenProject4CopyConstructor();
+        String outputDir = getTestDirectory().getAbsolutePath() + "/" + testId + "-output";
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, true );
+        File xmlSource = createXMLConfigDir( testId, new String[]{"web.xml"} );
+
+        project.setArtifact( new SimpleWarArtifact4CCStub( getBasedir() ) );
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, null, project );
+        setVariableValueToObject( mojo, "outputDirectory", outputDir );
+        setVariableValueToObject( mojo, "warName", "simple" );
+        setVariableValueToObject( mojo, "assemblyManifest", new File( outputDir, "sakai-assembly.manifest" ) );
+        mojo.setWebXml( new File( xmlSource, "web.xml" ) );
+
+        mojo.execute();
+        File warFile = new File( outputDir, "simple.war" );
+        Object written = Files.readAttributes( warFile.toPath(), BasicFileAttributes.class ).fileKey();
+        assertTrue( "war fingerprint not written", new File( outputDir, "simple.war.fingerprint" ).exists() );
+
+        // an unchanged webapp is not packaged again
+        mojo.execute();
+        assertEquals( written, Files.readAttributes( warFile.toPath(), BasicFileAttributes.class ).fileKey() );
+
+        File jsp = new File( webAppSource, "pansit.jsp" );
+        FileUtils.fileWrite( jsp.getPath(), "changed" );
+        jsp.setLastModified( jsp.lastModified() + 2000 );
+        mojo.execute();
+
+        JarFile jarFile = new JarFile( warFile );
+        try
+        {
+            assertEquals( "changed", IOUtil.toString( jarFile.getInputStream( jarFile.getEntry( "pansit.jsp" ) ) ) );
+            assertNotNull( "web xml not found", jarFile.getEntry( "WEB-INF/web.xml" ) );
+        }
+        finally
+        {
+            jarFile.close();
+        }
+    }
+
+    public void testArchiveConfiguration()
+        throws Exception
+    {
+        String testId = "ArchiveConfiguration";
+        MavenProject4CopyConstructor project = new MavenProject4CopyConstructor();
+        String outputDir = getTestDirectory().getAbsolutePath() + "/" + testId + "-output";
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, true );
+        File xmlSource = createXMLConfigDir( testId, new String[]{"web.xml"} );
+        File zip = new File( webAppSource, "downloads/sample.zip" );
+        zip.getParentFile().mkdirs();
+        FileUtils.fileWrite( zip.getPath(), "not deflated, however well it would compress" );
+        File pomProperties = new File( outputDir, "custom-pom.properties" );
+        pomProperties.getParentFile().mkdirs();
+        FileUtils.fileWrite( pomProperties.getPath(), "buildNumber=42\n" );
+
+        MavenArchiveConfiguration archive = new MavenArchiveConfiguration();
+        archive.addManifestEntry( "Sakai-Tool", "sample" );
+        ManifestSection section = new ManifestSection();
+        section.setName( "org/web/app/" );
+        section.addManifestEntry( "Sealed", "true" );
+        archive.addManifestSection( section );
+        archive.setPomPropertiesFile( pomProperties );
+        archive.setRecompressAddedZips( false );
+
+        project.setArtifact( new SimpleWarArtifact4CCStub( getBasedir() ) );
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, null, project );
+        setVariableValueToObject( mojo, "outputDirectory", outputDir );
+        setVariableValueToObject( mojo, "warName", "simple" );
+        setVariableValueToObject( mojo, "archive", archive );
+        setVariableValueToObject( mojo, "storedExtensions", "none" );
+        mojo.setWebXml( new File( xmlSource, "web.xml" ) );
+
+        mojo.execute();
+
+        JarFile jarFile = new JarFile( new File( outputDir, "simple.war" ) );
+        try
+        {
+            Manifest manifest = jarFile.getManifest();
+            assertEquals( "sample", manifest.getMainAttributes().getValue( "Sakai-Tool" ) );
+            assertEquals( "true", manifest.getAttributes( "org/web/app/" ).getValue( "Sealed" ) );
+            assertEquals( ZipEntry.STORED, jarFile.getEntry( "downloads/sample.zip" ).getMethod() );
+            assertEquals( ZipEntry.DEFLATED, jarFile.getEntry( "pansit.jsp" ).getMethod() );
+            Properties properties = new Properties();
+            properties.load( jarFile.getInputStream(
+                jarFile.getEntry( "META-INF/maven/org.apache.maven.plugin.test/maven-war-plugin-test/pom.properties" ) ) );
+            assertEquals( "42", properties.getProperty( "buildNumber" ) );
+            assertEquals( "maven-war-plugin-test", properties.getProperty( "artifactId" ) );
+        }
+        finally
+        {
+            jarFile.close();
+        }
+
+        // an index is not written, but no longer fails builds which asked for one
+        archive.setIndex( true );
+        archive.setForced( false );
+        FileUtils.fileWrite( new File( webAppSource, "pansit.jsp" ).getPath(), "<%-- indexed --%>" );
+        mojo.execute();
+        jarFile = new JarFile( new File( outputDir, "simple.war" ) );
+        try
+        {
+            assertNull( jarFile.getEntry( "META-INF/INDEX.LIST" ) );
+            assertNotNull( jarFile.getEntry( "pansit.jsp" ) );
+        }
+        finally
+        {
+            jarFile.close();
+        }
+    }
+
+    public void testFilteredWebResources()
+        throws Exception
+    {
+        String testId = "FilteredWebResources";
+        MavenProject4CopyConstructor project = new MavenProject4CopyConstructor();
+        String outputDir = getTestDirectory().getAbsolutePath() + "/" + testId + "-output";
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, true );
+        File resources = new File( getTestDirectory(), testId + "-resources" );
+        resources.mkdirs();
+        FileUtils.fileWrite( new File( resources, "version.txt" ).getPath(), "${project.version} @project.artifactId@" );
+        FileUtils.fileWrite( new File( resources, "plain.txt" ).getPath(), "mail admin@example.org" );
+        File image = new File( resources, "image.png" );
+        FileUtils.fileWrite( image, "ISO-8859-1", "\u0089PNG\u0000${project.version}" );
+
+        Resource resource = new Resource();
+        resource.setDirectory( resources.getPath() );
+        resource.setFiltering( true );
+        project.setArtifact( new SimpleWarArtifact4CCStub( getBasedir() ) );
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, null, project );
+        setVariableValueToObject( mojo, "outputDirectory", outputDir );
+        setVariableValueToObject( mojo, "warName", "simple" );
+        setVariableValueToObject( mojo, "webResources", new Resource[] { resource } );
+        setVariableValueToObject( mojo, "assemblyManifest", new File( outputDir, "sakai-assembly.manifest" ) );
+
+        mojo.execute();
+
+        File version = new File( webAppDirectory, "version.txt" );
+        assertEquals( "0.0-Test maven-war-plugin-test", FileUtils.fileRead( version ) );
+        assertEquals( "mail admin@example.org", FileUtils.fileRead( new File( webAppDirectory, "plain.txt" ) ) );
+        assertEquals( "binary file filtered", FileUtils.fileRead( image, "ISO-8859-1" ),
+                      FileUtils.fileRead( new File( webAppDirectory, "image.png" ), "ISO-8859-1" ) );
+
+        // an unchanged rebuild leaves the filtered file alone
+        version.setLastModified( 1000000000000L );
+        mojo.execute();
+        assertEquals( 1000000000000L, version.lastModified() );
+    }
+
+    public void testStreamedOverlay()
+        throws Exception
+    {
+        String[] modes = { AbstractComponentMojo.OVERLAY_UNPACK, AbstractComponentMojo.OVERLAY_STREAM };
+        for ( int i = 0; i < modes.length; i++ )
+        {
+            String testId = "Overlay-" + modes[i];
+            final Set artifacts = new HashSet();
+            artifacts.add( new IncludeExcludeWarArtifactStub( getBasedir() ) );
+            MavenProject4CopyConstructor project = new MavenProject4CopyConstructor()
+            {
+                public Set getArtifacts()
+                {
+                    return artifacts;
+                }
+            };
+            String outputDir = getTestDirectory().getAbsolutePath() + "/" + testId + "-output";
+            File webAppDirectory = new File( getTestDirectory(), testId );
+            File webAppSource = createWebAppSource( testId );
+            File classesDir = createClassesDir( testId, true );
+            File xmlSource = createXMLConfigDir( testId, new String[]{"web.xml"} );
+
+            project.setArtifact( new SimpleWarArtifact4CCStub( getBasedir() ) );
+            this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, null, project );
+            setVariableValueToObject( mojo, "outputDirectory", outputDir );
+            setVariableValueToObject( mojo, "warName", "simple" );
+            setVariableValueToObject( mojo, "workDirectory", new File( outputDir, "work" ) );
+            setVariableValueToObject( mojo, "dependentWarExcludes", "**/*Exclude/**" );
+            setVariableValueToObject( mojo, "overlayMode", modes[i] );
+            mojo.setWebXml( new File( xmlSource, "web.xml" ) );
+
+            mojo.execute();
+
+            assertTrue( modes[i] + ": overlay not copied",
+                        new File( webAppDirectory, "org/sample/company/testInclude.jsp" ).exists() );
+            assertFalse( modes[i] + ": excluded overlay file copied",
+                         new File( webAppDirectory, "org/sample/companyExclude/test.jsp" ).exists() );
+            assertEquals( modes[i] + ": web.xml of the war source overwritten", mojo.getWebXml().toString(),
+                          FileUtils.fileRead( new File( webAppDirectory, "WEB-INF/web.xml" ) ) );
+            assertEquals( modes[i] + ": work directory", AbstractComponentMojo.OVERLAY_UNPACK.equals( modes[i] ),
+                          new File( outputDir, "work" ).exists() );
+        }
+    }
+
+    public void testOverlayCacheSkipsUnknownArchives()
+        throws Exception
+    {
+        String testId = "OverlayCache";
+        final File unknown = new File( getTestDirectory(), testId + "-dependency.bin" );
+        final Set artifacts = new HashSet();
+        artifacts.add( new IncludeExcludeWarArtifactStub( getBasedir() ) );
+        artifacts.add( new SimpleWarArtifactStub( getBasedir() )
+        {
+            public String getArtifactId()
+            {
+                return "unknown";
+            }
+
+            public File getFile()
+            {
+                return unknown;
+            }
+        } );
+        MavenProject4CopyConstructor project = new MavenProject4CopyConstructor()
+        {
+            public Set getArtifacts()
+            {
+                return artifacts;
+            }
+        };
+        String outputDir = getTestDirectory().getAbsolutePath() + "/" + testId + "-output";
+        File webAppDirectory = new File( getTestDirectory(), testId );
+        File webAppSource = createWebAppSource( testId );
+        File classesDir = createClassesDir( testId, true );
+        File xmlSource = createXMLConfigDir( testId, new String[]{"web.xml"} );
+        File cacheDir = new File( outputDir, "overlay-cache" );
+        FileUtils.deleteDirectory( cacheDir );
+        FileUtils.fileWrite( unknown.getPath(), "not an archive" );
+
+        project.setArtifact( new SimpleWarArtifact4CCStub( getBasedir() ) );
+        this.configureMojo( mojo, new LinkedList(), classesDir, webAppSource, webAppDirectory, null, project );
+        setVariableValueToObject( mojo, "outputDirectory", outputDir );
+        setVariableValueToObject( mojo, "warName", "simple" );
+        setVariableValueToObject( mojo, "workDirectory", new File( outputDir, "work" ) );
+        setVariableValueToObject( mojo, "overlayCacheDirectory", cacheDir );
+        mojo.setWebXml( new File( xmlSource, "web.xml" ) );
+
+        for ( int build = 0; build < 2; build++ )
+        {
+            mojo.execute();
+            assertTrue( "overlay not copied",
+                        new File( webAppDirectory, "org/sample/company/testInclude.jsp" ).exists() );
+
+            // the war has an entry, the file without an unarchiver has none, not even an empty one
+            List entries = new ArrayList();
+            String[] names = cacheDir.list();
+            for ( int i = 0; i < names.length; i++ )
+            {
+                if ( !names[i].endsWith( ".lock" ) )
+                {
+                    entries.add( names[i] );
+                }
+            }
+            assertEquals( entries.toString(), 1, entries.size() );
+            assertTrue( entries.toString(), ( (String) entries.get( 0 ) ).startsWith( "include-exclude-" ) );
+        }
+    }
 }
@@ -102,6 +102,45 @@ public class ConfigurationMojoTest
         		zipContent.containsKey( "source/org/web/app/last-exile.jsp" ) );
     }
 
+    public void testOutputInsideConfiguration()
+        throws Exception
+    {
+        String testId = "OutputInsideConfig";
+        MavenProject4CopyConstructor project = new MavenProject4CopyConstructor();
+        createWebAppSource( testId );
+        File configurationDir = getBaseSampleDir( testId );
+        String outputDir = new File( configurationDir, "target" ).getAbsolutePath();
+
+        project.setArtifact( new SimpleConfigurationArtifact4CCStub( getBasedir() ) );
+        mojo.setProject( project );
+        setVariableValueToObject( mojo, "projectHelper", new ProjectHelperStub() );
+        setVariableValueToObject( mojo, "outputDirectory", outputDir );
+        setVariableValueToObject( mojo, "configurationDirectory", configurationDir.getAbsolutePath() );
+        setVariableValueToObject( mojo, "configurationName", "simple" );
+
+        // the second build sees the archive and fingerprint of the first in the configuration directory
+        mojo.execute();
+        mojo.execute();
+
+        HashSet zipContent = new HashSet();
+        ZipFile zipFile = new ZipFile( new File( outputDir, "simple.configuration" ) );
+        try
+        {
+            for ( Enumeration enumeration = zipFile.entries(); enumeration.hasMoreElements(); )
+            {
+                zipContent.add( ( (ZipEntry) enumeration.nextElement() ).getName() );
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        assertTrue( zipContent.contains( "source/org/web/app/last-exile.jsp" ) );
+        assertFalse( zipContent.contains( "target/simple.configuration" ) );
+        assertFalse( zipContent.contains( "target/simple.configuration.fingerprint" ) );
+        assertFalse( zipContent.contains( "target/simple.configuration.tmp" ) );
+    }
+
     public void testClassifier()
         throws Exception
     {
@@ -0,0 +1,260 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class CopyEngineTest
+    extends TestCase
+{
+    public void testSingleThreadRunsInline()
+        throws Exception
+    {
+        CopyEngine engine = new CopyEngine( 1 );
+        final Thread caller = Thread.currentThread();
+        final boolean[] inline = new boolean[1];
+        engine.submit( () -> inline[0] = Thread.currentThread() == caller );
+        assertTrue( "task not run on the calling thread", inline[0] );
+        try
+        {
+            engine.submit( () -> {
+                throw new IOException( "inline" );
+            } );
+            fail( "failure of an inline task not reported by submit" );
+        }
+        catch ( IOException e )
+        {
+            assertEquals( "inline", e.getMessage() );
+        }
+        engine.flush();
+        engine.shutdown();
+    }
+
+    public void testEarliestFailureReported()
+        throws Exception
+    {
+        CopyEngine engine = new CopyEngine( 2 );
+        final CountDownLatch firstStarted = new CountDownLatch( 1 );
+        final CountDownLatch laterFailed = new CountDownLatch( 1 );
+        try
+        {
+            // the first task fails only after the second one did; the second waits for the first to start,
+            // as a task which has not started when another fails is skipped
+            engine.submit( () -> {
+                firstStarted.countDown();
+                try
+                {
+                    laterFailed.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException( "first" );
+            } );
+            engine.submit( () -> {
+                try
+                {
+                    firstStarted.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                try
+                {
+                    throw new IOException( "second" );
+                }
+                finally
+                {
+                    laterFailed.countDown();
+                }
+            } );
+            try
+            {
+                engine.flush();
+                fail( "failure not reported" );
+            }
+            catch ( IOException e )
+            {
+                assertEquals( "first", e.getMessage() );
+            }
+
+            // a runtime failure is reported as it is, and the engine is usable after a failed batch
+            engine.submit( () -> {
+                throw new IllegalStateException( "runtime" );
+            } );
+            try
+            {
+                engine.flush();
+                fail( "failure not reported" );
+            }
+            catch ( IllegalStateException e )
+            {
+                assertEquals( "runtime", e.getMessage() );
+            }
+            final AtomicInteger runs = new AtomicInteger();
+            for ( int i = 0; i < 10; i++ )
+            {
+                engine.submit( () -> runs.incrementAndGet() );
+            }
+            engine.flush();
+            assertEquals( 10, runs.get() );
+        }
+        finally
+        {
+            engine.shutdown();
+        }
+    }
+
+    public void testTasksSkippedAfterFailure()
+        throws Exception
+    {
+        CopyEngine engine = new CopyEngine( 2 );
+        final CountDownLatch failed = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicInteger runs = new AtomicInteger();
+        try
+        {
+            // keeps one thread busy, so the tasks after the failing one queue up
+            engine.submit( () -> {
+                try
+                {
+                    release.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            } );
+            engine.submit( () -> {
+                failed.countDown();
+                throw new IOException( "failed" );
+            } );
+            assertTrue( failed.await( 10, TimeUnit.SECONDS ) );
+            for ( int i = 0; i < 10; i++ )
+            {
+                engine.submit( () -> runs.incrementAndGet() );
+            }
+            release.countDown();
+            try
+            {
+                engine.flush();
+                fail( "failure not reported" );
+            }
+            catch ( IOException e )
+            {
+                assertEquals( "failed", e.getMessage() );
+            }
+            assertEquals( "tasks run after the batch failed", 0, runs.get() );
+        }
+        finally
+        {
+            engine.shutdown();
+        }
+    }
+
+    public void testSubmitBlocksWhenQueueIsFull()
+        throws Exception
+    {
+        final CopyEngine engine = new CopyEngine( 2 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch submitted = new CountDownLatch( 1 );
+        final CopyEngine.Task blocked = () -> {
+            try
+            {
+                release.await( 10, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try
+        {
+            Thread producer = new Thread( () -> {
+                try
+                {
+                    // two threads with 64 queued tasks each
+                    for ( int i = 0; i < 2 * 64 + 1; i++ )
+                    {
+                        engine.submit( blocked );
+                    }
+                    submitted.countDown();
+                }
+                catch ( IOException e )
+                {
+                    // reported by the assertion below
+                }
+            } );
+            producer.start();
+            assertFalse( "submit did not block on a full queue", submitted.await( 500, TimeUnit.MILLISECONDS ) );
+            release.countDown();
+            assertTrue( "submit still blocked", submitted.await( 10, TimeUnit.SECONDS ) );
+            producer.join();
+            engine.flush();
+        }
+        finally
+        {
+            release.countDown();
+            engine.shutdown();
+        }
+    }
+
+    public void testShutdownAfterFailure()
+        throws Exception
+    {
+        CopyEngine engine = new CopyEngine( 2 );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final boolean[] interrupted = new boolean[1];
+        engine.submit( () -> {
+            started.countDown();
+            try
+            {
+                Thread.sleep( 10000 );
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted[0] = true;
+            }
+        } );
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+        engine.submit( () -> {
+            throw new IOException( "failed" );
+        } );
+        // as the mojo does when it gives up on a build, without waiting for the batch
+        engine.shutdown();
+        try
+        {
+            engine.flush();
+            fail( "failure not reported" );
+        }
+        catch ( IOException e )
+        {
+            assertEquals( "failed", e.getMessage() );
+        }
+        assertTrue( "pending task not interrupted", interrupted[0] );
+    }
+}
@@ -0,0 +1,193 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.archiver.UnArchiver;
+import org.codehaus.plexus.archiver.manager.ArchiverManager;
+import org.codehaus.plexus.util.FileUtils;
+
+public class DeployLedgerTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/deployledger-test" );
+
+    public void testUpToDate()
+        throws Exception
+    {
+        File home = new File( testDirectory, "uptodate" );
+        FileUtils.deleteDirectory( home );
+        File jar = write( home, "lib/a-1.jar", "a" );
+
+        DeployLedger ledger = new DeployLedger( home );
+        DeployLedger.Deployment deployment = ledger.begin( "org:a", 42 );
+        assertFalse( deployment.isUpToDate() );
+        deployment.addFile( jar, DeployLedger.NO_CRC );
+        deployment.commit();
+        assertEquals( "1 file(s) added, 0 changed and 0 removed", deployment.getSummary() );
+
+        assertTrue( ledger.begin( "org:a", 42 ).isUpToDate() );
+        assertFalse( ledger.begin( "org:a", 43 ).isUpToDate() );
+        assertFalse( ledger.begin( "org:b", 42 ).isUpToDate() );
+
+        jar.setLastModified( jar.lastModified() - 60000 );
+        assertFalse( ledger.begin( "org:a", 42 ).isUpToDate() );
+
+        deployment = ledger.begin( "org:a", 42 );
+        deployment.addFile( jar, DeployLedger.NO_CRC );
+        deployment.setIncomplete();
+        deployment.commit();
+        assertFalse( ledger.begin( "org:a", 42 ).isUpToDate() );
+    }
+
+    public void testLeftoversRemoved()
+        throws Exception
+    {
+        File home = new File( testDirectory, "leftovers" );
+        FileUtils.deleteDirectory( home );
+        DeployLedger ledger = new DeployLedger( home );
+
+        DeployLedger.Deployment deployment = ledger.begin( "org:a", 1 );
+        File oldJar = write( home, "lib/a-1.jar", "a" );
+        File shared = write( home, "lib/shared.jar", "shared" );
+        File notes = write( home, "conf/notes.txt", "notes" );
+        deployment.addFile( oldJar, DeployLedger.NO_CRC );
+        deployment.addFile( shared, DeployLedger.NO_CRC );
+        deployment.addFile( notes, DeployLedger.NO_CRC );
+        deployment.commit();
+
+        deployment = ledger.begin( "org:b", 1 );
+        deployment.addFile( shared, DeployLedger.NO_CRC );
+        deployment.commit();
+
+        // changed after it was deployed
+        write( home, "conf/notes.txt", "edited notes" );
+
+        deployment = ledger.begin( "org:a", 2 );
+        File newJar = new File( home, "lib/a-2.jar" );
+        // before the new version is written, as handleDuplicates would
+        assertEquals( 1, deployment.removeLeftovers( Collections.singleton( newJar ) ) );
+        assertFalse( oldJar.exists() );
+        write( home, "lib/a-2.jar", "a" );
+        deployment.addFile( newJar, DeployLedger.NO_CRC );
+        deployment.commit();
+        assertEquals( "1 file(s) added, 0 changed and 1 removed", deployment.getSummary() );
+
+        assertTrue( shared.exists() );
+        assertTrue( notes.exists() );
+        assertEquals( Collections.singleton( "lib/a-2.jar" ), ledger.read( "org:a" ).getPaths() );
+        assertEquals( Collections.singleton( "lib/shared.jar" ), ledger.read( "org:b" ).getPaths() );
+    }
+
+    public void testArchiveRecorded()
+        throws Exception
+    {
+        File home = new File( testDirectory, "archive" );
+        FileUtils.deleteDirectory( home );
+        File war = new File( testDirectory, "component.war" );
+        ArchiveWriter writer = new ArchiveWriter( war, ArchiveWriter.FILE_TIMES, true );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            writer.addFile( "WEB-INF/classes/org/sample/Class" + i + ".class", new byte[] { (byte) i } );
+        }
+        writer.write( null );
+        File deployed = new File( home, "components/component" );
+        new ArchiveSync( war, deployed, ArchiveSync.getIndexFile( deployed ) ).sync();
+
+        DeployLedger ledger = new DeployLedger( home );
+        DeployLedger.Deployment deployment = ledger.begin( "org:component", 7 );
+        deployment.addArchive( war, deployed );
+        deployment.commit();
+
+        DeployLedger.Record record = ledger.read( "org:component" );
+        assertEquals( 7, record.getFingerprint() );
+        assertEquals( 1000, record.getPaths().size() );
+        assertTrue( record.getPaths().contains( "components/component/WEB-INF/classes/org/sample/Class999.class" ) );
+        assertTrue( ledger.begin( "org:component", 7 ).isUpToDate() );
+    }
+
+    public void testUnpackedWithoutOverwriting()
+        throws Exception
+    {
+        File home = new File( testDirectory, "configuration" );
+        FileUtils.deleteDirectory( home );
+        File configuration = new File( home, "sakai" );
+        File local = write( home, "sakai/sakai.properties", "local" );
+        DeployLedger ledger = new DeployLedger( home );
+
+        deployConfiguration( ledger, configuration, new String[] { "sakai.properties", "placeholder.xml" } );
+        assertEquals( "local", FileUtils.fileRead( local ) );
+        assertEquals( Collections.singleton( "sakai/placeholder.xml" ), ledger.read( "org:config" ).getPaths() );
+
+        // the placeholder is not written again, but still belongs to the project
+        deployConfiguration( ledger, configuration, new String[] { "placeholder.xml", "other.xml" } );
+        assertEquals( new HashSet( Arrays.asList( new String[] { "sakai/placeholder.xml", "sakai/other.xml" } ) ),
+                      ledger.read( "org:config" ).getPaths() );
+
+        assertEquals( 1, deployConfiguration( ledger, configuration, new String[] { "other.xml" } ) );
+        assertFalse( new File( configuration, "placeholder.xml" ).exists() );
+        assertEquals( "local", FileUtils.fileRead( local ) );
+    }
+
+    /**
+     * Deploys a configuration archive holding the given files as the mojo
+     * does, and removes the leftovers of the previous deploy.
+     *
+     * @return the number of leftovers removed
+     */
+    private int deployConfiguration( DeployLedger ledger, File directory, String[] names )
+        throws Exception
+    {
+        File archive = new File( testDirectory, "configuration.zip" );
+        ArchiveWriter writer = new ArchiveWriter( archive, ArchiveWriter.DEFAULT_TIMESTAMP, false );
+        for ( int i = 0; i < names.length; i++ )
+        {
+            writer.addFile( names[i], "packaged".getBytes( "UTF-8" ) );
+        }
+        writer.write( null );
+
+        DeployLedger.Deployment deployment = ledger.begin( "org:config", 0 );
+        Map existing = deployment.getUnpackTargets( archive, directory );
+        UnArchiver unArchiver = ( (ArchiverManager) lookup( ArchiverManager.ROLE ) ).getUnArchiver( "zip" );
+        unArchiver.setSourceFile( archive );
+        unArchiver.setDestDirectory( directory );
+        unArchiver.setOverwrite( false );
+        unArchiver.extract();
+        deployment.addUnpacked( archive, directory, existing );
+        int removed = deployment.removeLeftovers( Collections.EMPTY_SET );
+        deployment.commit();
+        return removed;
+    }
+
+    private static File write( File home, String path, String content )
+        throws Exception
+    {
+        File file = new File( home, path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), content );
+        return file;
+    }
+}
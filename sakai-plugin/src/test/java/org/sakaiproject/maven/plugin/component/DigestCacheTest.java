@@ -0,0 +1,79 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.Random;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class DigestCacheTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/digestcache-test" );
+
+    public void testKnownDigests()
+    {
+        assertEquals( 0xEF46DB3751D8E999L, DigestCache.hash( new byte[0] ) );
+        assertEquals( 0x44BC2CF5AD770999L, DigestCache.hash( "abc".getBytes() ) );
+        assertEquals( 0xFBCEA83C8A378BF1L, DigestCache.hash( "Nobody inspects the spammish repetition".getBytes() ) );
+    }
+
+    public void testFileDigestMatchesArrayDigest()
+        throws Exception
+    {
+        Random random = new Random( 42 );
+        int[] sizes = { 0, 7, 31, 32, 33, 64 * 1024 - 1, 64 * 1024 + 17, 200000 };
+        for ( int i = 0; i < sizes.length; i++ )
+        {
+            byte[] data = new byte[sizes[i]];
+            random.nextBytes( data );
+            File file = new File( testDirectory, "data-" + sizes[i] );
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite( file, "ISO-8859-1", new String( data, "ISO-8859-1" ) );
+            assertEquals( "size " + sizes[i], DigestCache.hash( data ), DigestCache.hash( file ) );
+        }
+    }
+
+    public void testTouchedFileIsNotCopied()
+        throws Exception
+    {
+        File source = new File( testDirectory, "touched/source.jar" );
+        File dest = new File( testDirectory, "touched/dest.jar" );
+        File cacheFile = new File( testDirectory, "touched/digests" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getPath(), "same content" );
+        FileUtils.fileWrite( dest.getPath(), "same content" );
+        dest.setLastModified( 1000000000000L );
+        source.setLastModified( 1500000000000L );
+
+        DigestCache digests = DigestCache.load( cacheFile );
+        assertFalse( FileTransfer.copyIfModified( source, dest, digests ) );
+        assertEquals( 1000000000000L, dest.lastModified() );
+        digests.save();
+        assertTrue( cacheFile.isFile() );
+
+        FileUtils.fileWrite( dest.getPath(), "other content" );
+        dest.setLastModified( 1000000000000L );
+        assertTrue( FileTransfer.copyIfModified( source, dest, DigestCache.load( cacheFile ) ) );
+        assertEquals( "same content", FileUtils.fileRead( dest ) );
+    }
+}
@@ -0,0 +1,153 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+
+public class FileScannerTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/filescanner-test" );
+
+    private static final String[] FILES = {
+        "index.jsp", "css/site.css", "WEB-INF/web.xml", "WEB-INF/lib/a.jar", "js/app.js",
+        "js/node_modules/lodash/index.js", ".git/config", "CVS/Entries", "notes.txt~" };
+
+    public void testMatchesDirectoryScanner()
+        throws Exception
+    {
+        File basedir = createTree( "plexus" );
+        String[][] includes = { null, { "**/*.jsp", "WEB-INF/**" }, { "js/**" } };
+        String[][] excludes = { null, { "**/node_modules/**" }, { "WEB-INF/lib/**", "css/" } };
+        for ( int i = 0; i < includes.length; i++ )
+        {
+            for ( int j = 0; j < excludes.length; j++ )
+            {
+                for ( int k = 0; k < 2; k++ )
+                {
+                    DirectoryScanner scanner = new DirectoryScanner();
+                    scanner.setBasedir( basedir );
+                    scanner.setIncludes( includes[i] );
+                    scanner.setExcludes( excludes[j] );
+                    if ( k == 0 )
+                    {
+                        scanner.addDefaultExcludes();
+                    }
+                    scanner.scan();
+
+                    FileScanner.Result result = new FileScanner( includes[i], excludes[j], k == 0 ).scan( basedir );
+                    String patterns = Arrays.toString( includes[i] ) + " " + Arrays.toString( excludes[j] );
+                    assertEquals( patterns, asSet( scanner.getIncludedFiles() ), asSet( result.getFileNames() ) );
+                    assertEquals( patterns, asSet( scanner.getIncludedDirectories() ),
+                                  new HashSet( result.directories ) );
+                }
+            }
+        }
+    }
+
+    public void testDefaultExcludes()
+        throws Exception
+    {
+        File basedir = createTree( "defaults" );
+        FileScanner.Result result = new FileScanner( null, null, true ).scan( basedir );
+        assertTrue( result.containsFile( "index.jsp" ) );
+        assertFalse( result.containsFile( path( ".git/config" ) ) );
+        assertFalse( result.containsFile( path( "CVS/Entries" ) ) );
+        assertFalse( result.containsFile( "notes.txt~" ) );
+        assertFalse( result.directories.contains( ".git" ) );
+
+        result = new FileScanner( null, null, false ).scan( basedir );
+        assertTrue( result.containsFile( path( ".git/config" ) ) );
+        assertTrue( result.containsFile( path( "CVS/Entries" ) ) );
+        assertTrue( result.containsFile( "notes.txt~" ) );
+    }
+
+    public void testExcludedSubtreePruned()
+        throws Exception
+    {
+        File basedir = createTree( "pruned" );
+        // the base directory, css, WEB-INF, WEB-INF/lib, js, js/node_modules, js/node_modules/lodash
+        assertEquals( 7, new FileScanner( null, null, true ).scan( basedir ).descended );
+
+        FileScanner.Result result =
+            new FileScanner( null, new String[] { "**/node_modules/**", "css/**" }, true ).scan( basedir );
+        assertTrue( result.containsFile( path( "js/app.js" ) ) );
+        assertFalse( result.containsFile( path( "js/node_modules/lodash/index.js" ) ) );
+        // neither node_modules nor css are entered
+        assertEquals( 4, result.descended );
+
+        result = new FileScanner( new String[] { "WEB-INF/**" }, null, true ).scan( basedir );
+        assertEquals( asSet( new String[] { path( "WEB-INF/web.xml" ), path( "WEB-INF/lib/a.jar" ) } ),
+                      asSet( result.getFileNames() ) );
+        assertEquals( 3, result.descended );
+    }
+
+    public void testScanCachedPerBasedir()
+        throws Exception
+    {
+        File first = createTree( "cache-first" );
+        File second = createTree( "cache-second" );
+        FileScanner scanner = new FileScanner( null, null, true );
+        FileScanner.Result result = scanner.scan( first );
+        assertSame( result, scanner.scan( first ) );
+        assertNotSame( result, scanner.scan( second ) );
+
+        File added = new File( first, "added.jsp" );
+        FileUtils.fileWrite( added.getPath(), "added" );
+        assertFalse( scanner.scan( first ).containsFile( "added.jsp" ) );
+        assertFalse( scanner.scan( second ).containsFile( "added.jsp" ) );
+
+        scanner.invalidate( first );
+        assertNotSame( result, scanner.scan( first ) );
+        assertTrue( scanner.scan( first ).containsFile( "added.jsp" ) );
+        assertEquals( FILES.length - 3, scanner.scan( second ).files.size() );
+    }
+
+    private static File createTree( String name )
+        throws Exception
+    {
+        File basedir = new File( testDirectory, name );
+        FileUtils.deleteDirectory( basedir );
+        for ( int i = 0; i < FILES.length; i++ )
+        {
+            File file = new File( basedir, FILES[i] );
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite( file.getPath(), FILES[i] );
+        }
+        return basedir;
+    }
+
+    private static String path( String name )
+    {
+        return name.replace( '/', File.separatorChar );
+    }
+
+    private static Set asSet( Object[] values )
+    {
+        return new HashSet( Arrays.asList( values ) );
+    }
+}
@@ -0,0 +1,78 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class FilterCacheTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/filtercache-test" );
+
+    public void testOnlyReferencedPropertiesMatter()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File webapp = new File( testDirectory, "webapp" );
+        File source = new File( testDirectory, "src/index.jsp" );
+        File output = new File( webapp, "index.jsp" );
+        File cacheFile = new File( testDirectory, "filters.cache" );
+        source.getParentFile().mkdirs();
+        output.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getPath(), "${title}" );
+        FileUtils.fileWrite( output.getPath(), "Home" );
+        BasicFileAttributes attributes = Files.readAttributes( source.toPath(), BasicFileAttributes.class );
+
+        Map properties = new HashMap();
+        properties.put( "title", "Home" );
+        properties.put( "unrelated", "1" );
+        FilterCache cache = FilterCache.load( cacheFile, webapp );
+        FilterCache.Lookups lookups = new FilterCache.Lookups( properties );
+        assertEquals( "Home", lookups.get( "title" ) );
+        assertNull( lookups.get( "missing" ) );
+        cache.record( "index.jsp", source, attributes, lookups, output );
+        cache.save();
+
+        properties.put( "unrelated", "2" );
+        assertTrue( FilterCache.load( cacheFile, webapp ).isUpToDate( "index.jsp", source, attributes, output,
+                                                                      properties ) );
+
+        properties.put( "missing", "now set" );
+        assertFalse( FilterCache.load( cacheFile, webapp ).isUpToDate( "index.jsp", source, attributes, output,
+                                                                       properties ) );
+        properties.remove( "missing" );
+
+        properties.put( "title", "Start" );
+        assertFalse( FilterCache.load( cacheFile, webapp ).isUpToDate( "index.jsp", source, attributes, output,
+                                                                       properties ) );
+        properties.put( "title", "Home" );
+
+        output.setLastModified( output.lastModified() - 10000 );
+        assertFalse( FilterCache.load( cacheFile, webapp ).isUpToDate( "index.jsp", source, attributes, output,
+                                                                       properties ) );
+    }
+}
@@ -0,0 +1,77 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Map;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class FilterFileCacheTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/filterfilecache-test" );
+
+    public void testLoadedOnceUntilChanged()
+        throws Exception
+    {
+        FilterFileCache.clear();
+        File filters = new File( testDirectory, "filters.properties" );
+        filters.getParentFile().mkdirs();
+        FileUtils.fileWrite( filters.getPath(), "host=example.org\nurl=http://${host}/\n" );
+        filters.setLastModified( 1500000000000L );
+
+        Map first = FilterFileCache.load( filters );
+        assertEquals( "http://example.org/", first.get( "url" ) );
+        assertSame( first, FilterFileCache.load( new File( testDirectory, "../filterfilecache-test/filters.properties" ) ) );
+
+        FileUtils.fileWrite( filters.getPath(), "host=example.com\nurl=http://${host}/\n" );
+        filters.setLastModified( 1500000001000L );
+        Map second = FilterFileCache.load( filters );
+        assertNotSame( first, second );
+        assertEquals( "http://example.com/", second.get( "url" ) );
+
+        try
+        {
+            second.put( "url", "changed" );
+            fail( "cached properties are modifiable" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+    }
+
+    public void testMissingFile()
+        throws Exception
+    {
+        try
+        {
+            FilterFileCache.load( new File( testDirectory, "missing.properties" ) );
+            fail( "missing file not reported" );
+        }
+        catch ( FileNotFoundException e )
+        {
+            // expected
+        }
+    }
+}
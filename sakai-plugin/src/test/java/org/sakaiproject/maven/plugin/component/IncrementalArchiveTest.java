@@ -0,0 +1,99 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class IncrementalArchiveTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/incrementalarchive-test" );
+
+    public void testUpToDate()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File archive = new File( testDirectory, "component.war" );
+        File fingerprintFile = new File( testDirectory, "component.war.fingerprint" );
+        assertTrue( newArchive( archive, "index" ).write( fingerprintFile ) );
+
+        long fingerprint = newArchive( archive, "index" ).getFingerprint();
+        assertTrue( new IncrementalArchive( archive, fingerprintFile, fingerprint, 0 ).isUpToDate() );
+        assertFalse( new IncrementalArchive( archive, fingerprintFile, fingerprint + 1, 0 ).isUpToDate() );
+        assertFalse( "changed content not detected", fingerprint == newArchive( archive, "other" ).getFingerprint() );
+
+        // an archive touched by something else is written again
+        archive.setLastModified( archive.lastModified() - 60000 );
+        assertFalse( new IncrementalArchive( archive, fingerprintFile, fingerprint, 0 ).isUpToDate() );
+        assertTrue( newArchive( archive, "index" ).write( fingerprintFile ) );
+        assertFalse( newArchive( archive, "index" ).write( fingerprintFile ) );
+    }
+
+    public void testReuse()
+        throws Exception
+    {
+        File archive = new File( testDirectory, "reuse.war" );
+        File fingerprintFile = new File( testDirectory, "reuse.war.fingerprint" );
+        fingerprintFile.delete();
+        ArchiveWriter writer = newArchive( archive, "index" );
+        writer.write( fingerprintFile );
+
+        IncrementalArchive incremental =
+            new IncrementalArchive( archive, fingerprintFile, writer.getFingerprint(), writer.getSettings() );
+        CRC32 crc = new CRC32();
+        crc.update( "index".getBytes( "UTF-8" ) );
+        incremental.open();
+        try
+        {
+            // an interrupted write is not taken for an up to date archive
+            assertFalse( fingerprintFile.exists() );
+            assertNotNull( incremental.find( "index.jsp", ZipEntry.DEFLATED, 5, crc.getValue() ) );
+            assertNull( incremental.find( "index.jsp", ZipEntry.DEFLATED, 6, crc.getValue() ) );
+            assertNull( incremental.find( "index.jsp", ZipEntry.DEFLATED, 5, crc.getValue() + 1 ) );
+            assertNull( incremental.find( "missing.jsp", ZipEntry.DEFLATED, 5, crc.getValue() ) );
+        }
+        finally
+        {
+            incremental.close();
+        }
+
+        // nothing is copied from an archive written with other compression settings
+        writer = newArchive( archive, "index" );
+        writer.write( fingerprintFile );
+        writer = new ArchiveWriter( archive, ArchiveWriter.DEFAULT_TIMESTAMP, true );
+        writer.setPolicy( CompressionPolicy.create( "best", null, "1.0" ) );
+        writer.addFile( "index.jsp", "index".getBytes( "UTF-8" ) );
+        assertTrue( writer.write( fingerprintFile ) );
+        assertEquals( 0, writer.getReused() );
+    }
+
+    private static ArchiveWriter newArchive( File archive, String content )
+        throws Exception
+    {
+        ArchiveWriter writer = new ArchiveWriter( archive, ArchiveWriter.DEFAULT_TIMESTAMP, true );
+        writer.addFile( "index.jsp", content.getBytes( "UTF-8" ) );
+        return writer;
+    }
+}
@@ -0,0 +1,104 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.InterpolationFilterReader;
+
+public class InterpolatorTest
+    extends TestCase
+{
+    private static Map properties()
+    {
+        Map properties = new HashMap();
+        properties.put( "a", "A" );
+        properties.put( "b", "x@a@y" );
+        properties.put( "empty", "" );
+        properties.put( "c}", "C" );
+        properties.put( "", "blank" );
+        return properties;
+    }
+
+    public void testTokens()
+    {
+        Map properties = properties();
+        assertEquals( "A and A", Interpolator.interpolate( "${a} and @a@", properties ) );
+        assertEquals( "${missing} @missing@", Interpolator.interpolate( "${missing} @missing@", properties ) );
+        assertEquals( "[]", Interpolator.interpolate( "[${empty}]", properties ) );
+        assertEquals( "xAy", Interpolator.interpolate( "${b}", properties ) );
+        assertEquals( "mail@example.org", Interpolator.interpolate( "mail@example.org", properties ) );
+    }
+
+    public void testPrefilter()
+        throws Exception
+    {
+        assertTrue( Interpolator.mayContainTokens( "url=${host}".getBytes( "UTF-8" ) ) );
+        assertTrue( Interpolator.mayContainTokens( "<b>@title@</b>".getBytes( "UTF-8" ) ) );
+        assertFalse( Interpolator.mayContainTokens( "mail admin@example.org, costs $5 {each}".getBytes( "UTF-8" ) ) );
+        assertFalse( Interpolator.mayContainTokens( "ends with $".getBytes( "UTF-8" ) ) );
+
+        assertTrue( Interpolator.isBinary( new byte[] { (byte) 0x89, 'P', 'N', 'G', 0, '$', '{' } ) );
+        assertFalse( Interpolator.isBinary( "caf\u00e9".getBytes( "UTF-8" ) ) );
+
+        assertTrue( Interpolator.isAsciiCompatible( Charset.forName( "UTF-8" ) ) );
+        assertTrue( Interpolator.isAsciiCompatible( Charset.forName( "ISO-8859-1" ) ) );
+        assertFalse( Interpolator.isAsciiCompatible( Charset.forName( "UTF-16" ) ) );
+    }
+
+    /**
+     * Compares random texts made of delimiters and token names with the
+     * reader chain the interpolator replaces.
+     */
+    public void testSameAsReaderChain()
+        throws Exception
+    {
+        Map properties = properties();
+        String[] pieces = { "$", "{", "}", "@", "a", "b", "c", "empty", " ", "\n", "$$", "${", "@@" };
+        Random random = new Random( 7 );
+        for ( int n = 0; n < 20000; n++ )
+        {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt( 12 );
+            for ( int i = 0; i < length; i++ )
+            {
+                text.append( pieces[random.nextInt( pieces.length )] );
+            }
+            assertEquals( text.toString(), readerChain( text.toString(), properties ),
+                          Interpolator.interpolate( text.toString(), properties ) );
+        }
+    }
+
+    static String readerChain( String text, Map properties )
+        throws Exception
+    {
+        Reader reader = new InterpolationFilterReader( new StringReader( text ), properties, "${", "}" );
+        reader = new InterpolationFilterReader( reader, properties, "@", "@" );
+        return IOUtil.toString( reader );
+    }
+}
@@ -0,0 +1,145 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class LibPlacementTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/libplacement-test" );
+
+    public void testPlacements()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File source = new File( testDirectory, "repository/dep-1.0.jar" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getPath(), "dependency" );
+
+        String[] modes = { LibPlacement.COPY, LibPlacement.HARDLINK, LibPlacement.REFLINK, LibPlacement.SYMLINK };
+        for ( int i = 0; i < modes.length; i++ )
+        {
+            LibPlacement placement = LibPlacement.forMode( modes[i], null, new SystemStreamLog() );
+            File dest = new File( testDirectory, modes[i] + "/WEB-INF/lib/dep-1.0.jar" );
+            assertTrue( modes[i], placement.place( source, dest ) );
+            placement.flush();
+            assertTrue( modes[i], placement.isPlaced( source, dest ) );
+            assertEquals( modes[i], "dependency", FileUtils.fileRead( dest ) );
+            assertFalse( modes[i], placement.place( source, dest ) );
+        }
+        assertTrue( Files.isSymbolicLink( new File( testDirectory, "symlink/WEB-INF/lib/dep-1.0.jar" ).toPath() ) );
+
+        // a clone, or a copy where the file system cannot clone, is a file of its own with the time of the source
+        File reflink = new File( testDirectory, "reflink/WEB-INF/lib/dep-1.0.jar" );
+        assertFalse( Files.isSymbolicLink( reflink.toPath() ) );
+        assertFalse( Files.isSameFile( source.toPath(), reflink.toPath() ) );
+        assertEquals( source.lastModified(), reflink.lastModified() );
+    }
+
+    public void testCopyReplacesLinks()
+        throws Exception
+    {
+        File source = new File( testDirectory, "repository/linked-1.0.jar" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getPath(), "linked" );
+        LibPlacement copy = LibPlacement.forMode( LibPlacement.COPY, null, new SystemStreamLog() );
+
+        String[] modes = { LibPlacement.SYMLINK, LibPlacement.HARDLINK };
+        for ( int i = 0; i < modes.length; i++ )
+        {
+            File dest = new File( testDirectory, "switched-" + modes[i] + "/WEB-INF/lib/linked-1.0.jar" );
+            LibPlacement.forMode( modes[i], null, new SystemStreamLog() ).place( source, dest );
+            assertFalse( modes[i], copy.isPlaced( source, dest ) );
+
+            // the link has the time and size of the jar, but is still replaced by a file of its own
+            assertTrue( modes[i], copy.place( source, dest ) );
+            assertTrue( modes[i], Files.isRegularFile( dest.toPath(), LinkOption.NOFOLLOW_LINKS ) );
+            assertFalse( modes[i], Files.isSameFile( source.toPath(), dest.toPath() ) );
+            assertEquals( modes[i], "linked", FileUtils.fileRead( dest ) );
+            assertTrue( modes[i], copy.isPlaced( source, dest ) );
+            assertFalse( modes[i], copy.place( source, dest ) );
+        }
+    }
+
+    public void testClonesAreBatched()
+        throws Exception
+    {
+        LibPlacement placement = LibPlacement.forMode( LibPlacement.REFLINK, null, new SystemStreamLog() );
+        File lib = new File( testDirectory, "batched/WEB-INF/lib" );
+        File[] sources = new File[3];
+        final List placed = new ArrayList();
+        for ( int i = 0; i < sources.length; i++ )
+        {
+            sources[i] = new File( testDirectory, "repository/batched-" + i + ".jar" );
+            sources[i].getParentFile().mkdirs();
+            FileUtils.fileWrite( sources[i].getPath(), "batched " + i );
+            final File dest = new File( lib, i == 2 ? "renamed.jar" : sources[i].getName() );
+            assertTrue( placement.place( sources[i], dest, () -> placed.add( dest.getName() ) ) );
+        }
+        // nothing is cloned before the flush
+        assertTrue( placed.isEmpty() );
+        assertFalse( lib.exists() );
+
+        placement.flush();
+        assertEquals( 3, placed.size() );
+        assertEquals( "batched 0", FileUtils.fileRead( new File( lib, "batched-0.jar" ) ) );
+        assertEquals( "batched 1", FileUtils.fileRead( new File( lib, "batched-1.jar" ) ) );
+        assertEquals( "batched 2", FileUtils.fileRead( new File( lib, "renamed.jar" ) ) );
+        assertEquals( sources[2].lastModified(), new File( lib, "renamed.jar" ).lastModified() );
+    }
+
+    public void testCopyDoesNotWriteThroughLinks()
+        throws Exception
+    {
+        File source = new File( testDirectory, "repository/shared-1.0.jar" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getPath(), "shared" );
+        File dest = new File( testDirectory, "overlay/WEB-INF/lib/shared-1.0.jar" );
+        LibPlacement.forMode( LibPlacement.HARDLINK, null, new SystemStreamLog() ).place( source, dest );
+
+        File overlay = new File( testDirectory, "overlay.jar" );
+        FileUtils.fileWrite( overlay.getPath(), "overlaid" );
+        FileTransfer.copy( overlay, dest );
+        assertEquals( "overlaid", FileUtils.fileRead( dest ) );
+        assertEquals( "shared", FileUtils.fileRead( source ) );
+    }
+
+    public void testUnknownMode()
+    {
+        try
+        {
+            LibPlacement.forMode( "teleport", null, new SystemStreamLog() );
+            fail( "unknown mode accepted" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+}
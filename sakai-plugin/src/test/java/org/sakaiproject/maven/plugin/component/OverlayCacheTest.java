@@ -0,0 +1,98 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class OverlayCacheTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/overlaycache-test" );
+
+    public void testPopulatedOnce()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        final File war = new File( getBasedir(), "target/test-classes/unit/sample_wars/simple.war" );
+        final OverlayCache cache = new OverlayCache( new File( testDirectory, "cache" ), null );
+        final AtomicInteger populated = new AtomicInteger();
+        final File[] results = new File[4];
+        final IOException[] failures = new IOException[results.length];
+
+        Thread[] threads = new Thread[results.length];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            final int n = i;
+            threads[i] = new Thread( () -> {
+                try
+                {
+                    results[n] = cache.get( war, "simple", directory -> {
+                        populated.incrementAndGet();
+                        FileUtils.fileWrite( new File( directory, "index.jsp" ).getPath(), "unpacked" );
+                    } );
+                }
+                catch ( IOException e )
+                {
+                    failures[n] = e;
+                }
+            } );
+            threads[i].start();
+        }
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i].join();
+            assertNull( failures[i] );
+            assertEquals( results[0], results[i] );
+        }
+
+        assertEquals( 1, populated.get() );
+        assertEquals( "unpacked", FileUtils.fileRead( new File( results[0], "index.jsp" ) ) );
+        assertTrue( results[0].getName().startsWith( "simple-" ) );
+    }
+
+    public void testFailedPopulationLeavesNoEntry()
+        throws Exception
+    {
+        File war = new File( getBasedir(), "target/test-classes/unit/sample_wars/simple.war" );
+        File directory = new File( testDirectory, "failing" );
+        OverlayCache cache = new OverlayCache( directory, null );
+        try
+        {
+            cache.get( war, "simple", dir -> {
+                throw new IOException( "corrupt war" );
+            } );
+            fail( "failure not reported" );
+        }
+        catch ( IOException e )
+        {
+            assertEquals( "corrupt war", e.getMessage() );
+        }
+        String[] left = directory.list();
+        for ( int i = 0; i < left.length; i++ )
+        {
+            assertTrue( left[i], left[i].endsWith( ".lock" ) );
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class OverlaySyncTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/overlaysync-test" );
+
+    public void testLastLayerWins()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File base = writeZip( "base.zip", new String[] { "conf/server.xml", "lib/base.jar", "lib/shared.jar" },
+                              new String[] { "base", "base", "base" } );
+        File custom = writeZip( "custom.zip", new String[] { "conf/server.xml", "lib/shared.jar" },
+                                new String[] { "custom", "custom" } );
+        File home = new File( testDirectory, "tomcat" );
+        // left by an older overlay, and deployed by something else
+        write( home, "lib/old/stale.jar", "stale" );
+        write( home, "webapps/portal.war", "portal" );
+        DeployLedger ledger = new DeployLedger( home );
+
+        DeployLedger.Deployment deployment = ledger.begin( "org:overlay", 1 );
+        OverlaySync sync = createSync( home, deployment, base, custom );
+        sync.sync( new CopyEngine( 4 ) );
+        deployment.commit();
+        // each path is written once, with the content of the last layer
+        assertEquals( 3, sync.getWritten() );
+        assertEquals( 2, sync.getDeleted() );
+        assertEquals( "custom", FileUtils.fileRead( new File( home, "conf/server.xml" ) ) );
+        assertEquals( "custom", FileUtils.fileRead( new File( home, "lib/shared.jar" ) ) );
+        assertEquals( "base", FileUtils.fileRead( new File( home, "lib/base.jar" ) ) );
+        assertFalse( new File( home, "lib/old" ).exists() );
+        assertTrue( new File( home, "webapps/portal.war" ).exists() );
+
+        Object key = fileKey( new File( home, "lib/base.jar" ) );
+        deployment = ledger.begin( "org:overlay", 1 );
+        sync = createSync( home, deployment, base, custom );
+        sync.sync( new CopyEngine( 1 ) );
+        deployment.commit();
+        assertEquals( 0, sync.getWritten() );
+        assertEquals( 3, sync.getUnchanged() );
+        assertEquals( 0, sync.getDeleted() );
+        assertEquals( key, fileKey( new File( home, "lib/base.jar" ) ) );
+    }
+
+    private static OverlaySync createSync( File home, DeployLedger.Deployment deployment, File base, File custom )
+    {
+        OverlaySync sync = new OverlaySync( home, Arrays.asList( new File[] { base, custom } ) );
+        sync.addCleanTarget( "lib" );
+        sync.setDeployment( deployment );
+        return sync;
+    }
+
+    private static File writeZip( String name, String[] paths, String[] contents )
+        throws Exception
+    {
+        File zip = new File( testDirectory, name );
+        ArchiveWriter writer = new ArchiveWriter( zip, ArchiveWriter.FILE_TIMES, true );
+        for ( int i = 0; i < paths.length; i++ )
+        {
+            writer.addFile( paths[i], contents[i].getBytes( "UTF-8" ) );
+        }
+        writer.write( null );
+        return zip;
+    }
+
+    private static void write( File home, String path, String content )
+        throws Exception
+    {
+        File file = new File( home, path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), content );
+    }
+
+    private static Object fileKey( File file )
+        throws Exception
+    {
+        return Files.readAttributes( file.toPath(), BasicFileAttributes.class ).fileKey();
+    }
+}
@@ -0,0 +1,104 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.AbstractScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+
+public class PathPatternsTest
+    extends TestCase
+{
+    private static final String[] PATTERNS = {
+        "**", "**/**", "*", "**/*.jsp", "*.jsp", "WEB-INF/**", "WEB-INF/", "WEB-INF/*.xml", "**/WEB-INF/web.xml",
+        "a/**/b", "a/**/b/**", "**/node_modules/**", "**/node_modules", "a/b?/c*d", "**/*~", "a/**/**/c",
+        "*/lib/*.jar", "**/.git/**" };
+
+    private static final String[] PATHS = {
+        "", "a", "a/b", "a/b/c", "a/x/y/b", "a/b1/cxd", "a/b12/cd", "pansit.jsp", "org/web/app/last-exile.jsp",
+        "WEB-INF", "WEB-INF/web.xml", "WEB-INF/lib/x.jar", "x/WEB-INF/web.xml", "node_modules",
+        "js/node_modules/lodash/index.js", "foo~", "dir/foo~", "a/c", "a/x/c", "WEB-INF/lib", ".git/config" };
+
+    public void testMatchesLikeSelectorUtils()
+    {
+        for ( int i = 0; i < PATTERNS.length; i++ )
+        {
+            PathPatterns compiled = PathPatterns.compile( new String[] { PATTERNS[i] } );
+            for ( int j = 0; j < PATHS.length; j++ )
+            {
+                assertEquals( PATTERNS[i] + " against " + PATHS[j],
+                              SelectorUtils.matchPath( normalize( PATTERNS[i] ), PATHS[j], "/", true ),
+                              compiled.matches( PATHS[j] ) );
+            }
+        }
+    }
+
+    public void testWholeSet()
+    {
+        PathPatterns compiled = PathPatterns.compile( PATTERNS );
+        PathPatterns defaults = PathPatterns.compile( AbstractScanner.DEFAULTEXCLUDES );
+        for ( int j = 0; j < PATHS.length; j++ )
+        {
+            boolean any = false;
+            for ( int i = 0; i < PATTERNS.length; i++ )
+            {
+                any |= SelectorUtils.matchPath( normalize( PATTERNS[i] ), PATHS[j], "/", true );
+            }
+            assertEquals( PATHS[j], any, compiled.matches( PATHS[j] ) );
+
+            boolean excluded = false;
+            for ( int i = 0; i < AbstractScanner.DEFAULTEXCLUDES.length; i++ )
+            {
+                excluded |= SelectorUtils.matchPath( AbstractScanner.DEFAULTEXCLUDES[i], PATHS[j], "/", true );
+            }
+            assertEquals( PATHS[j], excluded, defaults.matches( PATHS[j] ) );
+        }
+    }
+
+    /**
+     * DirectoryScanner treats a trailing separator as everything below.
+     */
+    private static String normalize( String pattern )
+    {
+        return pattern.endsWith( "/" ) ? pattern + "**" : pattern;
+    }
+
+    public void testSubtreeDecisions()
+    {
+        PathPatterns excludes = PathPatterns.compile( new String[] { "**/node_modules/**", "**/*.tmp" } );
+        PathPatterns.State state = excludes.step( excludes.step( excludes.start(), "js" ), "node_modules" );
+        assertTrue( excludes.matchesAllBelow( state ) );
+        assertFalse( excludes.matchesAllBelow( excludes.step( excludes.start(), "js" ) ) );
+
+        PathPatterns includes = PathPatterns.compile( new String[] { "WEB-INF/lib/*.jar" } );
+        assertTrue( includes.couldMatchBelow( includes.step( includes.start(), "WEB-INF" ) ) );
+        assertFalse( includes.couldMatchBelow( includes.step( includes.start(), "images" ) ) );
+    }
+
+    public void testSegmentWildcards()
+    {
+        assertTrue( PathPatterns.matchSegment( "*", "" ) );
+        assertTrue( PathPatterns.matchSegment( "a*b*c", "aXbYc" ) );
+        assertTrue( PathPatterns.matchSegment( "a?c", "abc" ) );
+        assertFalse( PathPatterns.matchSegment( "a?c", "ac" ) );
+        assertFalse( PathPatterns.matchSegment( "*.jsp", "a.jspx" ) );
+    }
+}
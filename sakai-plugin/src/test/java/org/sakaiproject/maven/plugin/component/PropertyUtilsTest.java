@@ -23,6 +23,7 @@ import org.apache.maven.plugin.testing.AbstractMojoTestCase;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.Properties;
 
 public class PropertyUtilsTest
@@ -92,4 +93,46 @@ public class PropertyUtilsTest
             // exception ok
         }
     }
+
+    public void testLongChain()
+        throws Exception
+    {
+        File chainProp = new File( testDirectory, "chain.properties" );
+        chainProp.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter( chainProp );
+        writer.write( "key0=end\n" );
+        for ( int i = 1; i < 20000; i++ )
+        {
+            writer.write( "key" + i + "=${key" + ( i - 1 ) + "}\n" );
+        }
+        writer.write( "open=${key19999" );
+        writer.close();
+
+        Properties prop = PropertyUtils.loadPropertyFile( chainProp, false, false );
+        assertEquals( "end", prop.getProperty( "key19999" ) );
+        assertEquals( "${key19999", prop.getProperty( "open" ) );
+    }
+
+    public void testCycle()
+        throws Exception
+    {
+        File cycleProp = new File( testDirectory, "cycle.properties" );
+        cycleProp.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter( cycleProp );
+        writer.write( "start=${a}\n" );
+        writer.write( "a=x${b}\n" );
+        writer.write( "b=${c}y\n" );
+        writer.write( "c=${a}\n" );
+        writer.close();
+
+        try
+        {
+            PropertyUtils.loadPropertyFile( cycleProp, false, false );
+            fail( "cycle not reported" );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().matches( ".*(a -> b -> c -> a|b -> c -> a -> b|c -> a -> b -> c)" ) );
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.sakaiproject.maven.plugin.component.stub.MavenProjectBasicStub;
+
+public class ReflectionPropertiesTest
+    extends TestCase
+{
+    public void testExpressionsAreEvaluatedOnce()
+        throws Exception
+    {
+        final int[] calls = new int[1];
+        MavenProjectBasicStub project = new MavenProjectBasicStub()
+        {
+            public String getVersion()
+            {
+                calls[0]++;
+                return super.getVersion();
+            }
+
+            public String getDescription()
+            {
+                calls[0]++;
+                return null;
+            }
+        };
+        ReflectionProperties properties = new ReflectionProperties( project );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertEquals( "0.0-Test", properties.get( "project.version" ) );
+            assertNull( properties.get( "project.description" ) );
+            assertNull( properties.get( "project.noSuchProperty" ) );
+        }
+        assertEquals( 2, calls[0] );
+    }
+
+    public void testProjectDominates()
+        throws Exception
+    {
+        Map filters = new HashMap();
+        filters.put( "project.version", "from filter" );
+        filters.put( "project.description", "from filter" );
+        MavenProjectBasicStub project = new MavenProjectBasicStub()
+        {
+            public String getDescription()
+            {
+                return null;
+            }
+        };
+        Map properties = new CompositeMap( new ReflectionProperties( project ), filters );
+
+        assertEquals( "0.0-Test", properties.get( "project.version" ) );
+        assertEquals( "from filter", properties.get( "project.description" ) );
+    }
+}
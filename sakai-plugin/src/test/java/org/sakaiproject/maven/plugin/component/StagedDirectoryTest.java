@@ -0,0 +1,103 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.attribute.FileTime;
+
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class StagedDirectoryTest
+    extends AbstractMojoTestCase
+{
+    private static File testDirectory = new File( getBasedir(), "target/test-classes/unit/stageddirectory-test" );
+
+    public void testSwap()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( testDirectory );
+        File deployed = new File( testDirectory, "tomcat/components/component" );
+        File kept = new File( deployed, "WEB-INF/web.xml" );
+        File changed = new File( deployed, "index.jsp" );
+        kept.getParentFile().mkdirs();
+        FileUtils.fileWrite( kept.getPath(), "<web-app/>" );
+        FileUtils.fileWrite( changed.getPath(), "hello" );
+
+        StagedDirectory staged = new StagedDirectory( deployed );
+        File staging = staged.prepare( true );
+        assertFalse( "staging directory inside the container directory",
+                     staging.getPath().startsWith( deployed.getParent() ) );
+        assertEquals( "<web-app/>", FileUtils.fileRead( new File( staging, "WEB-INF/web.xml" ) ) );
+
+        // written as the archive sync writes, replacing the link
+        FileTransfer.write( new ByteArrayInputStream( "changed".getBytes( "UTF-8" ) ), new File( staging, "index.jsp" ),
+                            FileTime.fromMillis( 0 ) );
+        assertEquals( "deployed file changed while staging", "hello", FileUtils.fileRead( changed ) );
+
+        staged.swap();
+        assertEquals( "changed", FileUtils.fileRead( changed ) );
+        assertEquals( "<web-app/>", FileUtils.fileRead( kept ) );
+        assertFalse( staging.exists() );
+        staged.awaitCleanup();
+        assertEquals( 0, new File( testDirectory, "tomcat/.sakai-staging/components" ).list().length );
+    }
+
+    public void testFirstDeploy()
+        throws Exception
+    {
+        File deployed = new File( testDirectory, "tomcat/webapps/first" );
+        StagedDirectory staged = new StagedDirectory( deployed );
+        FileUtils.fileWrite( new File( staged.prepare( true ), "index.jsp" ).getPath(), "first" );
+        staged.swap();
+        assertEquals( "first", FileUtils.fileRead( new File( deployed, "index.jsp" ) ) );
+    }
+
+    public void testConsecutiveDeploys()
+        throws Exception
+    {
+        File deployed = new File( testDirectory, "tomcat/webapps/consecutive" );
+        File root = new File( testDirectory, "tomcat/.sakai-staging/webapps" );
+        for ( int i = 0; i < 3; i++ )
+        {
+            // a second staged directory, as the next deploy creates, without waiting for the cleanup
+            StagedDirectory staged = new StagedDirectory( deployed );
+            File staging = staged.prepare( true );
+            for ( int j = 0; j < 200; j++ )
+            {
+                FileUtils.fileWrite( new File( staging, "page" + j + ".jsp" ).getPath(), "deploy " + i );
+            }
+            staged.swap();
+            assertEquals( "deploy " + i, FileUtils.fileRead( new File( deployed, "page0.jsp" ) ) );
+        }
+
+        // a previous version left behind by a build which ended before it was deleted
+        File leftover = new File( root, "consecutive.old" );
+        leftover.mkdirs();
+        FileUtils.fileWrite( new File( leftover, "index.jsp" ).getPath(), "old" );
+        StagedDirectory staged = new StagedDirectory( deployed );
+        staged.prepare( false );
+        assertFalse( leftover.exists() );
+        staged.swap();
+        staged.awaitCleanup();
+        assertEquals( 0, root.list().length );
+    }
+}
@@ -0,0 +1,59 @@
+package org.sakaiproject.maven.plugin.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import junit.framework.TestCase;
+
+public class WebappLayoutTest
+    extends TestCase
+{
+    private static final CopyEngine.Task NOTHING = () -> {
+    };
+
+    public void testNewerLayerWins()
+    {
+        WebappLayout layout = new WebappLayout();
+        assertTrue( layout.add( "resources", "index.jsp", 1000, 10, NOTHING ) );
+        assertFalse( layout.add( "overlay a.war", "index.jsp", 500, 20, NOTHING ) );
+        assertFalse( layout.add( "overlay b.war", "index.jsp", 1000, 10, NOTHING ) );
+        assertTrue( layout.add( "overlay c.war", "index.jsp", 1000, 12, NOTHING ) );
+        assertTrue( layout.add( "filtered", "index.jsp", WebappLayout.GENERATED, -1, NOTHING ) );
+
+        assertEquals( 1, layout.size() );
+        assertEquals( 4, layout.getConflicts().size() );
+        assertEquals( "index.jsp from resources shadows overlay a.war",
+                      layout.getConflicts().get( 0 ).toString() );
+        assertEquals( "index.jsp from overlay c.war shadows resources",
+                      layout.getConflicts().get( 2 ).toString() );
+    }
+
+    public void testSameLayerIsNoConflict()
+    {
+        WebappLayout layout = new WebappLayout();
+        layout.add( "resources", "a.txt", 1000, 10, NOTHING );
+        layout.add( "resources", "a.txt", 2000, 10, NOTHING );
+        layout.add( "resources", "b.txt", 2000, 5, NOTHING );
+
+        assertTrue( layout.contains( "b.txt" ) );
+        assertEquals( 2, layout.size() );
+        assertEquals( 15, layout.getTotalBytes() );
+        assertTrue( layout.getConflicts().isEmpty() );
+    }
+}